@@ -0,0 +1,4 @@
+java -cp cb-api.jar ^
+	-Dcb.benchmark.output=benchmark.csv ^
+	com.intland.codebeamer.remoting.sample.RemoteApiBenchmark ^
+	stub
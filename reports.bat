@@ -0,0 +1,5 @@
+java -cp cb-api.jar ^
+	-Dcb.report.threads=4 ^
+	com.intland.codebeamer.remoting.sample.ReportRunner ^
+	http://localhost:8080/cb/remote-api bond 007 ^
+	reports reports.csv "My Project"
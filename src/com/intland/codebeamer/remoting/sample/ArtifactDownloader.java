@@ -13,6 +13,7 @@ package com.intland.codebeamer.remoting.sample;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
 
 import com.intland.codebeamer.persistence.dto.ArtifactDto;
 import com.intland.codebeamer.persistence.dto.BinaryStreamDto;
@@ -32,16 +33,24 @@ import com.intland.codebeamer.remoting.bean.ServerInfo;
  *   <li>signing in as a CodeBeamer user</li>
  *   <li>searching for a document in a project</li>
  *   <li>downloading the document and saving its content to a local file</li>
+ *   <li>mirroring a whole document tree to a local directory with parallel downloads</li>
  * </ul>
+ * When a target directory is also given, the artifact (use <code>/</code> for the whole project)
+ * and all its descendants are mirrored with {@link ArtifactMirror}.
  *
  * @author <a href="mailto:aron.gombas@intland.com">Aron Gombas</a>
  * @version $Id: KlausMehling 2007-09-04 10:52 +0000 14350:8928a2398cc1  $
  */
 public class ArtifactDownloader {
+	/** Default number of parallel downloads when mirroring. */
+	protected static final int DEFAULT_THREADS = 4;
+
 	/** Main entry point. */
 	public static void main(String[] args) throws Exception {
-		if(args.length != 5) {
-			System.err.println("Usage: <program> service-URL login password project-name artifact-name");
+		if(args.length != 5 && args.length != 6) {
+			System.err.println("Usage: <program> service-URL login password project-name artifact-name [target-dir]\n"
+				+ "With a target directory, the artifact (or / for the whole project) and all its descendants are mirrored.\n"
+				+ "Use -Dcb.download.threads=N to mirror with N parallel downloads (default " + DEFAULT_THREADS + ").");
 			System.exit(-1);
 		}
 		String serviceUrl = args[0];
@@ -49,6 +58,7 @@ public class ArtifactDownloader {
 		String password = args[2];
 		String projectName = args[3];
 		String artifactName = args[4];
+		File targetDir = (args.length > 5) ? new File(args[5]) : null;
 
 		System.out.println("Connecting to CodeBeamer web service at " + serviceUrl + "...");
 		RemoteApi api = RemoteApiFactory.getInstance().connect(serviceUrl);
@@ -65,7 +75,9 @@ public class ArtifactDownloader {
 		System.out.println("Searching for project \"" + projectName + "\"...");
 		ProjectDto project = findProjectByName(api.findAllProjects(token), projectName);
 
-		if(project != null) {
+		if(project != null && targetDir != null) {
+			mirror(api, token, project, artifactName, targetDir, Integer.getInteger("cb.download.threads", DEFAULT_THREADS).intValue());
+		} else if(project != null) {
 			System.out.println("Searching for artifact \"" + artifactName + "\"...");
 			ArtifactDto artifact = findArtifactByName(api, token, api.findTopArtifactsByProject(token, project.getId()), artifactName);
 
@@ -96,6 +108,30 @@ public class ArtifactDownloader {
 		System.out.println("Done");
 	}
 
+	/** Mirrors the artifact with the given name (or the whole project for <code>/</code>) to the target directory. */
+	protected static void mirror(RemoteApi api, String token, ProjectDto project, String artifactName, File targetDir, int threads) throws IOException {
+		ArtifactDto artifacts[] = api.findTopArtifactsByProject(token, project.getId());
+		if(!"/".equals(artifactName)) {
+			System.out.println("Searching for artifact \"" + artifactName + "\"...");
+			ArtifactDto artifact = findArtifactByName(api, token, artifacts, artifactName);
+			if(artifact == null) {
+				System.err.println("Couldn't find artifact \"" + artifactName + "\" in project \"" + project.getName() + "\"");
+				return;
+			}
+			artifacts = artifact.isDirectory() ? api.findArtifactsByParentArtifact(token, artifact.getId()) : new ArtifactDto[] { artifact };
+		}
+
+		System.out.println("Mirroring to " + targetDir + " with " + threads + " parallel downloads...");
+		ExecutorService executor = SampleExecutor.getInstance().newGroup(token, Math.max(1, threads));
+		try {
+			ArtifactMirror mirror = new ArtifactMirror(api, token, targetDir, executor);
+			mirror.mirror(artifacts);
+			System.out.println(" " + mirror.getDownloaded() + " files (" + mirror.getBytes() + " bytes) downloaded, " + mirror.getSkipped() + " up to date, " + mirror.getFailed() + " failed");
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
 	/** Returns the project with the given name. */
 	protected static ProjectDto findProjectByName(ProjectDto projects[], String projectName) {
 		for(int i = 0; i < projects.length; i++)
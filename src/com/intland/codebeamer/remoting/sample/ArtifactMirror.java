@@ -0,0 +1,250 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.intland.codebeamer.persistence.dto.ArtifactDto;
+import com.intland.codebeamer.persistence.dto.BinaryStreamDto;
+import com.intland.codebeamer.persistence.util.BinaryStreamDtoHelper;
+import com.intland.codebeamer.remoting.RemoteApi;
+
+
+/**
+ * Mirrors a document tree to a local directory, downloading the files with
+ * multiple {@link RemoteApi#getArtifactBody(String, Integer)} requests at the same time.
+ * <p>
+ * Every file is first written to a <code>.part</code> file next to its final location
+ * and renamed only when completely downloaded, so the mirror never contains truncated files.
+ * The version and size of the downloaded files are kept in a state file in the target
+ * directory, and the files whose version and size have not changed since are skipped.
+ * An interrupted mirror can therefore be resumed by running it again: only the files
+ * that were not finished are downloaded again.
+ *
+ * @see com.intland.codebeamer.remoting.sample.ArtifactDownloader
+ *
+ * @version $Id$
+ */
+public class ArtifactMirror {
+	/** The name of the state file in the target directory. */
+	public static final String STATE_FILE_NAME = ".cbmirror.properties";
+
+	/** Suffix of the files being downloaded. */
+	protected static final String PART_SUFFIX = ".part";
+
+	/** The state file is saved after this many downloaded files. */
+	protected static final int SAVE_INTERVAL = 100;
+
+	private final RemoteApi api;
+	private final String token;
+	private final File targetDir;
+	private final ExecutorService executor;
+	private final File stateFile;
+	private final Properties state = new Properties();
+
+	private final AtomicInteger downloaded = new AtomicInteger();
+	private final AtomicInteger skipped = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private final AtomicLong bytes = new AtomicLong();
+	private int unsaved = 0;
+
+	/**
+	 * @param executor runs both the listing of the directories and the downloads.
+	 */
+	public ArtifactMirror(RemoteApi api, String token, File targetDir, ExecutorService executor) throws IOException {
+		this.api = api;
+		this.token = token;
+		this.targetDir = targetDir;
+		this.executor = executor;
+		this.stateFile = new File(targetDir, STATE_FILE_NAME);
+
+		if(!targetDir.isDirectory() && !targetDir.mkdirs())
+			throw new IOException("Couldn't create target directory " + targetDir);
+
+		if(stateFile.exists()) {
+			InputStream in = new FileInputStream(stateFile);
+			try {
+				state.load(in);
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * Mirrors the given artifacts and all their descendants.
+	 * @return the number of files downloaded.
+	 */
+	public int mirror(ArtifactDto artifacts[]) throws IOException {
+		List<Future<?>> downloads = new ArrayList<Future<?>>();
+		try {
+			mirror(ArtifactNode.list(api, token, artifacts, executor), targetDir, "", downloads);
+
+			for(Future<?> download : downloads)
+				download.get();
+		} catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while mirroring to " + targetDir);
+		} catch(ExecutionException ex) {
+			throw new RuntimeException(ex.getCause());
+		} finally {
+			saveState();
+		}
+
+		if(failed.get() > 0)
+			System.err.println(failed.get() + " files failed, run the mirror again to retry them");
+
+		return downloaded.get();
+	}
+
+	/** Creates the directories and submits the downloads of the files, in depth-first order. */
+	protected void mirror(ArtifactNode nodes[], File dir, String path, List<Future<?>> downloads) throws IOException {
+		for(int i = 0; i < nodes.length; i++) {
+			ArtifactDto artifact = nodes[i].getArtifact();
+			String name = toFileName(artifact.getName());
+
+			if(artifact.isDirectory()) {
+				File subDir = new File(dir, name);
+				if(!subDir.isDirectory() && !subDir.mkdirs())
+					throw new IOException("Couldn't create directory " + subDir);
+
+				mirror(nodes[i].getChildren(), subDir, path + name + "/", downloads);
+			} else if(artifact.isFile()) {
+				File file = new File(dir, name);
+				if(isUpToDate(path + name, artifact, file)) {
+					skipped.incrementAndGet();
+				} else {
+					downloads.add(executor.submit(new Download(artifact, file, path + name)));
+				}
+			}
+		}
+	}
+
+	/** Returns whether the local file has the same version and size as the artifact. */
+	protected boolean isUpToDate(String path, ArtifactDto artifact, File file) {
+		String downloadedVersion;
+		synchronized(state) {
+			downloadedVersion = state.getProperty(path);
+		}
+
+		return downloadedVersion != null && downloadedVersion.equals(toVersion(artifact)) && file.isFile()
+			&& (artifact.getFileSize() == null || artifact.getFileSize().longValue() == file.length());
+	}
+
+	/** Records a downloaded file and saves the state from time to time. */
+	protected void downloaded(String path, ArtifactDto artifact) throws IOException {
+		synchronized(state) {
+			state.setProperty(path, toVersion(artifact));
+			if(++unsaved < SAVE_INTERVAL)
+				return;
+		}
+		saveState();
+	}
+
+	/** Saves the state file, replacing it only when completely written. */
+	protected void saveState() throws IOException {
+		synchronized(state) {
+			File tempFile = new File(stateFile.getPath() + ".tmp");
+			OutputStream out = new FileOutputStream(tempFile);
+			try {
+				state.store(out, "CodeBeamer artifact mirror, path=version/size");
+			} finally {
+				out.close();
+			}
+
+			if(stateFile.exists() && !stateFile.delete() || !tempFile.renameTo(stateFile))
+				throw new IOException("Couldn't replace state file " + stateFile);
+
+			unsaved = 0;
+		}
+	}
+
+	public int getDownloaded() {
+		return downloaded.get();
+	}
+
+	public int getSkipped() {
+		return skipped.get();
+	}
+
+	public int getFailed() {
+		return failed.get();
+	}
+
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	/** Returns the version and size of the artifact as stored in the state file. */
+	protected static String toVersion(ArtifactDto artifact) {
+		return artifact.getVersion() + "/" + artifact.getFileSize();
+	}
+
+	/** Replaces the characters that are not allowed in file names on the common file systems. */
+	protected static String toFileName(String name) {
+		return name.replaceAll("[\\\\/:*?\"<>|]", "_");
+	}
+
+	/** Downloads a single file to a temporary file, then renames it. */
+	private class Download implements Callable<Object> {
+		private final ArtifactDto artifact;
+		private final File file;
+		private final String path;
+
+		Download(ArtifactDto artifact, File file, String path) {
+			this.artifact = artifact;
+			this.file = file;
+			this.path = path;
+		}
+
+		public Object call() throws IOException {
+			File partFile = new File(file.getPath() + PART_SUFFIX);
+			try {
+				BinaryStreamDto data = api.getArtifactBody(token, artifact.getId());
+				if(data == null)
+					throw new IOException("Empty content");
+
+				BinaryStreamDtoHelper.saveToFile(data, partFile);
+				if(data.getLength() != null && data.getLength().longValue() != partFile.length())
+					throw new IOException("Incomplete content, " + partFile.length() + " of " + data.getLength() + " bytes");
+
+				if(file.exists() && !file.delete() || !partFile.renameTo(file))
+					throw new IOException("Couldn't rename " + partFile + " to " + file);
+			} catch(Exception ex) {
+				System.err.println("Couldn't download " + path + ": " + ex);
+				partFile.delete();
+				failed.incrementAndGet();
+				return null;
+			}
+
+			bytes.addAndGet(file.length());
+			downloaded.incrementAndGet();
+			downloaded(path, artifact);
+			return null;
+		}
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.intland.codebeamer.persistence.dto.ArtifactDto;
+import com.intland.codebeamer.remoting.RemoteApi;
+
+
+/**
+ * An artifact in a document tree whose children are listed in the background.
+ * <p>
+ * As soon as the children of a directory are known, the listing of their own
+ * children is submitted too, so the whole tree is crawled with as many parallel
+ * requests as the executor allows, while the caller can still visit the nodes
+ * in depth-first order.
+ *
+ * @version $Id$
+ */
+public class ArtifactNode {
+	private static final ArtifactNode NO_CHILDREN[] = new ArtifactNode[0];
+
+	private final ArtifactDto artifact;
+	private final Future<ArtifactNode[]> children;
+
+	protected ArtifactNode(ArtifactDto artifact, Future<ArtifactNode[]> children) {
+		this.artifact = artifact;
+		this.children = children;
+	}
+
+	/**
+	 * Creates the nodes for the given artifacts and submits the listing of
+	 * the children of the directories among them.
+	 */
+	public static ArtifactNode[] list(RemoteApi api, String token, ArtifactDto artifacts[], ExecutorService executor) {
+		ArtifactNode nodes[] = new ArtifactNode[artifacts.length];
+		for(int i = 0; i < artifacts.length; i++) {
+			Future<ArtifactNode[]> children = null;
+			if(artifacts[i].isDirectory())
+				children = executor.submit(new ChildrenLister(api, token, artifacts[i].getId(), executor));
+
+			nodes[i] = new ArtifactNode(artifacts[i], children);
+		}
+
+		return nodes;
+	}
+
+	public ArtifactDto getArtifact() {
+		return artifact;
+	}
+
+	/** Returns the children of this artifact, waiting for the listing if it is not ready yet. */
+	public ArtifactNode[] getChildren() throws InterruptedIOException {
+		if(children == null)
+			return NO_CHILDREN;
+
+		try {
+			return children.get();
+		} catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while listing the children of artifact " + artifact.getId());
+		} catch(ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if(cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+	}
+
+	/** Lists the children of a directory and submits the listing of the next level. */
+	private static class ChildrenLister implements Callable<ArtifactNode[]> {
+		private final RemoteApi api;
+		private final String token;
+		private final Integer parentId;
+		private final ExecutorService executor;
+
+		ChildrenLister(RemoteApi api, String token, Integer parentId, ExecutorService executor) {
+			this.api = api;
+			this.token = token;
+			this.parentId = parentId;
+			this.executor = executor;
+		}
+
+		public ArtifactNode[] call() {
+			return list(api, token, api.findArtifactsByParentArtifact(token, parentId), executor);
+		}
+	}
+}
@@ -11,6 +11,7 @@
  */
 package com.intland.codebeamer.remoting.sample;
 
+import java.io.File;
 import java.util.Date;
 
 import com.intland.codebeamer.persistence.dto.ArtifactDto;
@@ -34,6 +35,7 @@ import com.intland.codebeamer.remoting.bean.ServerInfo;
  *   <li>creating a new folder in the root dir of the project</li>
  *   <li>uploading a new textfile as to this folder with the status "New"</li>
  *   <li>adding a second revision of the same textfile</li>
+ *   <li>optionally, streaming a local file of any size as a third document</li>
  * </ul>
  *
  * @author <a href="mailto:aron.gombas@intland.com">Aron Gombas</a>
@@ -42,14 +44,17 @@ import com.intland.codebeamer.remoting.bean.ServerInfo;
 public class ArtifactUploader {
 	/** Main entry point. */
 	public static void main(String[] args) throws Exception {
-		if(args.length != 4) {
-			System.err.println("Usage: <program> service-URL login password project-name");
+		if(args.length != 4 && args.length != 5) {
+			System.err.println("Usage: <program> service-URL login password project-name [file-to-upload]");
 			System.exit(-1);
 		}
 		String serviceUrl = args[0];
 		String login = args[1];
 		String password = args[2];
 		String projectName = args[3];
+		File file = (args.length > 4) ? new File(args[4]) : null;
+
+		MappedFileInputStream.enableStreaming();
 
 		System.out.println("Connecting to CodeBeamer web service at " + serviceUrl + "...");
 		RemoteApi api = RemoteApiFactory.getInstance().connect(serviceUrl);
@@ -96,6 +101,11 @@ public class ArtifactUploader {
 
 			System.out.println("Uploading new revision of \"" + docName + "\"...");
 			api.updateArtifactBody(token, doc.getId(), BinaryStreamDtoHelper.createFromBytes("This is the changed binary content of the file (<strong>second</strong> version).".getBytes()), "Second version.", null);
+
+			if(file != null) {
+				System.out.print("Uploading file \"" + file + "\" (" + file.length() + " bytes)...");
+				uploadFile(api, token, dir, file, status, user);
+			}
 		} else {
 			System.out.println("Couldn't find project \"" + projectName + "\"");
 		}
@@ -106,6 +116,33 @@ public class ArtifactUploader {
 		System.out.println("Done");
 	}
 
+	/**
+	 * Uploads the file into the directory without loading it into the memory.
+	 * @return the created artifact.
+	 */
+	protected static ArtifactDto uploadFile(RemoteApi api, String token, ArtifactDto dir, File file, ArtifactStatusDto status, UserDto user) throws Exception {
+		ArtifactDto doc = new ArtifactDto();
+		doc.setProject(dir.getProject());
+		doc.setParent(dir);
+		doc.setName(file.getName());
+		doc.setTypeId(Integer.valueOf(ArtifactType.FILE));
+		doc.setDescription("This document was streamed through the CodeBeamer API.");
+		doc.setOwner(user);
+		doc.setStatus(status);
+		doc.setFileSize(Long.valueOf(file.length()));
+
+		ThroughputMonitor monitor = new ThroughputMonitor("bytes");
+		MappedFileInputStream in = new MappedFileInputStream(file, monitor);
+		try {
+			doc = api.createArtifactWithBody(token, doc, in.toBinaryStream());
+		} finally {
+			in.close();
+		}
+		System.out.println(" " + monitor.getCount() + " bytes (" + (long) monitor.getRate() + " bytes/s)");
+
+		return doc;
+	}
+
 	/** Returns the project with the given name. */
 	protected static ProjectDto findProjectByName(ProjectDto projects[], String projectName) {
 		for(int i = 0; i < projects.length; i++)
@@ -0,0 +1,313 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import com.intland.codebeamer.remoting.RemoteApi;
+
+
+/**
+ * Calls the methods of a {@link RemoteApi} asynchronously.
+ * <p>
+ * The calls are written against the interface itself: {@link #call()} returns a proxy
+ * which only records the method and the arguments, and {@link #submit(Object)} sends the
+ * recorded call on the executor and returns its future:
+ * <pre>
+ * Future&lt;TrackerItemDto[]&gt; items = async.submit(async.call().findTrackerItemsByTrackerId(token, trackerId));
+ * </pre>
+ * The result can be waited for or handled by a {@link Callback} on the thread completing the call,
+ * which may submit further calls, so a tree can be crawled without a thread waiting per level.
+ * <p>
+ * A call can be given a timeout, after which its future fails with a {@link TimeoutException}.
+ * The calls can be cancelled one by one through their future, or all together with {@link #cancelAll()}.
+ * The remote calls are blocking, so a cancelled or timed out call that is already running keeps its
+ * thread until the server replies (set a read timeout on the transport to bound that), but its
+ * result is dropped and the waiting callers are released at once.
+ *
+ * @version $Id$
+ */
+public class AsyncRemoteApi {
+	/** Checks the timeouts of all the instances. */
+	private static ScheduledThreadPoolExecutor timer;
+
+	private final RemoteApi api;
+	private final Executor executor;
+	private final RemoteApi recorder;
+	private final ThreadLocal<Invocation> recorded = new ThreadLocal<Invocation>();
+	private final Set<CallFuture<?>> pending = Collections.newSetFromMap(new ConcurrentHashMap<CallFuture<?>, Boolean>());
+	private volatile long defaultTimeoutMillis = 0;
+
+	/** Receives the outcome of a call. */
+	public interface Callback<T> {
+		/** Called with the result of the call, a <code>RuntimeException</code> thrown here is passed to {@link #failed(Throwable)}. */
+		void completed(T result);
+
+		/** Called with the exception thrown by the call, a {@link TimeoutException} or a {@link CancellationException}. */
+		void failed(Throwable cause);
+	}
+
+	/**
+	 * @param executor runs the calls, its number of threads limits the number of calls in flight.
+	 */
+	public AsyncRemoteApi(RemoteApi api, Executor executor) {
+		this.api = api;
+		this.executor = executor;
+		this.recorder = (RemoteApi) Proxy.newProxyInstance(RemoteApi.class.getClassLoader(), new Class<?>[] { RemoteApi.class }, new Recorder());
+	}
+
+	/** Sets the timeout of the calls submitted without an explicit one, 0 means no timeout. */
+	public void setDefaultTimeout(long timeout, TimeUnit unit) {
+		this.defaultTimeoutMillis = unit.toMillis(timeout);
+	}
+
+	/**
+	 * Returns the proxy recording the next call to submit. Its methods return
+	 * <code>null</code> (or zero or <code>false</code>) without calling the server.
+	 */
+	public RemoteApi call() {
+		return recorder;
+	}
+
+	/**
+	 * Submits the call recorded by {@link #call()} on this thread.
+	 * @param call the return value of the recorded call, only used to type the future.
+	 */
+	public <T> Future<T> submit(T call) {
+		return submit(call, defaultTimeoutMillis, TimeUnit.MILLISECONDS, null);
+	}
+
+	public <T> Future<T> submit(T call, Callback<? super T> callback) {
+		return submit(call, defaultTimeoutMillis, TimeUnit.MILLISECONDS, callback);
+	}
+
+	/**
+	 * Submits the call recorded by {@link #call()} on this thread.
+	 * @param timeout the time after which the call fails, 0 means no timeout.
+	 * @param callback notified when the call completes, fails, times out or is cancelled, can be <code>null</code>.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> Future<T> submit(T call, long timeout, TimeUnit unit, Callback<? super T> callback) {
+		final Invocation invocation = recorded.get();
+		if(invocation == null)
+			throw new IllegalStateException("No call recorded, use submit(call().method(...))");
+		recorded.remove();
+
+		return submit(new Callable<T>() {
+			public T call() throws Exception {
+				try {
+					return (T) invocation.method.invoke(api, invocation.args);
+				} catch(InvocationTargetException ex) {
+					Throwable cause = ex.getCause();
+					if(cause instanceof Exception)
+						throw (Exception) cause;
+					if(cause instanceof Error)
+						throw (Error) cause;
+					throw ex;
+				}
+			}
+
+			public String toString() {
+				return invocation.method.getName();
+			}
+		}, timeout, unit, callback);
+	}
+
+	/**
+	 * Submits any other work, typically a sequence of calls depending on each other,
+	 * with the same timeout and cancellation as the single calls.
+	 */
+	public <T> Future<T> submit(Callable<T> task, long timeout, TimeUnit unit, Callback<? super T> callback) {
+		final CallFuture<T> future = new CallFuture<T>(task, callback);
+		pending.add(future);
+		if(timeout > 0) {
+			future.setTimeoutTask(getTimer().schedule(new Runnable() {
+				public void run() {
+					future.timeout();
+				}
+			}, timeout, unit));
+		}
+
+		try {
+			executor.execute(future);
+		} catch(RuntimeException ex) {
+			pending.remove(future);
+			throw ex;
+		}
+		return future;
+	}
+
+	/**
+	 * Cancels all the calls submitted so far which have not completed yet.
+	 * @return the number of cancelled calls.
+	 */
+	public int cancelAll() {
+		int cancelled = 0;
+		for(CallFuture<?> future : new ArrayList<CallFuture<?>>(pending)) {
+			if(future.cancel(true))
+				cancelled++;
+		}
+		return cancelled;
+	}
+
+	/** Returns the number of calls submitted but not completed yet. */
+	public int getPending() {
+		return pending.size();
+	}
+
+	/** Waits until all the given futures complete and returns their results, or throws the first failure. */
+	public static <T> List<T> getAll(List<Future<T>> futures) throws InterruptedException, ExecutionException {
+		List<T> results = new ArrayList<T>(futures.size());
+		for(Future<T> future : futures)
+			results.add(future.get());
+		return results;
+	}
+
+	private static synchronized ScheduledThreadPoolExecutor getTimer() {
+		if(timer == null) {
+			timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "async-remote-api-timer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			// the timeouts of the completed calls are cancelled, do not keep them until they expire
+			timer.setRemoveOnCancelPolicy(true);
+		}
+		return timer;
+	}
+
+	/** A method called on the recorder. */
+	private static class Invocation {
+		private final Method method;
+		private final Object args[];
+
+		Invocation(Method method, Object args[]) {
+			this.method = method;
+			this.args = args;
+		}
+	}
+
+	/** Records the calls instead of sending them. */
+	private class Recorder implements InvocationHandler {
+		public Object invoke(Object proxy, Method method, Object args[]) throws Throwable {
+			if(method.getDeclaringClass() == Object.class) {
+				String name = method.getName();
+				if(name.equals("equals"))
+					return Boolean.valueOf(proxy == args[0]);
+				if(name.equals("hashCode"))
+					return Integer.valueOf(System.identityHashCode(proxy));
+				return "Recorder of " + api;
+			}
+
+			recorded.set(new Invocation(method, args));
+			return getDefaultValue(method.getReturnType());
+		}
+
+		/** Returns a value the primitive return types can be unboxed from. */
+		private Object getDefaultValue(Class<?> type) {
+			if(!type.isPrimitive() || type == Void.TYPE)
+				return null;
+			if(type == Boolean.TYPE)
+				return Boolean.FALSE;
+			if(type == Character.TYPE)
+				return Character.valueOf((char) 0);
+			if(type == Byte.TYPE)
+				return Byte.valueOf((byte) 0);
+			if(type == Short.TYPE)
+				return Short.valueOf((short) 0);
+			if(type == Integer.TYPE)
+				return Integer.valueOf(0);
+			if(type == Long.TYPE)
+				return Long.valueOf(0);
+			if(type == Float.TYPE)
+				return Float.valueOf(0);
+			return Double.valueOf(0);
+		}
+	}
+
+	/** The future of a call, which can time out and notifies its callback. */
+	private class CallFuture<T> extends FutureTask<T> {
+		private final Object task;
+		private final Callback<? super T> callback;
+		private volatile ScheduledFuture<?> timeoutTask;
+
+		CallFuture(Callable<T> task, Callback<? super T> callback) {
+			super(task);
+			this.task = task;
+			this.callback = callback;
+		}
+
+		/** Sets the task failing the call at its timeout, cancelled when the call completes. */
+		void setTimeoutTask(ScheduledFuture<?> timeoutTask) {
+			this.timeoutTask = timeoutTask;
+			// the call may have completed before the task was set
+			if(isDone())
+				timeoutTask.cancel(false);
+		}
+
+		void timeout() {
+			if(!isDone())
+				setException(new TimeoutException(task + " timed out"));
+		}
+
+		protected void done() {
+			pending.remove(this);
+			ScheduledFuture<?> timeoutTask = this.timeoutTask;
+			if(timeoutTask != null)
+				timeoutTask.cancel(false);
+			if(callback == null)
+				return;
+
+			T result;
+			try {
+				result = get();
+			} catch(ExecutionException ex) {
+				callback.failed(ex.getCause());
+				return;
+			} catch(CancellationException ex) {
+				callback.failed(ex);
+				return;
+			} catch(InterruptedException ex) {
+				// the future is done, so get() does not wait
+				Thread.currentThread().interrupt();
+				return;
+			}
+			try {
+				callback.completed(result);
+			} catch(RuntimeException ex) {
+				// otherwise the failure would be lost on the executor thread, and the caller waiting for the callbacks would hang
+				callback.failed(ex);
+			}
+		}
+	}
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.Ostermiller.util.CSVParser;
+import com.intland.codebeamer.remoting.RemoteApi;
+import com.intland.codebeamer.remoting.RemoteApi.BatchMethodResult;
+import com.intland.codebeamer.remoting.client.BatchRecorder;
+
+
+/**
+ * Imports CSV rows by sending the create calls of multiple rows in a single
+ * {@link RemoteApi#batch(com.intland.codebeamer.remoting.RemoteApi.BatchMethodCall[])} request.
+ * <p>
+ * The calls are recorded with a {@link BatchRecorder}. The result of each call is
+ * checked separately, so a failing row is reported and does not stop the import.
+ * <p>
+ * The batch size is adapted to the measured round trip time: it is doubled while a batch
+ * completes in less than half of the target latency and halved when a batch takes longer than that.
+ *
+ * @see com.intland.codebeamer.remoting.sample.CodeBeamerCsvImporter
+ *
+ * @version $Id$
+ */
+public class BatchCsvImporter implements CsvImportEngine {
+	/** Default round trip time a batch should fit into. */
+	public static final long DEFAULT_TARGET_LATENCY_MILLIS = 2000;
+
+	/** The batch size is never increased above this. */
+	public static final int MAX_BATCH_SIZE = 1000;
+
+	private final RemoteApi api;
+	private final String token;
+	private final long targetLatencyMillis;
+	private int batchSize;
+
+	public BatchCsvImporter(RemoteApi api, String token, int initialBatchSize) {
+		this(api, token, initialBatchSize, DEFAULT_TARGET_LATENCY_MILLIS);
+	}
+
+	public BatchCsvImporter(RemoteApi api, String token, int initialBatchSize, long targetLatencyMillis) {
+		if(initialBatchSize < 1)
+			throw new IllegalArgumentException("The batch size must be positive: " + initialBatchSize);
+
+		this.api = api;
+		this.token = token;
+		this.batchSize = Math.min(initialBatchSize, MAX_BATCH_SIZE);
+		this.targetLatencyMillis = targetLatencyMillis;
+	}
+
+	/** Returns the current (adapted) batch size. */
+	public int getBatchSize() {
+		return batchSize;
+	}
+
+	public <T> int importRows(InputStream in, final CsvRowImporter<T> importer) throws Exception {
+		final int counters[] = new int[2]; // imported, failed
+		final ThroughputMonitor monitor = new ThroughputMonitor("rows");
+		BatchRecorder recorder = new BatchRecorder();
+		int pending = 0;
+
+		try {
+			CSVParser parser = new CSVParser(in, ',');
+
+			// parse by skipping the first row
+			String values[] = parser.getLine();
+			while((values = parser.getLine()) != null) {
+				final T entity = importer.parse(api, token, values);
+				if(entity == null)
+					continue;
+
+				final int lineNumber = parser.getLastLineNumber();
+				recorder.callInBatch(new BatchRecorder.ICall<T>() {
+					public void record(RemoteApi recordingApi) throws Throwable {
+						importer.create(recordingApi, token, entity);
+					}
+
+					public void processResult(BatchMethodResult<T> result) {
+						if(result.getThrowable() != null) {
+							System.err.println("Couldn't import row " + lineNumber + ": " + result.getThrowable());
+							counters[1]++;
+						} else if(result.result != null) {
+							counters[0]++;
+						}
+						try {
+							importer.created(entity, result.result);
+						} catch(Exception ex) {
+							System.err.println("Couldn't complete row " + lineNumber + ": " + ex);
+						}
+						monitor.increment();
+					}
+				});
+
+				if(++pending >= batchSize) {
+					execute(recorder);
+					pending = 0;
+				}
+			}
+		} catch(IOException ex) {
+			System.err.println(ex);
+		}
+
+		if(pending > 0)
+			execute(recorder);
+
+		if(counters[1] > 0)
+			System.err.println(counters[1] + " rows failed");
+
+		return counters[0];
+	}
+
+	/** Sends the recorded calls and adapts the batch size to the measured round trip time. */
+	protected void execute(BatchRecorder recorder) throws Exception {
+		long startTime = System.currentTimeMillis();
+		try {
+			recorder.executeCalls(api);
+		} catch(Exception ex) {
+			throw ex;
+		} catch(Error ex) {
+			throw ex;
+		} catch(Throwable ex) {
+			throw new RuntimeException(ex);
+		}
+		long duration = System.currentTimeMillis() - startTime;
+
+		if(duration > targetLatencyMillis)
+			batchSize = Math.max(1, batchSize / 2);
+		else if(duration < targetLatencyMillis / 2)
+			batchSize = Math.min(MAX_BATCH_SIZE, batchSize * 2);
+	}
+}
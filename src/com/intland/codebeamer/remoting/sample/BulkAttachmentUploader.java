@@ -0,0 +1,408 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.Ostermiller.util.CSVPrinter;
+import com.intland.codebeamer.manager.AccessRightsException;
+import com.intland.codebeamer.manager.util.ArtifactNameConflictException;
+import com.intland.codebeamer.manager.util.ChangeVetoedException;
+import com.intland.codebeamer.persistence.dto.ArtifactDto;
+import com.intland.codebeamer.persistence.dto.BinaryStreamDto;
+import com.intland.codebeamer.persistence.dto.TrackerItemDto;
+import com.intland.codebeamer.persistence.dto.UserDto;
+import com.intland.codebeamer.persistence.dto.WikiPageDto;
+import com.intland.codebeamer.remoting.ArtifactType;
+import com.intland.codebeamer.remoting.RemoteApi;
+import com.intland.codebeamer.remoting.RemoteApiFactory;
+import com.intland.codebeamer.remoting.bean.ServerInfo;
+
+
+/**
+ * This program is part of the CodeBeamer SDK.
+ * <p>
+ * This console application illustrates:
+ * <ul>
+ *   <li>connecting to CodeBeamer</li>
+ *   <li>signing in as a CodeBeamer user</li>
+ *   <li>uploading all the files of a directory as attachments of a wiki page or a tracker item, in parallel</li>
+ *   <li>writing the outcome of every upload to a CSV manifest</li>
+ * </ul>
+ * The files are streamed with {@link MappedFileInputStream}. The total size of the files
+ * being uploaded at the same time is limited, so a few large files cannot exhaust the
+ * memory or the bandwidth. Failed uploads are retried with exponential backoff, unless the
+ * failure is permanent (for example missing permissions or a name conflict). As a failed
+ * attempt may still have created the attachment (for example when the response timed out),
+ * the target is checked for it before each retry, so the retries do not create duplicates.
+ *
+ * @see com.intland.codebeamer.remoting.sample.WikiAttachmentUploader
+ *
+ * @version $Id$
+ */
+public class BulkAttachmentUploader {
+	/** Columns of the manifest. */
+	public static final String ManifestHeader[] = { "file", "size", "status", "attempts", "millis", "result" };
+
+	public static final String STATUS_OK = "OK";
+	public static final String STATUS_FAILED = "FAILED";
+
+	/** Default number of parallel uploads. */
+	public static final int DEFAULT_THREADS = 4;
+
+	/** Default limit of the bytes being uploaded at the same time, in megabytes. */
+	public static final int DEFAULT_MAX_IN_FLIGHT_MB = 64;
+
+	/** Default number of retries after a failed upload. */
+	public static final int DEFAULT_RETRIES = 3;
+
+	/** The wait before the first retry, doubled for each further retry. */
+	protected static final long INITIAL_BACKOFF_MILLIS = 1000;
+
+	/** The wait between two retries is never longer than this. */
+	protected static final long MAX_BACKOFF_MILLIS = 30000;
+
+	/** Where the files are attached to. */
+	public interface Target {
+		/**
+		 * Uploads the content of the file as a new attachment.
+		 * @return the ID of the created entity, written to the manifest.
+		 */
+		Integer upload(RemoteApi api, String token, File file, BinaryStreamDto content) throws Exception;
+
+		/**
+		 * Finds the attachment of the file created by a failed attempt, an attachment with the same name and size.
+		 * @return the ID written to the manifest, or <code>null</code> if the file is not attached.
+		 */
+		Integer findUpload(RemoteApi api, String token, File file) throws Exception;
+	}
+
+	private final RemoteApi api;
+	private final String token;
+	private final Target target;
+	private final int threads;
+	private final int retries;
+	private final int maxInFlightKB;
+	private final Semaphore inFlight;
+	private final Random random = new Random();
+
+	private final AtomicInteger uploaded = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+
+	/**
+	 * @param maxInFlightMB limit of the bytes being uploaded at the same time.
+	 * A file larger than this is uploaded alone.
+	 */
+	public BulkAttachmentUploader(RemoteApi api, String token, Target target, int threads, int maxInFlightMB, int retries) {
+		if(threads < 1)
+			throw new IllegalArgumentException("The number of threads must be positive: " + threads);
+		if(maxInFlightMB < 1)
+			throw new IllegalArgumentException("The in-flight limit must be positive: " + maxInFlightMB);
+
+		this.api = api;
+		this.token = token;
+		this.target = target;
+		this.threads = threads;
+		this.retries = Math.max(0, retries);
+		this.maxInFlightKB = maxInFlightMB * 1024;
+		this.inFlight = new Semaphore(maxInFlightKB, true);
+	}
+
+	/**
+	 * Main entry point.
+	 * Commandline parsing is not elaborated, for real use
+	 * please consider using the Apache Commons CLI package.
+	 */
+	public static void main(String[] args) throws Exception {
+		if(args.length != 7 || !("page".equals(args[3]) || "item".equals(args[3]))) {
+			System.err.println("Usage: <program> service-URL login password page|item target-id file-dir manifest-file\n"
+				+ "All the files of the directory are attached to the wiki page or the tracker item with the given ID.\n"
+				+ "Use -Dcb.upload.threads=N (default " + DEFAULT_THREADS + "), -Dcb.upload.maxInFlightMB=N (default " + DEFAULT_MAX_IN_FLIGHT_MB + ")"
+				+ " and -Dcb.upload.retries=N (default " + DEFAULT_RETRIES + ") to tune the upload.");
+			System.exit(-1);
+		}
+		String serviceUrl = args[0];
+		String login = args[1];
+		String password = args[2];
+		boolean wikiPage = "page".equals(args[3]);
+		Integer targetId = Integer.valueOf(args[4]);
+		File dir = new File(args[5]);
+		File manifest = new File(args[6]);
+
+		File files[] = dir.listFiles();
+		if(files == null) {
+			System.err.println("Couldn't find directory " + dir);
+			System.exit(-1);
+		}
+
+		MappedFileInputStream.enableStreaming();
+
+		System.out.println("Connecting to CodeBeamer web service at " + serviceUrl + "...");
+		RemoteApi api = RemoteApiFactory.getInstance().connect(serviceUrl);
+		if(api == null) {
+			System.err.println("Couldn't connect, is the service URL correct?");
+			System.exit(-1);
+		}
+
+		System.out.println("Signing in...");
+		String token = api.login(login, password);
+		ServerInfo serverInfo = api.getServerInfo();
+		System.out.println("Signed in to CodeBeamer " + serverInfo.getMajorVersion() + serverInfo.getMinorVersion() + " (" + serverInfo.getBuildDate() + ") running on " + serverInfo.getOs() + "/Java " + serverInfo.getJavaVersion());
+
+		Target target;
+		if(wikiPage) {
+			WikiPageDto page = api.findWikiPageById(token, targetId);
+			if(page == null) {
+				System.err.println("Couldn't find wiki page " + targetId);
+				System.exit(-1);
+			}
+			target = new WikiPageTarget(page, api.getSessionUser(token), "Attachment uploaded using the RemoteAPI.");
+		} else {
+			target = new TrackerItemTarget(targetId, "Attachment uploaded using the RemoteAPI.");
+		}
+
+		BulkAttachmentUploader uploader = new BulkAttachmentUploader(api, token, target,
+				Integer.getInteger("cb.upload.threads", DEFAULT_THREADS).intValue(),
+				Integer.getInteger("cb.upload.maxInFlightMB", DEFAULT_MAX_IN_FLIGHT_MB).intValue(),
+				Integer.getInteger("cb.upload.retries", DEFAULT_RETRIES).intValue());
+
+		System.out.print("Uploading " + files.length + " files...");
+		uploader.upload(files, manifest);
+		System.out.println(" " + uploader.getUploaded() + " uploaded, " + uploader.getFailed() + " failed, see " + manifest);
+
+		System.out.println("Signing out...");
+		api.logout(token);
+
+		System.out.println("Done");
+	}
+
+	/**
+	 * Uploads the regular files among the given ones and writes the outcome of each to the manifest.
+	 * @return the number of files uploaded.
+	 */
+	public int upload(File files[], File manifest) throws IOException {
+		OutputStream out = new FileOutputStream(manifest);
+		try {
+			CSVPrinter printer = new CSVPrinter(out);
+			printer.writeln(ManifestHeader);
+			upload(files, printer);
+		} finally {
+			out.close();
+		}
+
+		return uploaded.get();
+	}
+
+	/**
+	 * Uploads the regular files among the given ones and writes the outcome of each to the printer.
+	 * @return the number of files uploaded.
+	 */
+	public int upload(File files[], CSVPrinter manifest) throws IOException {
+		ThroughputMonitor monitor = new ThroughputMonitor("files");
+		ExecutorService executor = SampleExecutor.getInstance().newGroup(token, threads);
+		try {
+			List<Future<?>> uploads = new ArrayList<Future<?>>();
+			for(int i = 0; i < files.length; i++) {
+				if(files[i].isFile())
+					uploads.add(executor.submit(new Upload(files[i], manifest, monitor)));
+			}
+
+			for(Future<?> upload : uploads)
+				upload.get();
+		} catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while uploading");
+		} catch(ExecutionException ex) {
+			throw new RuntimeException(ex.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return uploaded.get();
+	}
+
+	public int getUploaded() {
+		return uploaded.get();
+	}
+
+	public int getFailed() {
+		return failed.get();
+	}
+
+	/** Returns whether retrying an upload that failed with this exception might succeed. */
+	protected boolean isRetryable(Throwable ex) {
+		return !(ex instanceof AccessRightsException
+				|| ex instanceof ArtifactNameConflictException
+				|| ex instanceof ChangeVetoedException
+				|| ex instanceof IllegalArgumentException
+				|| ex instanceof FileNotFoundException);
+	}
+
+	/** Returns the wait before the given retry: exponential backoff with jitter. */
+	protected long getBackoffMillis(int retry) {
+		long backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << Math.min(retry - 1, 16));
+		synchronized(random) {
+			return backoff / 2 + (long) (random.nextDouble() * backoff / 2);
+		}
+	}
+
+	/** Uploads one file, waiting for the in-flight limit and retrying on failure. */
+	private class Upload implements Callable<Object> {
+		private final File file;
+		private final CSVPrinter manifest;
+		private final ThroughputMonitor monitor;
+
+		Upload(File file, CSVPrinter manifest, ThroughputMonitor monitor) {
+			this.file = file;
+			this.manifest = manifest;
+			this.monitor = monitor;
+		}
+
+		public Object call() throws InterruptedException, IOException {
+			int permits = (int) Math.max(1, Math.min(maxInFlightKB, file.length() / 1024));
+			long startTime = System.currentTimeMillis();
+			int attempts = 0;
+			String status = STATUS_FAILED;
+			String result = null;
+
+			while(true) {
+				attempts++;
+				// the permits are not held while waiting for the retry, so other files can be uploaded meanwhile
+				inFlight.acquire(permits);
+				try {
+					Integer uploadedId = (attempts > 1) ? target.findUpload(api, token, file) : null;
+					if(uploadedId == null) {
+						MappedFileInputStream in = new MappedFileInputStream(file, null);
+						try {
+							uploadedId = target.upload(api, token, file, in.toBinaryStream());
+						} finally {
+							in.close();
+						}
+					}
+					result = String.valueOf(uploadedId);
+					status = STATUS_OK;
+					break;
+				} catch(Exception ex) {
+					result = ex.toString();
+					if(attempts > retries || !isRetryable(ex))
+						break;
+				} finally {
+					inFlight.release(permits);
+				}
+
+				Thread.sleep(getBackoffMillis(attempts));
+			}
+
+			if(STATUS_OK.equals(status)) {
+				uploaded.incrementAndGet();
+			} else {
+				failed.incrementAndGet();
+				System.err.println("Couldn't upload " + file + ": " + result);
+			}
+			monitor.increment();
+
+			String row[] = { file.getPath(), String.valueOf(file.length()), status, String.valueOf(attempts), String.valueOf(System.currentTimeMillis() - startTime), result };
+			synchronized(manifest) {
+				manifest.writeln(row);
+			}
+
+			return null;
+		}
+	}
+
+	/** Attaches the files to a wiki page. */
+	public static class WikiPageTarget implements Target {
+		private final WikiPageDto page;
+		private final UserDto owner;
+		private final String description;
+
+		public WikiPageTarget(WikiPageDto page, UserDto owner, String description) {
+			this.page = page;
+			this.owner = owner;
+			this.description = description;
+		}
+
+		public Integer upload(RemoteApi api, String token, File file, BinaryStreamDto content) throws Exception {
+			ArtifactDto attachment = new ArtifactDto();
+			attachment.setTypeId(Integer.valueOf(ArtifactType.ATTACHMENT));
+			attachment.setParent(page);
+			attachment.setDescription(description);
+			attachment.setName(file.getName());
+			attachment.setMimeType(getMimeType(file.getName()));
+			attachment.setFileSize(Long.valueOf(file.length()));
+			attachment.setOwner(owner);
+
+			return api.createArtifactWithBody(token, attachment, content).getId();
+		}
+
+		public Integer findUpload(RemoteApi api, String token, File file) throws Exception {
+			ArtifactDto children[] = api.findArtifactsByParentArtifact(token, page.getId());
+			for(int i = 0; children != null && i < children.length; i++) {
+				if(file.getName().equals(children[i].getName()) && Long.valueOf(file.length()).equals(children[i].getFileSize()))
+					return children[i].getId();
+			}
+			return null;
+		}
+	}
+
+	/** Attaches the files to a tracker item. */
+	public static class TrackerItemTarget implements Target {
+		private final Integer trackerItemId;
+		private final String description;
+
+		public TrackerItemTarget(Integer trackerItemId, String description) {
+			this.trackerItemId = trackerItemId;
+			this.description = description;
+		}
+
+		public Integer upload(RemoteApi api, String token, File file, BinaryStreamDto content) throws Exception {
+			ArtifactDto attachment = new ArtifactDto();
+			attachment.setName(file.getName());
+			attachment.setMimeType(getMimeType(file.getName()));
+			attachment.setDescription(description);
+
+			TrackerItemDto trackerItem = api.addUpdTrackerItemAttachments(token, trackerItemId, attachment, new BinaryStreamDto[] { content }, null);
+			return trackerItem.getId();
+		}
+
+		@SuppressWarnings("deprecation")
+		public Integer findUpload(RemoteApi api, String token, File file) throws Exception {
+			com.intland.codebeamer.persistence.dto.TrackerItemAttachmentDto attachments[] = api.findTrackerItemAttachmentsByTrackerItemId(token, trackerItemId);
+			for(int i = 0; attachments != null && i < attachments.length; i++) {
+				if(file.getName().equals(attachments[i].getFilename()) && Long.valueOf(file.length()).equals(attachments[i].getLength()))
+					return trackerItemId;
+			}
+			return null;
+		}
+	}
+
+	/** Returns the MIME type guessed from the file name. */
+	protected static String getMimeType(String name) {
+		String mimeType = URLConnection.guessContentTypeFromName(name);
+		return (mimeType != null) ? mimeType : "application/octet-stream";
+	}
+}
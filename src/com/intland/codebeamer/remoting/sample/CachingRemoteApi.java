@@ -0,0 +1,343 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.intland.codebeamer.remoting.RemoteApi;
+
+
+/**
+ * Caches the results of the finders of rarely changing entities (projects, trackers,
+ * users, tracker choice options and layouts) in front of a {@link RemoteApi}.
+ * <p>
+ * The results are cached by method and arguments (including the session token, as the
+ * results depend on the permissions of the user) for a time to live set per entity type.
+ * The least recently used results are evicted when the cache is full. When multiple threads
+ * miss the same result at the same time, only one of them calls the server and the others
+ * wait for its result. Calling a method that modifies an entity type through the proxy
+ * invalidates the cached results of that type, changing the role memberships invalidates
+ * the cached users and projects.
+ * <p>
+ * The cached DTOs are shared by the callers, so they must not be modified. Returned arrays
+ * are copied, so they can be sorted.
+ *
+ * @version $Id$
+ */
+public class CachingRemoteApi implements InvocationHandler {
+	public static final String PROJECTS = "projects";
+	public static final String TRACKERS = "trackers";
+	public static final String USERS = "users";
+	public static final String CHOICE_OPTIONS = "choiceOptions";
+	public static final String LAYOUTS = "layouts";
+
+	/** Default time to live of the cached results. */
+	public static final long DEFAULT_TIME_TO_LIVE_MILLIS = 5 * 60 * 1000L;
+
+	/** Default maximum number of cached results. */
+	public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+	/** The cached finders and the entity type of their results. */
+	private static final Map<String, String> FINDERS = new HashMap<String, String>();
+
+	/** The methods modifying entity types. */
+	private static final Map<String, String[]> MODIFIERS = new HashMap<String, String[]>();
+
+	static {
+		FINDERS.put("findAllProjects", PROJECTS);
+		FINDERS.put("findProjectById", PROJECTS);
+		FINDERS.put("findProjectByName", PROJECTS);
+		FINDERS.put("findAllTrackers", TRACKERS);
+		FINDERS.put("findTrackerById", TRACKERS);
+		FINDERS.put("findTrackersByIds", TRACKERS);
+		FINDERS.put("findTrackersByProject", TRACKERS);
+		FINDERS.put("findAllUsers", USERS);
+		FINDERS.put("findUserById", USERS);
+		FINDERS.put("findUsersByIds", USERS);
+		FINDERS.put("findUsersByProject", USERS);
+		FINDERS.put("findTrackerChoiceOptions", CHOICE_OPTIONS);
+		FINDERS.put("findTrackerLayout", LAYOUTS);
+		FINDERS.put("getTrackerStatusLayout", LAYOUTS);
+
+		modifies("createProject", PROJECTS);
+		modifies("createProjectFromTemplate", PROJECTS);
+		modifies("updateProject", PROJECTS);
+		modifies("deleteProject", PROJECTS);
+		modifies("createTracker", TRACKERS);
+		modifies("createTrackerFromTemplate", TRACKERS);
+		modifies("updateTracker", TRACKERS);
+		modifies("deleteTracker", TRACKERS);
+		modifies("createUser", USERS);
+		modifies("updateUser", USERS);
+		modifies("deleteUser", USERS);
+		modifies("setTrackerChoiceOptions", CHOICE_OPTIONS);
+		modifies("deleteTrackerChoiceOptions", CHOICE_OPTIONS);
+		modifies("updateTrackerLayout", LAYOUTS);
+		// the role memberships change the members of the projects
+		modifies("addUserToRole", USERS, PROJECTS);
+		modifies("removeUserFromRole", USERS, PROJECTS);
+		modifies("setUserProjectRoles", USERS, PROJECTS);
+	}
+
+	private static void modifies(String method, String... entityTypes) {
+		MODIFIERS.put(method, entityTypes);
+	}
+
+	private final RemoteApi api;
+	private final int maxEntries;
+	private final Map<String, Long> timeToLive = new HashMap<String, Long>();
+	private final Map<Key, CachedResult> entries;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public CachingRemoteApi(RemoteApi api) {
+		this(api, DEFAULT_MAX_ENTRIES);
+	}
+
+	public CachingRemoteApi(RemoteApi api, int maxEntries) {
+		if(maxEntries < 1)
+			throw new IllegalArgumentException("The cache size must be positive: " + maxEntries);
+
+		this.api = api;
+		this.maxEntries = maxEntries;
+		this.entries = new LinkedHashMap<Key, CachedResult>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<Key, CachedResult> eldest) {
+				if(size() <= CachingRemoteApi.this.maxEntries)
+					return false;
+
+				evictions.incrementAndGet();
+				return true;
+			}
+		};
+	}
+
+	/** Returns the API caching the results of the given one with the default settings. */
+	public static RemoteApi wrap(RemoteApi api) {
+		return new CachingRemoteApi(api).getProxy();
+	}
+
+	/** Returns the API to be called instead of the wrapped one. */
+	public RemoteApi getProxy() {
+		return (RemoteApi) Proxy.newProxyInstance(RemoteApi.class.getClassLoader(), new Class<?>[] { RemoteApi.class }, this);
+	}
+
+	/** Sets the time to live of the cached results of an entity type, 0 disables caching the type. */
+	public synchronized void setTimeToLive(String entityType, long millis) {
+		timeToLive.put(entityType, Long.valueOf(millis));
+	}
+
+	public synchronized long getTimeToLive(String entityType) {
+		Long millis = timeToLive.get(entityType);
+		return (millis != null) ? millis.longValue() : DEFAULT_TIME_TO_LIVE_MILLIS;
+	}
+
+	/** Removes the cached results of an entity type. */
+	public synchronized void invalidate(String entityType) {
+		for(Iterator<Key> it = entries.keySet().iterator(); it.hasNext();) {
+			if(entityType.equals(it.next().entityType))
+				it.remove();
+		}
+	}
+
+	public synchronized void invalidateAll() {
+		entries.clear();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public String toString() {
+		long total = hits.get() + misses.get();
+		return hits.get() + " hits, " + misses.get() + " misses (" + ((total > 0) ? 100 * hits.get() / total : 0) + "% hit rate), " + evictions.get() + " evictions";
+	}
+
+	public Object invoke(Object proxy, Method method, Object args[]) throws Throwable {
+		if(method.getDeclaringClass() == Object.class)
+			return invokeObjectMethod(proxy, method, args);
+
+		String entityType = FINDERS.get(method.getName());
+		if(entityType == null || getTimeToLive(entityType) <= 0) {
+			String modified[] = MODIFIERS.get(method.getName());
+			try {
+				return call(method, args);
+			} finally {
+				// also drops the results loaded while the modification was running
+				if(modified != null) {
+					for(String modifiedType : modified)
+						invalidate(modifiedType);
+				}
+			}
+		}
+
+		return copy(get(new Key(entityType, method, args)));
+	}
+
+	/** Returns the cached result, or loads it if it is missing or expired. */
+	private Object get(final Key key) throws Throwable {
+		CachedResult entry;
+		boolean loader = false;
+		synchronized(this) {
+			entry = entries.get(key);
+			if(entry == null || entry.isExpired()) {
+				entry = new CachedResult(new FutureTask<Object>(new Callable<Object>() {
+					public Object call() throws Exception {
+						try {
+							return CachingRemoteApi.this.call(key.method, key.args);
+						} catch(Exception ex) {
+							throw ex;
+						} catch(Error ex) {
+							throw ex;
+						} catch(Throwable ex) {
+							throw new InvocationTargetException(ex);
+						}
+					}
+				}), System.currentTimeMillis() + getTimeToLive(key.entityType));
+				entries.put(key, entry);
+				loader = true;
+			}
+		}
+
+		if(loader) {
+			misses.incrementAndGet();
+			entry.value.run();
+		} else {
+			hits.incrementAndGet();
+		}
+
+		try {
+			return entry.value.get();
+		} catch(ExecutionException ex) {
+			// don't cache failures
+			synchronized(this) {
+				if(entries.get(key) == entry)
+					entries.remove(key);
+			}
+			Throwable cause = ex.getCause();
+			throw (cause instanceof InvocationTargetException) ? cause.getCause() : cause;
+		}
+	}
+
+	private Object call(Method method, Object args[]) throws Throwable {
+		try {
+			return method.invoke(api, args);
+		} catch(InvocationTargetException ex) {
+			Throwable cause = ex.getCause();
+			throw (cause instanceof InvocationTargetException) ? cause.getCause() : cause;
+		}
+	}
+
+	private Object invokeObjectMethod(Object proxy, Method method, Object args[]) {
+		String name = method.getName();
+		if(name.equals("equals"))
+			return Boolean.valueOf(proxy == args[0]);
+		if(name.equals("hashCode"))
+			return Integer.valueOf(System.identityHashCode(proxy));
+		return "Caching " + api + " (" + this + ")";
+	}
+
+	/** Copies arrays, so the callers can reorder them. */
+	private static Object copy(Object value) {
+		return (value instanceof Object[]) ? ((Object[]) value).clone() : value;
+	}
+
+	/** Identifies a cached result by method and arguments. */
+	private static class Key {
+		private final String entityType;
+		private final Method method;
+		private final Object args[];
+		private final int hashCode;
+
+		Key(String entityType, Method method, Object args[]) {
+			this.entityType = entityType;
+			this.method = method;
+			// the callers may reuse their argument arrays
+			this.args = (Object[]) copyArgs(args);
+			this.hashCode = 31 * method.hashCode() + Arrays.deepHashCode(args);
+		}
+
+		/** Copies the arrays among the arguments, as the callers may modify them later. */
+		private static Object copyArgs(Object value) {
+			if(!(value instanceof Object[]))
+				return (value != null && value.getClass().isArray()) ? copyPrimitiveArray(value) : value;
+
+			Object copy[] = ((Object[]) value).clone();
+			for(int i = 0; i < copy.length; i++)
+				copy[i] = copyArgs(copy[i]);
+
+			return copy;
+		}
+
+		private static Object copyPrimitiveArray(Object value) {
+			int length = Array.getLength(value);
+			Object copy = Array.newInstance(value.getClass().getComponentType(), length);
+			System.arraycopy(value, 0, copy, 0, length);
+			return copy;
+		}
+
+		public int hashCode() {
+			return hashCode;
+		}
+
+		public boolean equals(Object obj) {
+			if(!(obj instanceof Key))
+				return false;
+
+			Key other = (Key) obj;
+			return method.equals(other.method) && Arrays.deepEquals(args, other.args);
+		}
+	}
+
+	/** A result, possibly still being loaded. */
+	private static class CachedResult {
+		private final FutureTask<Object> value;
+		private final long expiresAt;
+
+		CachedResult(FutureTask<Object> value, long expiresAt) {
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+
+		boolean isExpired() {
+			return System.currentTimeMillis() >= expiresAt;
+		}
+	}
+}
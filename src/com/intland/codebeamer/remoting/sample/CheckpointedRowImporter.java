@@ -0,0 +1,106 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.intland.codebeamer.persistence.dto.base.IdentifiableDto;
+import com.intland.codebeamer.remoting.RemoteApi;
+
+
+/**
+ * Makes an import restartable: records every created entity in an {@link ImportCheckpoint}
+ * and skips the rows already recorded, so rerunning a failed import continues where it stopped
+ * instead of creating the entities again.
+ * <p>
+ * A row is identified by its first column, the id exported with the row, or by the checksum
+ * of the whole row if that is empty. Rows that failed are not recorded, so they are retried by
+ * the next run. Works with all the {@link CsvImportEngine}s.
+ *
+ * @see com.intland.codebeamer.remoting.sample.CodeBeamerCsvImporter
+ *
+ * @version $Id$
+ */
+public class CheckpointedRowImporter<T> extends CsvRowImporter<CheckpointedRowImporter.Row<T>> {
+	private final CsvRowImporter<T> importer;
+	private final ImportCheckpoint checkpoint;
+	private final AtomicInteger skipped = new AtomicInteger();
+
+	/** A parsed row with its key. */
+	public static class Row<T> {
+		private final String key;
+		private final T entity;
+
+		Row(String key, T entity) {
+			this.key = key;
+			this.entity = entity;
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public T getEntity() {
+			return entity;
+		}
+	}
+
+	public CheckpointedRowImporter(CsvRowImporter<T> importer, ImportCheckpoint checkpoint) {
+		this.importer = importer;
+		this.checkpoint = checkpoint;
+	}
+
+	public ImportCheckpoint getCheckpoint() {
+		return checkpoint;
+	}
+
+	/** Returns the number of rows skipped because they were imported by an earlier run. */
+	public int getSkipped() {
+		return skipped.get();
+	}
+
+	public Row<T> parse(RemoteApi api, String token, String values[]) throws Exception {
+		String key = getKey(values);
+		if(checkpoint.isCreated(key)) {
+			skipped.incrementAndGet();
+			return null;
+		}
+
+		T entity = importer.parse(api, token, values);
+		return (entity != null) ? new Row<T>(key, entity) : null;
+	}
+
+	public Row<T> create(RemoteApi api, String token, Row<T> row) throws Exception {
+		T created = importer.create(api, token, row.entity);
+		record(row, created);
+		return (created != null) ? row : null;
+	}
+
+	public void created(Row<T> row, Object created) throws Exception {
+		importer.created(row.entity, created);
+		record(row, created);
+	}
+
+	private void record(Row<T> row, Object created) throws Exception {
+		if(created instanceof IdentifiableDto && ((IdentifiableDto) created).getId() != null)
+			checkpoint.record(row.key, ((IdentifiableDto) created).getId());
+	}
+
+	/** Returns the key identifying the row in the checkpoint. */
+	protected String getKey(String values[]) {
+		return ImportCheckpoint.getKey(values);
+	}
+
+	public String toString() {
+		return checkpoint + ", " + skipped + " rows skipped";
+	}
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import com.intland.codebeamer.utils.StreamDigester;
+
+
+/**
+ * Writes the exported rows into gzip compressed chunk files of about the same size,
+ * compressing the chunks on background threads.
+ * <p>
+ * The rows are written into a sink in memory, see {@link #newChunkSink(OutputStream)}. When it
+ * grows larger than the chunk size, it is closed and passed to a task of the {@link SampleExecutor},
+ * which compresses it into the next <code>path.NNNNN.gz</code> file, while the exporter goes on
+ * with the next chunk. Every chunk starts with the header, so the chunks can be read, imported or
+ * shipped one by one. The exporter waits only when more chunks are waiting for compression than
+ * there are compressing threads, which limits the memory used to about
+ * <code>(threads + 2) * chunk size</code>.
+ * <p>
+ * {@link #close()} waits for the last chunks and writes the <code>path.manifest</code> file, a CSV
+ * file with the name, number of rows, uncompressed and compressed size, and the MD5 checksum of
+ * the compressed content of each chunk (as calculated by {@link StreamDigester}, which is also
+ * the ETag of an object uploaded to most object stores in a single part).
+ *
+ * @version $Id$
+ */
+public class ChunkedExportSink implements ExportSink {
+	/** Default size of the chunks before compression. */
+	public static final long DEFAULT_CHUNK_SIZE = 64L * 1024 * 1024;
+
+	private final File path;
+	private final long chunkSize;
+	private final SampleExecutor.TaskGroup compressors;
+	private final Semaphore pending;
+
+	private String header[];
+	private ChunkBuffer buffer;
+	private ExportSink sink;
+	private int rows = 0;
+	private final List<Future<Chunk>> chunks = new ArrayList<Future<Chunk>>();
+
+	/** A compressed chunk file. */
+	public static class Chunk {
+		private final String name;
+		private final int rows;
+		private final long bytes;
+		private final long compressedBytes;
+		private final String checksum;
+
+		Chunk(String name, int rows, long bytes, long compressedBytes, String checksum) {
+			this.name = name;
+			this.rows = rows;
+			this.bytes = bytes;
+			this.compressedBytes = compressedBytes;
+			this.checksum = checksum;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public int getRows() {
+			return rows;
+		}
+
+		public long getBytes() {
+			return bytes;
+		}
+
+		public long getCompressedBytes() {
+			return compressedBytes;
+		}
+
+		public String getChecksum() {
+			return checksum;
+		}
+	}
+
+	/** Collects a chunk, and gives its content to the compression without a copy. */
+	private static class ChunkBuffer extends ByteArrayOutputStream {
+		ChunkBuffer(int size) {
+			super(size);
+		}
+
+		void writeTo(GZIPOutputStream out) throws IOException {
+			out.write(buf, 0, count);
+		}
+	}
+
+	/**
+	 * @param path the path of the export, the chunks and the manifest are written next to it.
+	 * @param chunkSize the approximate size of the chunks before compression.
+	 * @param threads the number of chunks compressed at the same time.
+	 */
+	public ChunkedExportSink(File path, long chunkSize, int threads) {
+		if(chunkSize < 1)
+			throw new IllegalArgumentException("The chunk size must be positive: " + chunkSize);
+
+		this.path = path;
+		this.chunkSize = chunkSize;
+		this.compressors = SampleExecutor.getInstance().newGroup(null, threads);
+		this.pending = new Semaphore(threads + 1);
+	}
+
+	/**
+	 * Returns the sink writing a chunk into the given stream, a {@link CsvRowWriter}.
+	 * Override to write the chunks in another format.
+	 */
+	protected ExportSink newChunkSink(OutputStream out) throws IOException {
+		return new CsvRowWriter(out);
+	}
+
+	public void header(String names[]) throws IOException {
+		header = names.clone();
+		sink().header(header);
+	}
+
+	public void field(String value) throws IOException {
+		sink().field(value);
+	}
+
+	public void field(Integer value) throws IOException {
+		sink().field(value);
+	}
+
+	public void field(int value) throws IOException {
+		sink().field(value);
+	}
+
+	public void field(Long value) throws IOException {
+		sink().field(value);
+	}
+
+	public void field(Boolean value) throws IOException {
+		sink().field(value);
+	}
+
+	public void field(Date value) throws IOException {
+		sink().field(value);
+	}
+
+	public void field(Integer id, String name) throws IOException {
+		sink().field(id, name);
+	}
+
+	public void endRow() throws IOException {
+		sink().endRow();
+		rows++;
+		if(buffer.size() >= chunkSize)
+			rotate();
+	}
+
+	/** Starts compressing the rows written so far as a chunk. */
+	public void flush() throws IOException {
+		if(rows > 0)
+			rotate();
+	}
+
+	/**
+	 * Compresses the last chunk, waits for all chunks and writes the manifest. An export without
+	 * rows is written as a single chunk with the header.
+	 */
+	public void close() throws IOException {
+		try {
+			if(rows == 0 && header != null && chunks.isEmpty())
+				rotate();
+			flush();
+			writeManifest(getChunks());
+		} finally {
+			compressors.shutdownNow();
+		}
+	}
+
+	/** Waits for the compression of the chunks written so far, and returns them. */
+	public List<Chunk> getChunks() throws IOException {
+		List<Chunk> result = new ArrayList<Chunk>(chunks.size());
+		try {
+			for(Future<Chunk> chunk : chunks)
+				result.add(chunk.get());
+		} catch(InterruptedException ex) {
+			throw new InterruptedIOException("Interrupted while waiting for the compression of " + path);
+		} catch(ExecutionException ex) {
+			throw failed(ex.getCause());
+		}
+		return result;
+	}
+
+	public String toString() {
+		return chunks.size() + " chunks of " + path.getName() + ", " + compressors;
+	}
+
+	private ExportSink sink() throws IOException {
+		if(sink == null) {
+			buffer = new ChunkBuffer((int) Math.min(chunkSize + chunkSize / 8, Integer.MAX_VALUE - 8));
+			sink = newChunkSink(buffer);
+			if(header != null && !chunks.isEmpty())
+				sink.header(header);
+		}
+		return sink;
+	}
+
+	/** Closes the current chunk and passes it to the compression. */
+	private void rotate() throws IOException {
+		sink.close();
+		final ChunkBuffer content = buffer;
+		final int contentRows = rows;
+		final File file = new File(path.getParentFile(), path.getName() + "." + String.format("%05d", Integer.valueOf(chunks.size())) + ".gz");
+		sink = null;
+		buffer = null;
+		rows = 0;
+
+		try {
+			// the tasks of a failed group do not run, so they do not release their permits
+			while(!pending.tryAcquire(1, TimeUnit.SECONDS)) {
+				if(compressors.getFailure() != null)
+					throw failed(compressors.getFailure());
+			}
+		} catch(InterruptedException ex) {
+			throw new InterruptedIOException("Interrupted while waiting for the compression of " + path);
+		}
+		try {
+			chunks.add(compressors.submit(new Callable<Chunk>() {
+				public Chunk call() throws Exception {
+					try {
+						return compress(content, contentRows, file);
+					} finally {
+						pending.release();
+					}
+				}
+			}));
+		} catch(RejectedExecutionException ex) {
+			pending.release();
+			throw failed((compressors.getFailure() != null) ? compressors.getFailure() : ex);
+		}
+	}
+
+	private static Chunk compress(ChunkBuffer content, int rows, File file) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(content.size() / 4 + 64);
+		GZIPOutputStream gzip = new GZIPOutputStream(compressed, 65536);
+		content.writeTo(gzip);
+		gzip.close();
+
+		byte bytes[] = compressed.toByteArray();
+		String checksum;
+		try {
+			checksum = new StreamDigester().createCheckSum(bytes);
+		} catch(NoSuchAlgorithmException ex) {
+			throw new IOException("Couldn't calculate the checksum of " + file + ": " + ex, ex);
+		}
+
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+		return new Chunk(file.getName(), rows, content.size(), bytes.length, checksum);
+	}
+
+	private void writeManifest(List<Chunk> written) throws IOException {
+		CsvRowWriter manifest = new CsvRowWriter(new FileOutputStream(new File(path.getParentFile(), path.getName() + ".manifest")));
+		try {
+			manifest.header(new String[] { "chunk", "rows", "bytes", "compressedBytes", "md5" });
+			for(Chunk chunk : written) {
+				manifest.field(chunk.getName());
+				manifest.field(chunk.getRows());
+				manifest.field(Long.valueOf(chunk.getBytes()));
+				manifest.field(Long.valueOf(chunk.getCompressedBytes()));
+				manifest.field(chunk.getChecksum());
+				manifest.endRow();
+			}
+		} finally {
+			manifest.close();
+		}
+	}
+
+	private IOException failed(Throwable cause) {
+		if(cause instanceof IOException)
+			return (IOException) cause;
+		return new IOException("Couldn't write the chunks of " + path + ": " + cause, cause);
+	}
+}
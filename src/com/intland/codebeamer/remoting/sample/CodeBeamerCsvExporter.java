@@ -11,17 +11,17 @@
  */
 package com.intland.codebeamer.remoting.sample;
 
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
-import com.Ostermiller.util.CSVPrinter;
+import com.intland.codebeamer.persistence.dto.ArtifactAdditionalInfoDto;
 import com.intland.codebeamer.persistence.dto.ArtifactDto;
 import com.intland.codebeamer.persistence.dto.ProjectDto;
+import com.intland.codebeamer.persistence.dto.ScmChangeSetDto;
 import com.intland.codebeamer.persistence.dto.TrackerChoiceOptionDto;
 import com.intland.codebeamer.persistence.dto.TrackerDto;
 import com.intland.codebeamer.persistence.dto.TrackerItemDto;
@@ -52,8 +52,6 @@ import com.intland.codebeamer.remoting.bean.ServerInfo;
  * @version $RCSfile$ $Revision: 23443:3b63eb1c80e4 $ $Date: 2009-10-29 17:28 +0100 $
  */
 public class CodeBeamerCsvExporter {
-	private final static DateFormat DATE_FORMAT = new SimpleDateFormat("yyyy.MM.dd HH:mm:ss");
-
 	/**
 	 * Main entry point.
 	 * Commandline parsing is not elaborated, for real use
@@ -63,7 +61,17 @@ public class CodeBeamerCsvExporter {
 		if(args.length < 8) {
 			System.err.println("Usage: <program> service-URL (for example http://localhost:8080/cb/remote-api)\n"
 				+ "login password projects.csv-path "
-				+ "artifacts.csv-path trackers.csv-path trackeritems.csv-path useritems.csv-path [user.csv-path]");
+				+ "artifacts.csv-path trackers.csv-path trackeritems.csv-path useritems.csv-path [user.csv-path]\n"
+				+ "Use -Dcb.export.threads=N to list the artifact directories with N parallel requests,\n"
+				+ "and -Dcb.export.pageSize=N to download the tracker items in pages of N items (at most 1000).\n"
+				+ "Use -Dcb.export.details=csv-path to also export the comments, attachments and commits of the tracker items,\n"
+				+ "loaded for N items per call with -Dcb.export.chunkSize=N (default " + TrackerItemHydrator.DEFAULT_CHUNK_SIZE + "), page by page if a page size is set.\n"
+				+ "Use -Dcb.export.format=parquet to write the files as Apache Parquet files with typed columns instead of CSV,\n"
+				+ "and -Dcb.export.chunkMB=N to write them as gzip compressed chunks of about N MB with a manifest,\n"
+				+ "compressed by -Dcb.export.compressThreads=N background threads (default: the number of processors).\n"
+				+ "Use -Dcb.http.transport=keep-alive to send the calls through the KeepAliveTransport.\n"
+				+ "Use -Dcb.metrics=true to record the metrics of the calls per method (published through JMX and printed at the end),\n"
+				+ "with -Dcb.metrics.slowCallMillis=N to log the calls taking longer than N ms.");
 			System.exit(-1);
 		}
 		String serviceUrl = args[0];
@@ -75,6 +83,14 @@ public class CodeBeamerCsvExporter {
 		String trackerItemCsvPath = args[6];
 		String trackerUserItemCsvPath = args[7];
 		String userCsvPath = args.length > 8 ? args[8] : null;
+		int threads = Integer.getInteger("cb.export.threads", 1).intValue();
+		int pageSize = Integer.getInteger("cb.export.pageSize", 0).intValue();
+		String detailCsvPath = System.getProperty("cb.export.details");
+
+		// with -Dcb.metrics, the transport counts the bytes of the calls
+		TransportRemoteApiFactory transport = TransportRemoteApiFactory.installFromSystemProperties();
+		if(transport != null)
+			System.out.println("Using " + transport);
 
 		System.out.println("Connecting to CodeBeamer web service at " + serviceUrl + "...");
 		RemoteApi api = RemoteApiFactory.getInstance().connect(serviceUrl);
@@ -83,6 +99,17 @@ public class CodeBeamerCsvExporter {
 			System.exit(-1);
 		}
 
+		RemoteApiMetrics metrics = null;
+		if(Boolean.getBoolean("cb.metrics")) {
+			metrics = new RemoteApiMetrics();
+			metrics.registerMBeans("exporter");
+			api = InstrumentedRemoteApi.wrap(api, metrics);
+		}
+
+		// the projects and the trackers are listed by more than one export
+		CachingRemoteApi cache = new CachingRemoteApi(api);
+		api = cache.getProxy();
+
 		System.out.println("Signing in...");
 		String token = api.login(login, password);
 		ServerInfo serverInfo = api.getServerInfo();
@@ -90,23 +117,35 @@ public class CodeBeamerCsvExporter {
 
 		if (userCsvPath != null) {
 			System.out.print("Exporting users...");
-			System.out.println(" " + exportUsers(api, token, new FileOutputStream(userCsvPath)));
+			System.out.println(" " + exportUsers(api, token, openSink(userCsvPath)));
 		}
 
 		System.out.print("Exporting projects...");
-		System.out.println(" " + exportProjects(api, token, new FileOutputStream(projectCsvPath)));
+		System.out.println(" " + exportProjects(api, token, openSink(projectCsvPath)));
 
 		System.out.print("Exporting artifacts...");
-		System.out.println(" " + exportArtifacts(api, token, new FileOutputStream(artifactCsvPath)));
+		System.out.println(" " + exportArtifacts(api, token, openSink(artifactCsvPath), threads));
 
 		System.out.print("Exporting trackers...");
-		System.out.println(" " + exportTrackers(api, token, new FileOutputStream(trackerCsvPath)));
+		System.out.println(" " + exportTrackers(api, token, openSink(trackerCsvPath)));
 
 		System.out.print("Exporting tracker items...");
-		System.out.println(" " + exportTrackerItems(api, token, new FileOutputStream(trackerItemCsvPath)));
+		System.out.println(" " + exportTrackerItems(api, token, openSink(trackerItemCsvPath), pageSize));
+
+		if(detailCsvPath != null) {
+			System.out.print("Exporting tracker item comments, attachments and commits...");
+			System.out.println(" " + exportTrackerItemDetails(api, token, openSink(detailCsvPath),
+					Integer.getInteger("cb.export.chunkSize", TrackerItemHydrator.DEFAULT_CHUNK_SIZE).intValue(), pageSize));
+		}
 
 		System.out.print("Exporting user-tracker items...");
-		System.out.println(" " + exportUserTrackerItems(api, token, new FileOutputStream(trackerUserItemCsvPath)));
+		System.out.println(" " + exportUserTrackerItems(api, token, openSink(trackerUserItemCsvPath)));
+
+		System.out.println("Cache: " + cache);
+		if(metrics != null) {
+			System.out.println("Remote calls: " + metrics);
+			metrics.print(System.out);
+		}
 
 		System.out.println("Signing out...");
 		api.logout(token);
@@ -114,87 +153,83 @@ public class CodeBeamerCsvExporter {
 		System.out.println("Done");
 	}
 
+	/**
+	 * Opens the sink to export the rows into, configured by the system properties:
+	 * a {@link ParquetExportSink} if <code>cb.export.format</code> is <code>parquet</code>, a {@link CsvRowWriter}
+	 * otherwise, writing gzip compressed chunks with a {@link ChunkedExportSink} if <code>cb.export.chunkMB</code> is set.
+	 */
+	protected static ExportSink openSink(String path) throws IOException {
+		final boolean parquet = "parquet".equals(System.getProperty("cb.export.format"));
+		Integer chunkMB = Integer.getInteger("cb.export.chunkMB");
+		if(chunkMB != null) {
+			int threads = Integer.getInteger("cb.export.compressThreads", Runtime.getRuntime().availableProcessors()).intValue();
+			return new ChunkedExportSink(new File(path), chunkMB.longValue() * 1024 * 1024, threads) {
+				protected ExportSink newChunkSink(OutputStream out) throws IOException {
+					return parquet ? new ParquetExportSink(out) : super.newChunkSink(out);
+				}
+			};
+		}
+
+		OutputStream out = new FileOutputStream(path);
+		return parquet ? new ParquetExportSink(out) : new CsvRowWriter(out);
+	}
+
+	final static String[] UserHeader = {
+			"id",
+			"name",
+			"status",
+			"hostName",
+			"firstName",
+			"lastName",
+			"title",
+			"address",
+			"zip",
+			"city",
+			"state",
+			"sourceOfInterest",
+			"scc",
+			"teamSize",
+			"divisionSize",
+			"company",
+			"country",
+			"email",
+			"emailClient",
+			"phone",
+			"mobile",
+			"dateFormatPattern",
+			"dateTimeFormatPattern",
+			"timeZonePattern",
+			"downloadLimit",
+			"browser",
+			"skills",
+			"registryDate",
+			"lastLogin"
+			};
+
 	/**
 	 * Exports all user account information that the user has access to.
 	 * @return the number of user accounts exported.
 	 */
-	protected static int exportUsers(RemoteApi api, String token, OutputStream out) {
+	protected static int exportUsers(RemoteApi api, String token, ExportSink printer) {
 		int exported = 0;
 
 		try {
-			CSVPrinter printer = new CSVPrinter(out);
-			printer.writeln(new String[] {
-				"id",
-				"name",
-				"status",
-				"hostName",
-				"firstName",
-				"lastName",
-				"title",
-				"address",
-				"zip",
-				"city",
-				"state",
-				"sourceOfInterest",
-				"scc",
-				"teamSize",
-				"divisionSize",
-				"company",
-				"country",
-				"email",
-				"emailClient",
-				"phone",
-				"mobile",
-				"dateFormatPattern",
-				"dateTimeFormatPattern",
-				"timeZonePattern",
-				"downloadLimit",
-				"browser",
-				"skills",
-				"registryDate",
-				"lastLogin"});
+			printer.header(UserHeader);
 
 			UserDto users[] = api.findAllUsers(token);
 			if (users == null) {
 				System.err.println("Couldn't get accounts!");
+				printer.close();
 				return 0;
 			}
 
 			for(int i = 0; i < users.length; i++) {
 				UserDto user = users[i];
-				printer.writeln(new String[] {
-					writeInteger(user.getId()),
-					user.getName(),
-					user.getStatus(),
-					user.getHostName(),
-					user.getFirstName(),
-					user.getLastName(),
-					user.getTitle(),
-					user.getAddress(),
-					user.getZip(),
-					user.getCity(),
-					user.getState(),
-					user.getSourceOfInterest(),
-					user.getScc(),
-					user.getTeamSize(),
-					user.getDivisionSize(),
-					user.getCompany(),
-					user.getCountry(),
-					user.getEmail(),
-					user.getEmailClient(),
-					user.getPhone(),
-					user.getMobile(),
-					user.getDateFormatPattern(),
-					user.getDateTimeFormatPattern(),
-					user.getTimeZonePattern(),
-					Integer.toString(user.getDownloadLimit()),
-					user.getBrowser(),
-					user.getSkills(),
-					writeDate(user.getRegistryDate()),
-					writeDate(user.getLastLogin()) });
+				writeUserRow(printer, user);
 
 				exported++;
 			}
+			printer.close();
 		} catch(IOException ex) {
 			System.err.println(ex);
 		}
@@ -202,68 +237,83 @@ public class CodeBeamerCsvExporter {
 		return exported;
 	}
 
+	protected static void writeUserRow(ExportSink printer, UserDto user) throws IOException {
+		printer.field(user.getId());
+		printer.field(user.getName());
+		printer.field(user.getStatus());
+		printer.field(user.getHostName());
+		printer.field(user.getFirstName());
+		printer.field(user.getLastName());
+		printer.field(user.getTitle());
+		printer.field(user.getAddress());
+		printer.field(user.getZip());
+		printer.field(user.getCity());
+		printer.field(user.getState());
+		printer.field(user.getSourceOfInterest());
+		printer.field(user.getScc());
+		printer.field(user.getTeamSize());
+		printer.field(user.getDivisionSize());
+		printer.field(user.getCompany());
+		printer.field(user.getCountry());
+		printer.field(user.getEmail());
+		printer.field(user.getEmailClient());
+		printer.field(user.getPhone());
+		printer.field(user.getMobile());
+		printer.field(user.getDateFormatPattern());
+		printer.field(user.getDateTimeFormatPattern());
+		printer.field(user.getTimeZonePattern());
+		printer.field(user.getDownloadLimit());
+		printer.field(user.getBrowser());
+		printer.field(user.getSkills());
+		printer.field(user.getRegistryDate());
+		printer.field(user.getLastLogin());
+		printer.endRow();
+	}
+
+	final static String[] ProjectHeader = {
+			"id",
+			"name",
+			"description",
+			"descriptionFormat",
+			"propagation",
+			"defaultMemberRoleId",
+			"allowedHost",
+			"userName",
+			"password",
+			"homePage",
+			"syncOptions",
+			"startDate",
+			"endDate",
+			"createdAt",
+			"createdBy",
+			"createdFromHost",
+			"virtualHost",
+			"environment",
+			"category",
+			"copyright",
+			"natureLanguage",
+			"developmentLanguage",
+			"status"
+			};
+
 	/**
 	 * Exports all project information that the user has access to.
 	 * @return the number of projects exported.
 	 */
-	protected static int exportProjects(RemoteApi api, String token, OutputStream out) {
+	protected static int exportProjects(RemoteApi api, String token, ExportSink printer) {
 		int exported = 0;
 
 		try {
-			CSVPrinter printer = new CSVPrinter(out);
-			printer.writeln(new String[] {
-				"id",
-				"name",
-				"description",
-				"descriptionFormat",
-				"propagation",
-				"defaultMemberRoleId",
-				"allowedHost",
-				"userName",
-				"password",
-				"homePage",
-				"syncOptions",
-				"startDate",
-				"endDate",
-				"createdAt",
-				"createdBy",
-				"createdFromHost",
-				"virtualHost",
-				"environment",
-				"category",
-				"copyright",
-				"natureLanguage",
-				"developmentLanguage",
-				"status"});
+			printer.header(ProjectHeader);
 
 			ProjectDto projects[] = api.findAllProjects(token);
 			for(int i = 0; i < projects.length; i++) {
 				ProjectDto project = projects[i];
-				printer.writeln(new String[] {
-					writeInteger(project.getId()),
-					project.getName(),
-					project.getDescription(),
-					project.getDescriptionFormat(),
-					project.getPropagation(),
-					writeInteger(project.getDefaultMemberRoleId()),
-					project.getAllowedHost(),
-					project.getUserName(),
-					project.getPassword(),
-					writeDate(project.getStartDate()),
-					writeDate(project.getEndDate()),
-					writeDate(project.getCreatedAt()),
-					writeUser(project.getCreatedBy()),
-					project.getCreatedFromHost(),
-					project.getVirtualHost(),
-					project.getEnvironment(),
-					project.getCategory(),
-					project.getCopyright(),
-					project.getNatureLanguage(),
-					project.getDevelopmentLanguage(),
-					project.getStatus()});
+				writeProjectRow(printer, project);
 
 				exported++;
 			}
+			printer.close();
 		} catch(IOException ex) {
 			System.err.println(ex);
 		}
@@ -271,48 +321,96 @@ public class CodeBeamerCsvExporter {
 		return exported;
 	}
 
+	protected static void writeProjectRow(ExportSink printer, ProjectDto project) throws IOException {
+		printer.field(project.getId());
+		printer.field(project.getName());
+		printer.field(project.getDescription());
+		printer.field(project.getDescriptionFormat());
+		printer.field(project.getPropagation());
+		printer.field(project.getDefaultMemberRoleId());
+		printer.field(project.getAllowedHost());
+		printer.field(project.getUserName());
+		printer.field(project.getPassword());
+		printer.field(project.getStartDate());
+		printer.field(project.getEndDate());
+		printer.field(project.getCreatedAt());
+		writeUser(printer, project.getCreatedBy());
+		printer.field(project.getCreatedFromHost());
+		printer.field(project.getVirtualHost());
+		printer.field(project.getEnvironment());
+		printer.field(project.getCategory());
+		printer.field(project.getCopyright());
+		printer.field(project.getNatureLanguage());
+		printer.field(project.getDevelopmentLanguage());
+		printer.field(project.getStatus());
+		printer.endRow();
+	}
+
+	final static String[] ArtifactHeader = {
+			"id",
+			"parent",
+			"project",
+			"deleted",
+			"name",
+			"directory",
+			"scopeName",
+			"description",
+			"descriptionFormat",
+			"createdAt",
+			"lastModifiedAt",
+			"lastAccessAt",
+			"owner",
+			"lockedBy",
+			"lastModifiedBy",
+			"keywords",
+			"category",
+			"comment",
+			"length",
+			"revision",
+			"historyEntries",
+			"status",
+			"notification"
+			};
+
 	/**
 	 * Exports all artifact information that the user has access to.
 	 * @return the number of artifacts exported.
 	 */
-	protected static int exportArtifacts(RemoteApi api, String token, OutputStream out) {
+	protected static int exportArtifacts(RemoteApi api, String token, ExportSink printer) {
+		return exportArtifacts(api, token, printer, 1);
+	}
+
+	/**
+	 * Exports all artifact information that the user has access to.
+	 * If more than one thread is specified, the directories are listed in parallel,
+	 * but the rows are still written in the same order as with a single thread.
+	 * @return the number of artifacts exported.
+	 */
+	protected static int exportArtifacts(RemoteApi api, String token, ExportSink printer, int threads) {
 		int exported = 0;
+		ExecutorService executor = (threads > 1) ? SampleExecutor.getInstance().newGroup(token, threads) : null;
 
 		try {
-			CSVPrinter printer = new CSVPrinter(out);
-			printer.writeln(new String[] {
-				"id",
-				"parent",
-				"project",
-				"deleted",
-				"name",
-				"directory",
-				"scopeName",
-				"description",
-				"descriptionFormat",
-				"createdAt",
-				"lastModifiedAt",
-				"lastAccessAt",
-				"owner",
-				"lockedBy",
-				"lastModifiedBy",
-				"keywords",
-				"category",
-				"comment",
-				"length",
-				"revision",
-				"historyEntries",
-				"status",
-				"notification"});
+			printer.header(ArtifactHeader);
 
 			ProjectDto projects[] = api.findAllProjects(token);
 			for(int i = 0; i < projects.length; i++) {
 				ArtifactDto artifacts[] = api.findTopArtifactsByProject(token, projects[i].getId());
-				for(int j = 0; j < artifacts.length; j++)
-					exported += exportArtifact(api, token, printer, artifacts[j]);
+				if(executor != null) {
+					ArtifactNode nodes[] = ArtifactNode.list(api, token, artifacts, executor);
+					for(int j = 0; j < nodes.length; j++)
+						exported += exportArtifact(printer, nodes[j]);
+				} else {
+					for(int j = 0; j < artifacts.length; j++)
+						exported += exportArtifact(api, token, printer, artifacts[j]);
+				}
 			}
+			printer.close();
 		} catch(IOException ex) {
 			System.err.println(ex);
+		} finally {
+			if(executor != null)
+				executor.shutdownNow();
 		}
 
 		return exported;
@@ -322,30 +420,10 @@ public class CodeBeamerCsvExporter {
 	 * Recursively exports the given artifact and its children if there are.
 	 * @return the number of artifacts exported.
 	 */
-	protected static int exportArtifact(RemoteApi api, String token, CSVPrinter printer, ArtifactDto artifact) throws IOException {
+	protected static int exportArtifact(RemoteApi api, String token, ExportSink printer, ArtifactDto artifact) throws IOException {
 		int exported = 1;
 
-		printer.writeln(new String[] {
-			artifact.getId().toString(),
-			(artifact.getParent() != null) ? writeInteger(artifact.getParent().getId()) : null,
-			writeProject(artifact.getProject()),
-			writeBoolean(Boolean.valueOf(artifact.isDeleted())),
-			artifact.getName(),
-			writeInteger(artifact.getTypeId()),
-			artifact.getScopeName(),
-			artifact.getDescription(),
-			artifact.getDescriptionFormat(),
-			writeDate(artifact.getCreatedAt()),
-			writeUser(artifact.getOwner()),
-			writeInteger(artifact.getVersion()),
-			writeLong(artifact.getFileSize()),
-			writeNamed(artifact.getStatus()),
-			writeDate(artifact.getLastModifiedAt()),
-			writeUser(artifact.getLastModifiedBy()),
-			(artifact.getAdditionalInfo() != null) ? writeUser(artifact.getAdditionalInfo().getLockedBy()) : null,
-			(artifact.getAdditionalInfo() != null) ? writeInteger(artifact.getAdditionalInfo().getPublishedRevision()) : null,
-			(artifact.getAdditionalInfo() != null) ? writeInteger(artifact.getAdditionalInfo().getKeptHistoryEntries()) : null,
-			writeInteger(artifact.getNotification()) });
+		writeArtifact(printer, artifact);
 
 		// traverse children recursively
 		if(artifact.isDirectory()) {
@@ -357,42 +435,80 @@ public class CodeBeamerCsvExporter {
 		return exported;
 	}
 
+	/**
+	 * Recursively exports the given artifact and its children, whose listing has been
+	 * started in the background.
+	 * @return the number of artifacts exported.
+	 */
+	protected static int exportArtifact(ExportSink printer, ArtifactNode node) throws IOException {
+		int exported = 1;
+
+		writeArtifact(printer, node.getArtifact());
+
+		// traverse children recursively, waiting for their listing if necessary
+		ArtifactNode children[] = node.getChildren();
+		for(int i = 0; i < children.length; i++)
+			exported += exportArtifact(printer, children[i]);
+
+		return exported;
+	}
+
+	protected static void writeArtifact(ExportSink printer, ArtifactDto artifact) throws IOException {
+		ArtifactAdditionalInfoDto additionalInfo = artifact.getAdditionalInfo();
+
+		printer.field(artifact.getId());
+		printer.field((artifact.getParent() != null) ? artifact.getParent().getId() : null);
+		writeProject(printer, artifact.getProject());
+		printer.field(Boolean.valueOf(artifact.isDeleted()));
+		printer.field(artifact.getName());
+		printer.field(artifact.getTypeId());
+		printer.field(artifact.getScopeName());
+		printer.field(artifact.getDescription());
+		printer.field(artifact.getDescriptionFormat());
+		printer.field(artifact.getCreatedAt());
+		writeUser(printer, artifact.getOwner());
+		printer.field(artifact.getVersion());
+		printer.field(artifact.getFileSize());
+		writeNamed(printer, artifact.getStatus());
+		printer.field(artifact.getLastModifiedAt());
+		writeUser(printer, artifact.getLastModifiedBy());
+		writeUser(printer, (additionalInfo != null) ? additionalInfo.getLockedBy() : null);
+		printer.field((additionalInfo != null) ? additionalInfo.getPublishedRevision() : null);
+		printer.field((additionalInfo != null) ? additionalInfo.getKeptHistoryEntries() : null);
+		printer.field(artifact.getNotification());
+		printer.endRow();
+	}
+
+	final static String[] TrackerPropertiesHeader = {
+			"id",
+			"type",
+			"project",
+			"createdBy",
+			"name",
+			"description",
+			"descriptionFormat",
+			"visible",
+			"createdAt"
+			};
+
 	/**
 	 * Exports all tracker information that the user has access to.
 	 * @return the number of trackers exported.
 	 */
-	protected static int exportTrackers(RemoteApi api, String token, OutputStream out) {
+	protected static int exportTrackers(RemoteApi api, String token, ExportSink printer) {
 		int exported = 0;
 
 		try {
-			CSVPrinter printer = new CSVPrinter(out);
-			printer.writeln(new String[] {
-				"id",
-				"type",
-				"project",
-				"createdBy",
-				"name",
-				"description",
-				"descriptionFormat",
-				"visible",
-				"createdAt" });
+			printer.header(TrackerPropertiesHeader);
 
 			TrackerDto trackers[] = api.findAllTrackers(token);
 			for(int i = 0; i < trackers.length; i++) {
 				TrackerDto tracker = trackers[i];
-				printer.writeln(new String[] {
-					writeInteger(tracker.getId()),
-					writeNamed(tracker.getType().getId(), tracker.getType().getName()),
-					writeProject(tracker.getProject()),
-					writeUser(tracker.getCreatedBy()),
-					tracker.getName(),
-					tracker.getDescription(),
-					tracker.getDescriptionFormat(),
-					writeBoolean(tracker.getVisible()),
-					writeDate(tracker.getCreatedAt()) });
+				writeTrackerRow(printer, tracker);
 
 				exported++;
 			}
+			printer.close();
 		} catch(IOException ex) {
 			System.err.println(ex);
 		}
@@ -400,7 +516,20 @@ public class CodeBeamerCsvExporter {
 		return exported;
 	}
 
-	final private static String[] TrackerHeader = {
+	protected static void writeTrackerRow(ExportSink printer, TrackerDto tracker) throws IOException {
+		printer.field(tracker.getId());
+		printer.field(tracker.getType().getId(), tracker.getType().getName());
+		writeProject(printer, tracker.getProject());
+		writeUser(printer, tracker.getCreatedBy());
+		printer.field(tracker.getName());
+		printer.field(tracker.getDescription());
+		printer.field(tracker.getDescriptionFormat());
+		printer.field(tracker.getVisible());
+		printer.field(tracker.getCreatedAt());
+		printer.endRow();
+	}
+
+	final static String[] TrackerHeader = {
 			"id",
 			"tracker",
 			"assignedTo",
@@ -432,40 +561,158 @@ public class CodeBeamerCsvExporter {
 			"estimatedHours",
 			"spentHours"
 			};
+
 	/**
 	 * Exports all tracker item information.
 	 * @return the number of tracker items exported.
 	 */
-	protected static int exportTrackerItems(RemoteApi api, String token, OutputStream out) {
+	protected static int exportTrackerItems(RemoteApi api, String token, ExportSink printer) {
+		return exportTrackerItems(api, token, printer, 0);
+	}
+
+	/**
+	 * Exports all tracker item information.
+	 * If a page size is specified, the items of each tracker are downloaded page by page,
+	 * the next page being downloaded while the current one is written.
+	 * @param pageSize the number of items per page or <code>0</code> to download all items of a tracker at once.
+	 * @return the number of tracker items exported.
+	 */
+	protected static int exportTrackerItems(RemoteApi api, String token, ExportSink printer, int pageSize) {
 		int exported = 0;
+		ExecutorService executor = (pageSize > 0) ? SampleExecutor.getInstance().newGroup(token, 1) : null;
 
 		try {
-			CSVPrinter printer = new CSVPrinter(out);
-			printer.writeln(TrackerHeader);
+			printer.header(TrackerHeader);
 
 			TrackerDto trackers[] = api.findAllTrackers(token);
 			for(int i = 0; i < trackers.length; i++) {
-				TrackerItemDto items[] = api.findTrackerItemsByTrackerId(token, trackers[i].getId());
+				if(executor != null) {
+					TrackerItemPager pager = new TrackerItemPager(api, token, new Integer[] { trackers[i].getId() }, null, pageSize, executor);
+					TrackerItemDto items[];
+					while((items = pager.nextPage()) != null) {
+						for(int j = 0; j < items.length; j++, exported++)
+							writeTrackerItem(printer, items[j]);
+					}
+				} else {
+					TrackerItemDto items[] = api.findTrackerItemsByTrackerId(token, trackers[i].getId());
+
+					for(int j = 0; j < items.length; j++, exported++) {
+						TrackerItemDto item = items[j];
+
+						writeTrackerItem(printer, item);
+					}
+				}
+			}
+			printer.close();
+		} catch(IOException ex) {
+			System.err.println(ex);
+		} finally {
+			if(executor != null)
+				executor.shutdownNow();
+		}
+
+		return exported;
+	}
 
-				for(int j = 0; j < items.length; j++, exported++) {
-					TrackerItemDto item = items[j];
+	final static String[] TrackerItemDetailHeader = {
+			"trackerItemId",
+			"type",
+			"id",
+			"submitter",
+			"submittedAt",
+			"name",
+			"description"
+			};
 
-					writeTrackerItem(printer, item);
+	/**
+	 * Exports the comments, attachments and SCM commits of all tracker items.
+	 * They are loaded with bulk calls for chunks of items, not item by item, and their
+	 * submitters are resolved to the users with the bulk calls too. If a page size is
+	 * specified, the items of each tracker are downloaded and hydrated page by page.
+	 * @param pageSize the number of items per page or <code>0</code> to download all items of a tracker at once.
+	 * @return the number of comments, attachments and commits exported.
+	 */
+	protected static int exportTrackerItemDetails(RemoteApi api, String token, ExportSink printer, int chunkSize, int pageSize) {
+		int exported = 0;
+		TrackerItemHydrator hydrator = new TrackerItemHydrator(api, token, chunkSize);
+		hydrator.setLoadComments(true);
+		hydrator.setLoadAttachments(true);
+		hydrator.setLoadCommits(true);
+		ExecutorService executor = (pageSize > 0) ? SampleExecutor.getInstance().newGroup(token, 1) : null;
+
+		try {
+			printer.header(TrackerItemDetailHeader);
+
+			TrackerDto trackers[] = api.findAllTrackers(token);
+			for(int i = 0; i < trackers.length; i++) {
+				if(executor != null) {
+					TrackerItemPager pager = new TrackerItemPager(api, token, new Integer[] { trackers[i].getId() }, null, pageSize, executor);
+					TrackerItemDto items[];
+					while((items = pager.nextPage()) != null)
+						exported += writeTrackerItemDetails(printer, hydrator, items);
+				} else {
+					exported += writeTrackerItemDetails(printer, hydrator, api.findTrackerItemsByTrackerId(token, trackers[i].getId()));
 				}
 			}
+			printer.close();
+			System.out.print(" " + hydrator + ",");
 		} catch(IOException ex) {
 			System.err.println(ex);
+		} finally {
+			if(executor != null)
+				executor.shutdownNow();
 		}
 
 		return exported;
 	}
 
-	protected static int exportUserTrackerItems(RemoteApi api, String token, OutputStream out) {
+	/**
+	 * Hydrates the items and writes their comments, attachments and commits.
+	 * @return the number of rows written.
+	 */
+	@SuppressWarnings("deprecation")
+	private static int writeTrackerItemDetails(ExportSink printer, TrackerItemHydrator hydrator, TrackerItemDto items[]) throws IOException {
+		int exported = 0;
+		hydrator.hydrate(items);
+
+		for(int j = 0; j < items.length; j++) {
+			Integer itemId = items[j].getId();
+			for(com.intland.codebeamer.persistence.dto.TrackerItemCommentDto comment : hydrator.getComments(itemId)) {
+				writeDetail(printer, itemId, "comment", comment.getId());
+				writeUser(printer, hydrator.resolve(comment.getSubmitter()));
+				printer.field(comment.getSubmittedAt());
+				printer.field(comment.getName());
+				printer.field(comment.getDescription());
+				printer.endRow();
+				exported++;
+			}
+			for(com.intland.codebeamer.persistence.dto.TrackerItemAttachmentDto attachment : hydrator.getAttachments(itemId)) {
+				writeDetail(printer, itemId, "attachment", attachment.getId());
+				writeUser(printer, hydrator.resolve(attachment.getSubmitter()));
+				printer.field(attachment.getSubmittedAt());
+				printer.field(attachment.getFilename());
+				printer.field(attachment.getDescription());
+				printer.endRow();
+				exported++;
+			}
+			for(ScmChangeSetDto commit : hydrator.getCommits(itemId)) {
+				writeDetail(printer, itemId, "commit", commit.getId());
+				printer.field(commit.getAuthorName());
+				printer.field(commit.getSubmittedAt());
+				printer.field(commit.getRevision());
+				printer.field(commit.getMessage());
+				printer.endRow();
+				exported++;
+			}
+		}
+		return exported;
+	}
+
+	protected static int exportUserTrackerItems(RemoteApi api, String token, ExportSink printer) {
 		int exported = 0;
 
 		try {
-			CSVPrinter printer = new CSVPrinter(out);
-			printer.writeln(TrackerHeader);
+			printer.header(TrackerHeader);
 
 			TrackerItemDto items[] = api.findAllUserTrackerItems(token);
 			for(int j = 0; j < items.length; j++) {
@@ -475,6 +722,7 @@ public class CodeBeamerCsvExporter {
 
 				exported++;
 			}
+			printer.close();
 		} catch(IOException ex) {
 			System.err.println(ex);
 		}
@@ -482,93 +730,80 @@ public class CodeBeamerCsvExporter {
 		return exported;
 	}
 
-	private static void writeTrackerItem(CSVPrinter printer, TrackerItemDto item) throws IOException {
-		printer.writeln(new String[] {
-			writeInteger(item.getId()),
-			writeTracker(item.getTracker()),
-			writeUserList(item.getAssignedTo()),
-			writeOptionList(item.getMilestones()),
-			writeOptionList(item.getVersions()),
-			writeUserList(item.getSupervisors()),
-			writeOptionList(item.getPlatforms()),
-			writeOptionList(item.getSubjects()),
-			writeNamed(item.getStatus()),
-			writeOptionList(item.getCategories()),
-			writeInteger(item.getPriority()),
-			writeUser(item.getSubmitter()),
-			writeDate(item.getModifiedAt()),
-			writeDate(item.getAssignedAt()),
-			writeDate(item.getSubmittedAt()),
-			writeDate(item.getClosedAt()),
-			item.getName(),
-			item.getDescription(),
-			item.getDescriptionFormat(),
-			writeDate(item.getStartDate()),
-			writeDate(item.getEndDate()),
-			writeOptionList(item.getResolutions()),
-			writeOptionList(item.getSeverities()),
-			writeInteger(item.getTemplate() != null ? item.getTemplate().getId() : null),
-			writeBoolean(Boolean.valueOf(item.isDeleted())),
-			writeLong(item.getEstimatedMillis()),
-			writeLong(item.getSpentMillis()) });
+	protected static void writeTrackerItem(ExportSink printer, TrackerItemDto item) throws IOException {
+		printer.field(item.getId());
+		writeTracker(printer, item.getTracker());
+		writeUserList(printer, item.getAssignedTo());
+		writeOptionList(printer, item.getMilestones());
+		writeOptionList(printer, item.getVersions());
+		writeUserList(printer, item.getSupervisors());
+		writeOptionList(printer, item.getPlatforms());
+		writeOptionList(printer, item.getSubjects());
+		writeNamed(printer, item.getStatus());
+		writeOptionList(printer, item.getCategories());
+		printer.field(item.getPriority());
+		writeUser(printer, item.getSubmitter());
+		printer.field(item.getModifiedAt());
+		printer.field(item.getAssignedAt());
+		printer.field(item.getSubmittedAt());
+		printer.field(item.getClosedAt());
+		printer.field(item.getName());
+		printer.field(item.getDescription());
+		printer.field(item.getDescriptionFormat());
+		printer.field(item.getStartDate());
+		printer.field(item.getEndDate());
+		writeOptionList(printer, item.getResolutions());
+		writeOptionList(printer, item.getSeverities());
+		printer.field(item.getTemplate() != null ? item.getTemplate().getId() : null);
+		printer.field(Boolean.valueOf(item.isDeleted()));
+		printer.field(item.getEstimatedMillis());
+		printer.field(item.getSpentMillis());
+		printer.endRow();
 	}
 
 	// - helpers --------------------------------------------------------------
 
-	private static String writeInteger(Integer value) {
-		return (value != null) ? value.toString() : null;
-	}
-
-	private static String writeLong(Long value) {
-		return (value != null) ? value.toString() : null;
-	}
-
-	private static String writeBoolean(Boolean value) {
-		return (value != null) ? value.toString() : null;
-	}
-
-	private static String writeDate(Date value) {
-		return (value != null) ? DATE_FORMAT.format(value) : null;
+	/** Writes the first columns of a comment, attachment or commit row. */
+	private static void writeDetail(ExportSink printer, Integer itemId, String type, Integer id) throws IOException {
+		printer.field(itemId);
+		printer.field(type);
+		printer.field(id);
 	}
 
-	private static String writeUser(UserDto value) {
-		return (value != null) ? writeNamed(value.getId(), value.getName()) : null;
+	private static void writeUser(ExportSink printer, UserDto value) throws IOException {
+		printer.field((value != null) ? value.getId() : null, (value != null) ? value.getName() : null);
 	}
 
-	private static String writeProject(ProjectDto value) {
-		return (value != null) ? writeNamed(value.getId(), value.getName()) : null;
+	private static void writeProject(ExportSink printer, ProjectDto value) throws IOException {
+		printer.field((value != null) ? value.getId() : null, (value != null) ? value.getName() : null);
 	}
 
-	private static String writeTracker(TrackerDto value) {
-		return (value != null) ? writeNamed(value.getId(), value.getName()) : null;
+	private static void writeTracker(ExportSink printer, TrackerDto value) throws IOException {
+		printer.field((value != null) ? value.getId() : null, (value != null) ? value.getName() : null);
 	}
 
-	private static String writeNamed(IdentifiableDto value) {
+	private static void writeNamed(ExportSink printer, IdentifiableDto value) throws IOException {
 		if (value instanceof NamedDto) {
 			NamedDto named = (NamedDto) value;
-			return writeNamed(named.getId(), named.getName());
+			printer.field(named.getId(), named.getName());
+		} else {
+			printer.field((String) null);
 		}
-		return null;
 	}
 
 	/** In the current implementation, there is only a single user returned from the server. */
-	private static String writeUserList(List value) {
-		if((value == null) || value.isEmpty())
-			return null;
-
-		return writeUser((UserDto)value.get(0));
+	private static void writeUserList(ExportSink printer, List value) throws IOException {
+		writeUser(printer, ((value == null) || value.isEmpty()) ? null : (UserDto)value.get(0));
 	}
 
 	/** In the current implementation, there is only a single choice returned from the server. */
-	private static String writeOptionList(List value) {
-		if((value == null) || value.isEmpty())
-			return null;
+	private static void writeOptionList(ExportSink printer, List value) throws IOException {
+		if((value == null) || value.isEmpty()) {
+			printer.field((String) null);
+			return;
+		}
 
 		TrackerChoiceOptionDto option = (TrackerChoiceOptionDto)value.get(0);
-		return writeNamed(option.getId(), option.getName());
-	}
-
-	private static String writeNamed(Integer id, String name) {
-		return (id == null) ? null : id + ";" + name;
+		printer.field(option.getId(), option.getName());
 	}
 }
@@ -11,6 +11,7 @@
  */
 package com.intland.codebeamer.remoting.sample;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -20,6 +21,7 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 import com.Ostermiller.util.CSVParser;
 import com.intland.codebeamer.manager.AccessRightsException;
@@ -60,7 +62,12 @@ import com.intland.codebeamer.remoting.bean.ServerInfo;
  * @version $Id: KlausMehling 2009-10-29 17:28 +0100 23443:3b63eb1c80e4  $
  */
 public class CodeBeamerCsvImporter {
-	private final static DateFormat DATE_FORMAT = new SimpleDateFormat("yyyy.MM.dd HH:mm:ss");
+	/** The format of the dates, one per thread as the rows may be parsed by multiple threads. */
+	private final static ThreadLocal<DateFormat> DATE_FORMAT = new ThreadLocal<DateFormat>() {
+		protected DateFormat initialValue() {
+			return new SimpleDateFormat("yyyy.MM.dd HH:mm:ss");
+		}
+	};
 
 	/**
 	 * Main entry point.
@@ -71,7 +78,11 @@ public class CodeBeamerCsvImporter {
 		if(args.length < 7) {
 			System.err.println("Usage: <program> service-URL (for example http://localhost:8080/cb/remote-api)\n"
 				+ "login password projects.csv-path "
-				+ "artifacts.csv-path trackers.csv-path trackeritems.csv-path [user.csv-path]");
+				+ "artifacts.csv-path trackers.csv-path trackeritems.csv-path [user.csv-path]\n"
+				+ "Use -Dcb.import.sessions=N to import the rows with N parallel sessions,\n"
+				+ "or -Dcb.import.batch=N to send the rows in batches of initially N calls in a single session.\n"
+				+ "Use -Dcb.import.checkpoint=directory to record the imported rows there, and to skip them when restarted.\n"
+				+ "Use -Dcb.import.plan=true to import all the files at the same time with N sessions, rewriting the references to the new IDs.");
 			System.exit(-1);
 		}
 		String serviceUrl = args[0];
@@ -82,6 +93,15 @@ public class CodeBeamerCsvImporter {
 		String trackerCsvPath = args[5];
 		String trackerItemCsvPath = args[6];
 		String userCsvPath = args.length > 7 ? args[7] : null;
+		int sessions = Integer.getInteger("cb.import.sessions", 1).intValue();
+		int batchSize = Integer.getInteger("cb.import.batch", 0).intValue();
+		File checkpointDir = System.getProperty("cb.import.checkpoint") != null ? new File(System.getProperty("cb.import.checkpoint")) : null;
+
+		// the parallel sessions send the rows one by one, the batches would be ignored
+		if(batchSize > 0 && (sessions > 1 || Boolean.getBoolean("cb.import.plan"))) {
+			System.err.println("-Dcb.import.batch can't be combined with -Dcb.import.sessions=N (N > 1) or -Dcb.import.plan, use either of them");
+			System.exit(-1);
+		}
 
 		System.out.println("Connecting to CodeBeamer web service at " + serviceUrl + "...");
 		RemoteApi api = RemoteApiFactory.getInstance().connect(serviceUrl);
@@ -96,22 +116,55 @@ public class CodeBeamerCsvImporter {
 		System.out.println("Signed in to CodeBeamer " + serverInfo.getMajorVersion() + serverInfo.getMinorVersion()
 			+ " (" + serverInfo.getBuildDate() + ") running on " + serverInfo.getOs() + "/Java " + serverInfo.getJavaVersion());
 
+		if(Boolean.getBoolean("cb.import.plan")) {
+			ImportPlanner planner = planImport(serviceUrl, login, password, Math.max(sessions, 1), userCsvPath, projectCsvPath, artifactCsvPath, trackerCsvPath, trackerItemCsvPath);
+			if(checkpointDir != null) {
+				checkpointDir.mkdirs();
+				planner.setCheckpointDir(checkpointDir);
+			}
+			System.out.print("Importing with " + Math.max(sessions, 1) + " parallel sessions (IDs remapped):\n" + planner);
+			planner.execute();
+			System.out.println();
+			for(ImportPlanner.Step step : planner.getSteps())
+				System.out.println(step);
+
+			System.out.println("Signing out...");
+			api.logout(token);
+
+			System.out.println("Done");
+			return;
+		}
+
+		CsvImportEngine engine = null;
+		if(sessions > 1) {
+			System.out.println("Importing with " + sessions + " parallel sessions");
+			engine = new ConcurrentCsvImporter(serviceUrl, login, password, sessions);
+		} else if(batchSize > 0) {
+			System.out.println("Importing in batches of initially " + batchSize + " calls");
+			engine = new BatchCsvImporter(api, token, batchSize);
+		}
+
+		if(checkpointDir != null) {
+			System.out.println("Recording the imported rows in " + checkpointDir);
+			checkpointDir.mkdirs();
+		}
+
 		if (userCsvPath != null) {
 			System.out.print("Importing users (IDs ignored)...");
-			System.out.println(" " + importUsers(api, token, new FileInputStream(userCsvPath)));
+			System.out.println(" " + importRows(api, token, engine, userCsvPath, new UserRowImporter(), checkpointDir));
 		}
 
 		System.out.print("Importing projects (IDs ignored)...");
-		System.out.println(" " + importProjects(api, token, new FileInputStream(projectCsvPath)));
+		System.out.println(" " + importRows(api, token, engine, projectCsvPath, new ProjectRowImporter(), checkpointDir));
 
 		System.out.print("Importing artifacts (IDs ignored)...");
-		System.out.println(" " + importArtifacts(api, token, new FileInputStream(artifactCsvPath)));
+		System.out.println(" " + importRows(api, token, engine, artifactCsvPath, new ArtifactRowImporter(), checkpointDir));
 
 		System.out.print("Importing trackers (IDs ignored)...");
-		System.out.println(" " + importTrackers(api, token, new FileInputStream(trackerCsvPath)));
+		System.out.println(" " + importRows(api, token, engine, trackerCsvPath, new TrackerRowImporter(), checkpointDir));
 
 		System.out.print("Importing tracker items (IDs ignored)...");
-		System.out.println(" " + importTrackerItems(api, token, new FileInputStream(trackerItemCsvPath)));
+		System.out.println(" " + importRows(api, token, engine, trackerItemCsvPath, new TrackerItemRowImporter(new TrackerChoiceOptionCache()), checkpointDir));
 
 		System.out.println("Signing out...");
 		api.logout(token);
@@ -123,164 +176,251 @@ public class CodeBeamerCsvImporter {
 	 * Imports all user account information.
 	 * @return the number of user accounts imported.
 	 */
-	protected static int importUsers(RemoteApi api, String token, InputStream in) throws ChangeVetoedException {
+	protected static int importUsers(RemoteApi api, String token, InputStream in) throws Exception {
+		return importRows(api, token, in, new UserRowImporter());
+	}
+
+	/**
+	 * Imports all project information.
+	 * @return the number of projects imported.
+	 */
+	protected static int importProjects(RemoteApi api, String token, InputStream in) throws Exception {
+		return importRows(api, token, in, new ProjectRowImporter());
+	}
+
+	/**
+	 * Imports all artifact information.
+	 * @return the number of artifacts imported.
+	 */
+	protected static int importArtifacts(RemoteApi api, String token, InputStream in) throws Exception {
+		return importRows(api, token, in, new ArtifactRowImporter());
+	}
+
+	/**
+	 * Imports all tracker information.
+	 * @return the number of trackers imported.
+	 */
+	protected static int importTrackers(RemoteApi api, String token, InputStream in) throws Exception {
+		return importRows(api, token, in, new TrackerRowImporter());
+	}
+
+	/**
+	 * Imports all tracker item information.
+	 * @return the number of tracker items imported.
+	 */
+	protected static int importTrackerItems(RemoteApi api, String token, InputStream in) throws Exception {
+		return importRows(api, token, in, new TrackerItemRowImporter(new TrackerChoiceOptionCache()));
+	}
+
+	/**
+	 * Reads the CSV file row by row and creates the entity described by each row
+	 * right after it has been read, so the memory usage does not depend on the size of the file.
+	 * @return the number of entities imported.
+	 */
+	protected static <T> int importRows(RemoteApi api, String token, InputStream in, CsvRowImporter<T> importer) throws Exception {
 		CSVParser parser = new CSVParser(in, ',');
-		String values[][] = null;
+		ThroughputMonitor monitor = new ThroughputMonitor("rows");
+		int imported = 0;
+
 		try {
-			values = parser.getAllValues();
+			// parse by skipping the first row
+			String values[] = parser.getLine();
+			while((values = parser.getLine()) != null) {
+				T entity = importer.parse(api, token, values);
+				if(entity != null && importer.create(api, token, entity) != null)
+					imported++;
+
+				monitor.increment();
+			}
 		} catch(IOException ex) {
 			System.err.println(ex);
-			return 0;
 		}
 
-		// parse by skipping the first row
-		int imported = 0;
-		for(int i = 1; i < values.length; i++) {
+		return imported;
+	}
+
+	/**
+	 * Imports the rows in the given session or, if an engine is passed, with the engine.
+	 * @return the number of entities imported.
+	 */
+	protected static <T> int importRows(RemoteApi api, String token, CsvImportEngine engine, InputStream in, CsvRowImporter<T> importer) throws Exception {
+		if(engine != null)
+			return engine.importRows(in, importer);
+
+		return importRows(api, token, in, importer);
+	}
+
+	/**
+	 * Imports the rows of the CSV file and, if a checkpoint directory is passed, records the
+	 * imported rows in a checkpoint named after the file, skipping the rows recorded by earlier runs.
+	 * @return the number of entities imported by this run.
+	 */
+	protected static <T> int importRows(RemoteApi api, String token, CsvImportEngine engine, String csvPath, CsvRowImporter<T> importer, File checkpointDir) throws Exception {
+		if(checkpointDir == null)
+			return importRows(api, token, engine, new FileInputStream(csvPath), importer);
+
+		ImportCheckpoint checkpoint = new ImportCheckpoint(new File(checkpointDir, new File(csvPath).getName() + ".checkpoint"));
+		CheckpointedRowImporter<T> checkpointed = new CheckpointedRowImporter<T>(importer, checkpoint);
+		try {
+			return importRows(api, token, engine, new FileInputStream(csvPath), checkpointed);
+		} finally {
+			checkpoint.close();
+			if(checkpointed.getSkipped() > 0)
+				System.out.print(" " + checkpointed.getSkipped() + " rows skipped as already imported,");
+		}
+	}
+
+	/**
+	 * Returns the plan importing the files at the same time, with the references between the rows.
+	 * @param userCsvPath can be <code>null</code>, then the users are referred to by their original IDs.
+	 */
+	protected static ImportPlanner planImport(String serviceUrl, String login, String password, int sessions,
+			String userCsvPath, String projectCsvPath, String artifactCsvPath, String trackerCsvPath, String trackerItemCsvPath) throws Exception {
+		ImportPlanner planner = new ImportPlanner(serviceUrl, login, password, sessions);
+
+		ImportPlanner.Step users = (userCsvPath != null) ? planner.addStep("users", userCsvPath, new UserRowImporter()) : null;
+		ImportPlanner.Step projects = planner.addStep("projects", projectCsvPath, new ProjectRowImporter());
+
+		ImportPlanner.Step artifacts = planner.addStep("artifacts", artifactCsvPath, new ArtifactRowImporter());
+		artifacts.references(1, artifacts).references(2, projects);
+
+		ImportPlanner.Step trackers = planner.addStep("trackers", trackerCsvPath, new TrackerRowImporter());
+		trackers.references(2, projects);
+
+		ImportPlanner.Step trackerItems = planner.addStep("tracker items", trackerItemCsvPath, new TrackerItemRowImporter(new TrackerChoiceOptionCache()));
+		trackerItems.references(1, trackers).references(24, trackerItems);
+
+		if(users != null) {
+			artifacts.references(10, users).references(16, users);
+			trackers.references(3, users);
+			trackerItems.references(2, users).references(5, users).references(11, users);
+		}
+
+		return planner;
+	}
+
+	// - row importers --------------------------------------------------------
+
+	/** Imports user accounts. */
+	protected static class UserRowImporter extends CsvRowImporter<UserDto> {
+		public UserDto parse(RemoteApi api, String token, String values[]) {
 			UserDto user = new UserDto();
 			// skip ID: that will be auto-generated by CodeBeamer
-			user.setName(values[i][1]);
-			user.setStatus(values[i][2]);
-			user.setHostName(values[i][3]);
-			user.setFirstName(values[i][4]);
-			user.setLastName(values[i][5]);
-			user.setTitle(values[i][6]);
-			user.setAddress(values[i][7]);
-			user.setZip(values[i][8]);
-			user.setCity(values[i][9]);
-			user.setState(values[i][10]);
-			user.setSourceOfInterest(values[i][11]);
-			user.setScc(values[i][12]);
-			user.setTeamSize(values[i][13]);
-			user.setDivisionSize(values[i][14]);
-			user.setCompany(values[i][15]);
-			user.setCountry(values[i][16]);
-			user.setEmail(values[i][17]);
-			user.setEmailClient(values[i][18]);
-			user.setPhone(values[i][19]);
-			user.setMobile(values[i][20]);
-			user.setDateFormatPattern(values[i][21]);
-			user.setDateTimeFormatPattern(values[i][22]);
-			user.setTimeZonePattern(values[i][23]);
+			user.setName(values[1]);
+			user.setStatus(values[2]);
+			user.setHostName(values[3]);
+			user.setFirstName(values[4]);
+			user.setLastName(values[5]);
+			user.setTitle(values[6]);
+			user.setAddress(values[7]);
+			user.setZip(values[8]);
+			user.setCity(values[9]);
+			user.setState(values[10]);
+			user.setSourceOfInterest(values[11]);
+			user.setScc(values[12]);
+			user.setTeamSize(values[13]);
+			user.setDivisionSize(values[14]);
+			user.setCompany(values[15]);
+			user.setCountry(values[16]);
+			user.setEmail(values[17]);
+			user.setEmailClient(values[18]);
+			user.setPhone(values[19]);
+			user.setMobile(values[20]);
+			user.setDateFormatPattern(values[21]);
+			user.setDateTimeFormatPattern(values[22]);
+			user.setTimeZonePattern(values[23]);
 			int downloadLimit = -1;
 			try {
-				downloadLimit = Integer.parseInt(values[i][24]);
+				downloadLimit = Integer.parseInt(values[24]);
 				user.setDownloadLimit(downloadLimit);
-				user.setBrowser(values[i][25]);
-				user.setSkills(values[i][26]);
+				user.setBrowser(values[25]);
+				user.setSkills(values[26]);
 			} catch (Exception ex) {
 			}
 			// skip registry date: that will be specified by CodeBeamer
 			// skip last login: that will be specified by CodeBeamer
 
-			if(api.createUser(token, user, user.getPassword()) != null) {
-				imported++;
-			}
+			return user;
 		}
 
-		return imported;
-	}
-
-	/**
-	 * Imports all project information.
-	 * @return the number of projects imported.
-	 */
-	protected static int importProjects(RemoteApi api, String token, InputStream in) throws AccessRightsException, ChangeVetoedException {
-		CSVParser parser = new CSVParser(in, ',');
-		String values[][] = null;
-		try {
-			values = parser.getAllValues();
-		} catch(IOException ex) {
-			System.err.println(ex);
-			return 0;
+		public UserDto create(RemoteApi api, String token, UserDto user) throws ChangeVetoedException {
+			return api.createUser(token, user, user.getPassword());
 		}
+	}
 
-		// parse by skipping the first row
-		int imported = 0;
-		for(int i = 1; i < values.length; i++) {
+	/** Imports projects. */
+	protected static class ProjectRowImporter extends CsvRowImporter<ProjectDto> {
+		public ProjectDto parse(RemoteApi api, String token, String values[]) {
 			ProjectDto project = new ProjectDto();
 			// skip ID: that will be auto-generated by CodeBeamer
-			project.setName(values[i][1]);
-			project.setDescription(values[i][2]);
-			project.setDescriptionFormat(values[i][3]);
-			project.setPropagation(values[i][4]);
-			project.setDefaultMemberRoleId(readInteger(values[i][5]));
-			project.setAllowedHost(values[i][6]);
-			project.setUserName(values[i][7]);
-			project.setPassword(values[i][8]);
-			project.setStartDate(readDate(values[i][9]));
-			project.setEndDate(readDate(values[i][10]));
+			project.setName(values[1]);
+			project.setDescription(values[2]);
+			project.setDescriptionFormat(values[3]);
+			project.setPropagation(values[4]);
+			project.setDefaultMemberRoleId(readInteger(values[5]));
+			project.setAllowedHost(values[6]);
+			project.setUserName(values[7]);
+			project.setPassword(values[8]);
+			project.setStartDate(readDate(values[9]));
+			project.setEndDate(readDate(values[10]));
 			// skip createdAt: that will be specified by CodeBeamer
 			// skip createdBy: that will be specified by CodeBeamer
-			project.setCreatedFromHost(values[i][13]);
-			project.setVirtualHost(values[i][14]);
-			project.setEnvironment(values[i][15]);
-			project.setCategory(values[i][16]);
+			project.setCreatedFromHost(values[13]);
+			project.setVirtualHost(values[14]);
+			project.setEnvironment(values[15]);
+			project.setCategory(values[16]);
 			try {
-				project.setCopyright(values[i][17]);
-				project.setNatureLanguage(values[i][18]);
-				project.setDevelopmentLanguage(values[i][19]);
-				project.setStatus(values[i][20]);
+				project.setCopyright(values[17]);
+				project.setNatureLanguage(values[18]);
+				project.setDevelopmentLanguage(values[19]);
+				project.setStatus(values[20]);
 			} catch (Exception ex) {
 			}
 
-			if(api.createProject(token, project) != null) {
-				imported++;
-			}
+			return project;
 		}
 
-		return imported;
-	}
-
-	/**
-	 * Imports all artifact information.
-	 * @return the number of artifacts imported.
-	 */
-	protected static int importArtifacts(RemoteApi api, String token, InputStream in) throws AccessRightsException, ArtifactNameConflictException, ChangeVetoedException {
-		CSVParser parser = new CSVParser(in, ',');
-		String values[][] = null;
-		try {
-			values = parser.getAllValues();
-		} catch(IOException ex) {
-			System.err.println(ex);
-			return 0;
+		public ProjectDto create(RemoteApi api, String token, ProjectDto project) throws AccessRightsException, ChangeVetoedException {
+			return api.createProject(token, project);
 		}
+	}
 
-		// parse by skipping the first row
-		int imported = 0;
-		for(int i = 1; i < values.length; i++) {
+	/** Imports artifacts. */
+	protected static class ArtifactRowImporter extends CsvRowImporter<ArtifactDto> {
+		public ArtifactDto parse(RemoteApi api, String token, String values[]) {
 			ArtifactDto parent = null;
-			if(!"".equals(values[i][1])) {
+			if(!"".equals(values[1])) {
 				parent = new ArtifactDto();
-				parent.setId(new Integer(values[i][1]));
+				parent.setId(new Integer(values[1]));
 			}
 
 			ProjectDto project = new ProjectDto();
-			project.setId(readId(values[i][2]));
+			project.setId(readId(values[2]));
 
 			UserDto owner = new UserDto();
-			owner.setId(readId(values[i][10]));
+			owner.setId(readId(values[10]));
 
 			UserDto lockedBy = new UserDto();
-			lockedBy.setId(readId(values[i][16]));
+			lockedBy.setId(readId(values[16]));
 
 			ArtifactStatusDto status = new ArtifactStatusDto();
-			status.setId(readId(values[i][13]));
+			status.setId(readId(values[13]));
 
 			ArtifactAdditionalInfoDto additionalInfo = new ArtifactAdditionalInfoDto();
 			additionalInfo.setLockedBy(lockedBy);
-			additionalInfo.setPublishedRevision(readInteger(values[i][17]));
-			additionalInfo.setKeptHistoryEntries(readInteger(values[i][18]));
+			additionalInfo.setPublishedRevision(readInteger(values[17]));
+			additionalInfo.setKeptHistoryEntries(readInteger(values[18]));
 
 			ArtifactDto artifact = new ArtifactDto();
 			// skip ID: that will be auto-generated by CodeBeamer
 			artifact.setParent(parent);
 			artifact.setProject(project);
 			// skip deleted: that will be specified by CodeBeamer
-			artifact.setName(values[i][4]);
-			artifact.setTypeId(readInteger(values[i][5]));
-			//artifact.setScopeName(values[i][6]);
-			artifact.setDescription(values[i][7]);
-			artifact.setDescriptionFormat(values[i][8]);
+			artifact.setName(values[4]);
+			artifact.setTypeId(readInteger(values[5]));
+			//artifact.setScopeName(values[6]);
+			artifact.setDescription(values[7]);
+			artifact.setDescriptionFormat(values[8]);
 			// skip createdAt: that will be specified by CodeBeamer
 			// skip lastModifiedAt: that will be specified by CodeBeamer
 			// skip lastAccessAt: that will be specified by CodeBeamer
@@ -288,107 +428,77 @@ public class CodeBeamerCsvImporter {
 			// skip lockedByUser: that will be specified by CodeBeamer
 			// skip lastModifiedByUser: that will be specified by CodeBeamer
 			artifact.setStatus(status);
-			artifact.setFileSize(readLong(values[i][13]));
+			artifact.setFileSize(readLong(values[13]));
 			artifact.setAdditionalInfo(additionalInfo);
-			artifact.setNotification(readInteger(values[i][19]));
+			artifact.setNotification(readInteger(values[19]));
 
-			if(api.createArtifact(token, artifact) != null)
-				imported++;
+			return artifact;
 		}
 
-		return imported;
-	}
-
-	/**
-	 * Imports all tracker information.
-	 * @return the number of trackers imported.
-	 */
-	protected static int importTrackers(RemoteApi api, String token, InputStream in) throws IllegalArgumentException, AccessRightsException, ChangeVetoedException {
-		CSVParser parser = new CSVParser(in, ',');
-		String values[][] = null;
-		try {
-			values = parser.getAllValues();
-		} catch(IOException ex) {
-			System.err.println(ex);
-			return 0;
+		public ArtifactDto create(RemoteApi api, String token, ArtifactDto artifact) throws AccessRightsException, ArtifactNameConflictException, ChangeVetoedException {
+			return api.createArtifact(token, artifact);
 		}
+	}
 
-		// parse by skipping the first row
-		int imported = 0;
-		for(int i = 1; i < values.length; i++) {
+	/** Imports trackers. */
+	protected static class TrackerRowImporter extends CsvRowImporter<TrackerDto> {
+		public TrackerDto parse(RemoteApi api, String token, String values[]) {
 			TrackerDto tracker = new TrackerDto();
-			tracker.setIssueTypeId(readId(values[i][1]));
+			tracker.setIssueTypeId(readId(values[1]));
 
 			ProjectDto project = new ProjectDto();
-			project.setId(readId(values[i][2]));
+			project.setId(readId(values[2]));
 			tracker.setProject(project);
 
 			UserDto createdBy = new UserDto();
-			createdBy.setId(readId(values[i][3]));
+			createdBy.setId(readId(values[3]));
 			tracker.setCreatedBy(createdBy);
 
 			// skip ID: that will be auto-generated by CodeBeamer
-			tracker.setName(values[i][4]);
-			tracker.setDescription(values[i][5]);
-			tracker.setDescriptionFormat(values[i][6]);
-			tracker.setVisible(Boolean.valueOf(values[i][7]));
+			tracker.setName(values[4]);
+			tracker.setDescription(values[5]);
+			tracker.setDescriptionFormat(values[6]);
+			tracker.setVisible(Boolean.valueOf(values[7]));
 			// skip created at: that will be specified by CodeBeamer
 
-			if (api.createTracker(token, tracker) != null) {
-				imported++;
-			}
+			return tracker;
 		}
 
-		return imported;
+		public TrackerDto create(RemoteApi api, String token, TrackerDto tracker) throws IllegalArgumentException, AccessRightsException, ChangeVetoedException {
+			return api.createTracker(token, tracker);
+		}
 	}
 
-	/**
-	 * Imports all tracker item information.
-	 * @return the number of tracker items imported.
-	 */
-	protected static int importTrackerItems(RemoteApi api, String token, InputStream in) throws Exception {
-		CSVParser parser = new CSVParser(in, ',');
-		String values[][] = null;
-		try {
-			values = parser.getAllValues();
-		} catch(IOException ex) {
-			System.err.println(ex);
-			return 0;
+	/** Imports tracker items. */
+	protected static class TrackerItemRowImporter extends CsvRowImporter<TrackerItemDto> {
+		private final TrackerChoiceOptionCache options;
+
+		public TrackerItemRowImporter(TrackerChoiceOptionCache options) {
+			this.options = options;
 		}
 
-		// parse by skipping the first row
-		int imported = 0;
-		for(int i = 1; i < values.length; i++) {
+		public TrackerItemDto parse(RemoteApi api, String token, String values[]) {
 			TrackerDto tracker = new TrackerDto();
-			tracker.setId(readId(values[i][1]));
+			tracker.setId(readId(values[1]));
 
 			UserDto assignee = new UserDto();
-			assignee.setId(readId(values[i][2]));
+			assignee.setId(readId(values[2]));
 
 			UserDto supervisor = new UserDto();
-			supervisor.setId(readId(values[i][5]));
+			supervisor.setId(readId(values[5]));
 
 			UserDto submitter = new UserDto();
-			submitter.setId(readId(values[i][11]));
-
-			// download tracker options
-			// (it is somewhat redundant to do this for each item, but items might belong to different trackers
-			// and this is purely for demonstration purposes, not for high performance)
-			TrackerChoiceOptionDto milestoneOptions[] = api.findTrackerChoiceOptions(token, tracker.getId(), new Integer(TrackerLayoutLabelDto.MILESTONES_LABEL_ID));
-			TrackerChoiceOptionDto versionOptions[] = api.findTrackerChoiceOptions(token, tracker.getId(), new Integer(TrackerLayoutLabelDto.VERSION_LABEL_ID));
-			TrackerChoiceOptionDto platformOptions[] = api.findTrackerChoiceOptions(token, tracker.getId(), new Integer(TrackerLayoutLabelDto.PLATFORM_LABEL_ID));
-			TrackerChoiceOptionDto subjectOptions[] = api.findTrackerChoiceOptions(token, tracker.getId(), new Integer(TrackerLayoutLabelDto.SUBJECT_LABEL_ID));
-			TrackerChoiceOptionDto categoryOptions[] = api.findTrackerChoiceOptions(token, tracker.getId(), new Integer(TrackerLayoutLabelDto.CATEGORY_LABEL_ID));
-			TrackerChoiceOptionDto resolutionOptions[] = api.findTrackerChoiceOptions(token, tracker.getId(), new Integer(TrackerLayoutLabelDto.RESOLUTION_LABEL_ID));
-			TrackerChoiceOptionDto severityOptions[] = api.findTrackerChoiceOptions(token, tracker.getId(), new Integer(TrackerLayoutLabelDto.SEVERITY_LABEL_ID));
-
-			TrackerChoiceOptionDto milestone = findOptionById("milestoneOptions", milestoneOptions, readId(values[i][3]));
-			TrackerChoiceOptionDto version = findOptionById("versionOptions", versionOptions, readId(values[i][4]));
-			TrackerChoiceOptionDto platform = findOptionById("platformOptions", platformOptions, readId(values[i][6]));
-			TrackerChoiceOptionDto subject = findOptionById("subjectOptions", subjectOptions, readId(values[i][7]));
-			TrackerChoiceOptionDto category = findOptionById("categoryOptions", categoryOptions, readId(values[i][9]));
-			TrackerChoiceOptionDto resolution = findOptionById("resolutionOptions", resolutionOptions, readId(values[i][22]));
-			TrackerChoiceOptionDto severity = findOptionById("severityOptions", severityOptions, readId(values[i][23]));
+			submitter.setId(readId(values[11]));
+
+			// the options are downloaded only once per tracker
+			Integer trackerId = tracker.getId();
+			TrackerChoiceOptionDto milestone = findOptionById("milestoneOptions", options.getOptions(api, token, trackerId, TrackerLayoutLabelDto.MILESTONES_LABEL_ID), readId(values[3]));
+			TrackerChoiceOptionDto version = findOptionById("versionOptions", options.getOptions(api, token, trackerId, TrackerLayoutLabelDto.VERSION_LABEL_ID), readId(values[4]));
+			TrackerChoiceOptionDto platform = findOptionById("platformOptions", options.getOptions(api, token, trackerId, TrackerLayoutLabelDto.PLATFORM_LABEL_ID), readId(values[6]));
+			TrackerChoiceOptionDto subject = findOptionById("subjectOptions", options.getOptions(api, token, trackerId, TrackerLayoutLabelDto.SUBJECT_LABEL_ID), readId(values[7]));
+			TrackerChoiceOptionDto category = findOptionById("categoryOptions", options.getOptions(api, token, trackerId, TrackerLayoutLabelDto.CATEGORY_LABEL_ID), readId(values[9]));
+			TrackerChoiceOptionDto resolution = findOptionById("resolutionOptions", options.getOptions(api, token, trackerId, TrackerLayoutLabelDto.RESOLUTION_LABEL_ID), readId(values[22]));
+			TrackerChoiceOptionDto severity = findOptionById("severityOptions", options.getOptions(api, token, trackerId, TrackerLayoutLabelDto.SEVERITY_LABEL_ID), readId(values[23]));
 
 			TrackerItemDto item = new TrackerItemDto();
 			// skip ID: that will be auto-generated by CodeBeamer
@@ -405,42 +515,43 @@ public class CodeBeamerCsvImporter {
 				item.setPlatforms(asSingleItemList(platform));
 			if(subject != null)
 				item.setSubjects(asSingleItemList(subject));
-			Integer statusId = readId(values[i][8]);
+			Integer statusId = readId(values[8]);
 			if(statusId != null) {
 				item.setStatus(new NamedDto(statusId));
 			}
 			if(category != null)
 				item.setCategories(asSingleItemList(category));
-			item.setPriority(readInteger(values[i][10]));
+			item.setPriority(readInteger(values[10]));
 			if(submitter.getId() != null)
 				item.setSubmitter(submitter);
-			item.setModifiedAt(readDate(values[i][13]));
-			item.setAssignedAt(readDate(values[i][14]));
-			item.setSubmittedAt(readDate(values[i][15]));
-			item.setClosedAt(readDate(values[i][16]));
-			item.setName(values[i][17]);
-			item.setDescription(values[i][18]);
-			item.setDescriptionFormat(values[i][19]);
-			item.setStartDate(readDate(values[i][20]));
-			item.setEndDate(readDate(values[i][21]));
+			item.setModifiedAt(readDate(values[13]));
+			item.setAssignedAt(readDate(values[14]));
+			item.setSubmittedAt(readDate(values[15]));
+			item.setClosedAt(readDate(values[16]));
+			item.setName(values[17]);
+			item.setDescription(values[18]);
+			item.setDescriptionFormat(values[19]);
+			item.setStartDate(readDate(values[20]));
+			item.setEndDate(readDate(values[21]));
 			if(resolution != null)
 				item.setResolutions(asSingleItemList(resolution));
 			if(severity != null)
 				item.setSeverities(asSingleItemList(severity));
 
-			Integer templateId = readId(values[i][24]);
+			Integer templateId = readId(values[24]);
 			if (templateId != null) {
 				item.setTemplate(new IdentifiableDto(templateId));
 			}
 			// skip deleted: FALSE as default
-			item.setEstimatedMillis(readLong(values[i][28]));
-			item.setSpentMillis(readLong(values[i][29]));
+			item.setEstimatedMillis(readLong(values[28]));
+			item.setSpentMillis(readLong(values[29]));
 
-			if(api.createTrackerItem(token, item) != null)
-				imported++;
+			return item;
 		}
 
-		return imported;
+		public TrackerItemDto create(RemoteApi api, String token, TrackerItemDto item) throws Exception {
+			return api.createTrackerItem(token, item);
+		}
 	}
 
 	// - helpers --------------------------------------------------------------
@@ -503,7 +614,7 @@ public class CodeBeamerCsvImporter {
 	 */
 	private static Date readDate(String value) {
 		try {
-			return DATE_FORMAT.parse(value);
+			return DATE_FORMAT.get().parse(value);
 		} catch (ParseException ex) {
 			return null;
 		}
@@ -517,16 +628,15 @@ public class CodeBeamerCsvImporter {
 		return list;
 	}
 
-	/** Returns the options from the given list by ID or <code>null</code> if not found. */
-	private static TrackerChoiceOptionDto findOptionById(String name, TrackerChoiceOptionDto options[], Integer id) {
+	/** Returns the options from the given map by ID or <code>null</code> if not found. */
+	private static TrackerChoiceOptionDto findOptionById(String name, Map<Integer, TrackerChoiceOptionDto> options, Integer id) {
 		if(id == null)
 			return null;
 
-		for(int i = 0; i < options.length; i++)
-			if(options[i].getId().equals(id))
-				return options[i];
+		TrackerChoiceOptionDto option = options.get(id);
+		if(option == null)
+			System.err.println("Option \"" + id + "\" not found in \"" + name + "\"");
 
-		System.err.println("Option \"" + id + "\" not found in \"" + name + "\"");
-		return null;
+		return option;
 	}
 }
@@ -12,6 +12,11 @@
 package com.intland.codebeamer.remoting.sample;
 
 import java.text.NumberFormat;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import com.intland.codebeamer.persistence.dto.ArtifactDto;
 import com.intland.codebeamer.persistence.dto.ProjectDto;
@@ -29,12 +34,19 @@ import com.intland.codebeamer.remoting.bean.ServerInfo;
  * This console application measures remote API throughput mostly
  * using various finders.<br/>
  * You can use this as skeleton to develop your own
- * profilers.
+ * profilers. For repeated measurements with warmup and statistics
+ * see {@link RemoteApiBenchmark}, for a load test see {@link LoadGenerator}.
  *
  * @author <a href="mailto:aron.gombas@intland.com">Aron Gombas</a>
  * @version $RCSfile$ $Revision$ $Date$
  */
 public class CodeBeamerRemoteProfiler {
+	/** Default number of sessions of the load test. */
+	protected static final int DEFAULT_LOAD_SESSIONS = 10;
+
+	/** Default duration of the load test in seconds. */
+	protected static final int DEFAULT_LOAD_DURATION = 60;
+
 	private static NumberFormat formatter = NumberFormat.getInstance();
 
 	/**
@@ -45,13 +57,29 @@ public class CodeBeamerRemoteProfiler {
 	public static void main(String[] args) throws Exception {
 		if(args.length < 3) {
 			System.err.println("Usage: <program> service-URL (for example http://localhost:8080/cb/remote-api)\n"
-				+ "login password");
+				+ "login password\n"
+				+ "Use -Dcb.load.rate=calls-per-second to run a load test instead, with -Dcb.load.sessions=N (default " + DEFAULT_LOAD_SESSIONS + "),\n"
+				+ "-Dcb.load.duration=seconds (default " + DEFAULT_LOAD_DURATION + ") and -Dcb.load.mix=operation:weight,... (default all finders equally).\n"
+				+ "Use -Dcb.http.transport=keep-alive to send the calls through the KeepAliveTransport.\n"
+				+ "Use -Dcb.profile.concurrency=N to also crawl the artifact trees with N calls in flight (-Dcb.profile.timeout=ms per call).\n"
+				+ "Use -Dcb.metrics=true to record the metrics of the calls per method (published through JMX and printed at the end),\n"
+				+ "with -Dcb.metrics.slowCallMillis=N to log the calls taking longer than N ms.");
 			System.exit(-1);
 		}
 		String serviceUrl = args[0];
 		String login = args[1];
 		String password = args[2];
 
+		TransportRemoteApiFactory transport = TransportRemoteApiFactory.installFromSystemProperties();
+		if(transport != null)
+			System.out.println("Using " + transport);
+
+		String rate = System.getProperty("cb.load.rate");
+		if(rate != null) {
+			runLoad(serviceUrl, login, password, Double.parseDouble(rate));
+			return;
+		}
+
 		System.out.println("Connecting to CodeBeamer web service at " + serviceUrl + "...");
 		RemoteApi api = RemoteApiFactory.getInstance().connect(serviceUrl);
 		if(api == null) {
@@ -59,6 +87,13 @@ public class CodeBeamerRemoteProfiler {
 			System.exit(-1);
 		}
 
+		RemoteApiMetrics metrics = null;
+		if(Boolean.getBoolean("cb.metrics")) {
+			metrics = new RemoteApiMetrics();
+			metrics.registerMBeans("profiler");
+			api = InstrumentedRemoteApi.wrap(api, metrics);
+		}
+
 		System.out.println("Signing in...");
 		String token = api.login(login, password);
 		ServerInfo serverInfo = api.getServerInfo();
@@ -70,9 +105,40 @@ public class CodeBeamerRemoteProfiler {
 		profileTrackers(api, token);
 		profileTrackerItems(api, token);
 
+		int concurrency = Integer.getInteger("cb.profile.concurrency", 1).intValue();
+		if(concurrency > 1) {
+			ExecutorService executor = SampleExecutor.getInstance().newGroup(token, concurrency);
+			try {
+				AsyncRemoteApi async = new AsyncRemoteApi(api, executor);
+				async.setDefaultTimeout(Long.getLong("cb.profile.timeout", 0).longValue(), TimeUnit.MILLISECONDS);
+				profileArtifactTrees(async, api, token, concurrency);
+			} finally {
+				executor.shutdown();
+			}
+		}
+
 		System.out.println("Signing out...");
 		api.logout(token);
 
+		if(metrics != null) {
+			System.out.println("Remote calls: " + metrics);
+			metrics.print(System.out);
+		}
+
+		System.out.println("Done");
+	}
+
+	/**
+	 * Runs a mix of finders from multiple sessions at the given rate and prints the latency percentiles.
+	 */
+	protected static void runLoad(String serviceUrl, String login, String password, double rate) throws Exception {
+		int sessions = Integer.getInteger("cb.load.sessions", DEFAULT_LOAD_SESSIONS).intValue();
+		int duration = Integer.getInteger("cb.load.duration", DEFAULT_LOAD_DURATION).intValue();
+		LoadGenerator generator = new LoadGenerator(serviceUrl, login, password, sessions, rate, LoadGenerator.parseMix(System.getProperty("cb.load.mix")));
+
+		System.out.println("Running " + rate + " calls/s from " + sessions + " sessions for " + duration + " s...");
+		LoadGenerator.print(generator.run(duration), duration);
+
 		System.out.println("Done");
 	}
 
@@ -80,13 +146,13 @@ public class CodeBeamerRemoteProfiler {
 	 * Profiles user account management performance.
 	 */
 	protected static void profileUsers(RemoteApi api, String token) {
-		long startTime = System.currentTimeMillis();
+		long startTime = System.nanoTime();
 		UserDto users[] = api.findAllUsers(token);
-		long endTime = System.currentTimeMillis();
+		long endTime = System.nanoTime();
 		long duration = (endTime - startTime);
 
 		if(users != null)
-			System.out.println("findAllUsers\": " + users.length + " users in " + duration + " ms, " + formatter.format(1000.0*users.length / duration) + "/s");
+			System.out.println("findAllUsers\": " + users.length + " users in " + formatMillis(duration) + " ms, " + formatRate(users.length, duration) + "/s");
 		else
 			System.out.println("User information is not available");
 	}
@@ -95,12 +161,12 @@ public class CodeBeamerRemoteProfiler {
 	 * Profiles project management performance.
 	 */
 	protected static void profileProjects(RemoteApi api, String token) {
-		long startTime = System.currentTimeMillis();
+		long startTime = System.nanoTime();
 		ProjectDto projects[] = api.findAllProjects(token);
-		long endTime = System.currentTimeMillis();
+		long endTime = System.nanoTime();
 		long duration = (endTime - startTime);
 
-		System.out.println("findAllProjects\": " + projects.length + " projects in " + duration + " ms, " + formatter.format(1000.0*projects.length / duration) + "/s");
+		System.out.println("findAllProjects\": " + projects.length + " projects in " + formatMillis(duration) + " ms, " + formatRate(projects.length, duration) + "/s");
 	}
 
 	/**
@@ -109,12 +175,12 @@ public class CodeBeamerRemoteProfiler {
 	protected static void profileArtifacts(RemoteApi api, String token) {
 		ProjectDto projects[] = api.findAllProjects(token);
 		for(int i = 0; i < projects.length; i++) {
-			long startTime = System.currentTimeMillis();
+			long startTime = System.nanoTime();
 			ArtifactDto artifacts[] = api.findTopArtifactsByProject(token, projects[i].getId());
-			long endTime = System.currentTimeMillis();
+			long endTime = System.nanoTime();
 			long duration = (endTime - startTime);
 
-			System.out.println("findTopArtifactsByProject\": " + artifacts.length + " artifacts in " + duration + " ms, " + formatter.format(1000.0*artifacts.length / duration) + "/s");
+			System.out.println("findTopArtifactsByProject\": " + artifacts.length + " artifacts in " + formatMillis(duration) + " ms, " + formatRate(artifacts.length, duration) + "/s");
 
 			for(int j = 0; j < artifacts.length; j++)
 				profileArtifact(api, token, artifacts[j]);
@@ -127,28 +193,79 @@ public class CodeBeamerRemoteProfiler {
 	protected static void profileArtifact(RemoteApi api, String token, ArtifactDto artifact) {
 		// traverse children recursively
 		if(artifact.isDirectory()) {
-			long startTime = System.currentTimeMillis();
+			long startTime = System.nanoTime();
 			ArtifactDto children[] = api.findArtifactsByParentArtifact(token, artifact.getId());
-			long endTime = System.currentTimeMillis();
+			long endTime = System.nanoTime();
 			long duration = (endTime - startTime);
 
-			System.out.println("findArtifactsByParentArtifact\": " + children.length + " artifacts in " + duration + " ms, " + formatter.format(1000.0*children.length / duration) + "/s");
+			System.out.println("findArtifactsByParentArtifact\": " + children.length + " artifacts in " + formatMillis(duration) + " ms, " + formatRate(children.length, duration) + "/s");
 
 			for(int i = 0; i < children.length; i++)
 				profileArtifact(api, token, children[i]);
 		}
 	}
 
+	/**
+	 * Profiles crawling the artifact trees of all the projects with multiple calls in flight.
+	 * Every completed call submits the calls for the child directories, no thread waits for a level.
+	 */
+	protected static void profileArtifactTrees(final AsyncRemoteApi async, RemoteApi api, final String token, int concurrency) throws Exception {
+		final AtomicInteger outstanding = new AtomicInteger();
+		final AtomicInteger calls = new AtomicInteger();
+		final AtomicInteger artifacts = new AtomicInteger();
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final CountDownLatch finished = new CountDownLatch(1);
+
+		AsyncRemoteApi.Callback<ArtifactDto[]> callback = new AsyncRemoteApi.Callback<ArtifactDto[]>() {
+			public void completed(ArtifactDto children[]) {
+				calls.incrementAndGet();
+				artifacts.addAndGet(children.length);
+				for(int i = 0; i < children.length; i++) {
+					if(children[i].isDirectory()) {
+						outstanding.incrementAndGet();
+						async.submit(async.call().findArtifactsByParentArtifact(token, children[i].getId()), this);
+					}
+				}
+				if(outstanding.decrementAndGet() == 0)
+					finished.countDown();
+			}
+
+			public void failed(Throwable cause) {
+				if(failure.compareAndSet(null, cause)) {
+					async.cancelAll();
+					finished.countDown();
+				}
+			}
+		};
+
+		long startTime = System.nanoTime();
+		ProjectDto projects[] = api.findAllProjects(token);
+		outstanding.set(projects.length + 1);
+		for(int i = 0; i < projects.length; i++)
+			async.submit(async.call().findTopArtifactsByProject(token, projects[i].getId()), callback);
+		if(outstanding.decrementAndGet() == 0)
+			finished.countDown();
+
+		finished.await();
+		long duration = System.nanoTime() - startTime;
+
+		if(failure.get() != null)
+			System.out.println("Artifact tree crawl failed: " + failure.get());
+		else
+			System.out.println("artifact trees with " + concurrency + " calls in flight: " + artifacts.get() + " artifacts in " + calls.get() + " calls, "
+				+ formatMillis(duration) + " ms, " + formatRate(artifacts.get(), duration) + "/s");
+	}
+
 	/**
 	 * Profiles tracker management performance.
 	 */
 	protected static void profileTrackers(RemoteApi api, String token) {
-		long startTime = System.currentTimeMillis();
+		long startTime = System.nanoTime();
 		TrackerDto trackers[] = api.findAllTrackers(token);
-		long endTime = System.currentTimeMillis();
+		long endTime = System.nanoTime();
 		long duration = (endTime - startTime);
 
-		System.out.println("findAllTrackers\": " + trackers.length + " trackers in " + duration + " ms, " + formatter.format(1000.0*trackers.length / duration) + "/s");
+		System.out.println("findAllTrackers\": " + trackers.length + " trackers in " + formatMillis(duration) + " ms, " + formatRate(trackers.length, duration) + "/s");
 	}
 
 	/**
@@ -157,12 +274,22 @@ public class CodeBeamerRemoteProfiler {
 	protected static void profileTrackerItems(RemoteApi api, String token) {
 		TrackerDto trackers[] = api.findAllTrackers(token);
 		for(int i = 0; i < trackers.length; i++) {
-			long startTime = System.currentTimeMillis();
+			long startTime = System.nanoTime();
 			TrackerItemDto items[] = api.findTrackerItemsByTrackerId(token, trackers[i].getId());
-			long endTime = System.currentTimeMillis();
+			long endTime = System.nanoTime();
 			long duration = (endTime - startTime);
 
-			System.out.println("findTrackerItemsByTrackerId\": " + items.length + " items in " + duration + " ms, " + formatter.format(1000.0*items.length / duration) + "/s");
+			System.out.println("findTrackerItemsByTrackerId\": " + items.length + " items in " + formatMillis(duration) + " ms, " + formatRate(items.length, duration) + "/s");
 		}
 	}
+
+	/** Returns the duration given in nanoseconds in milliseconds. */
+	protected static String formatMillis(long durationNanos) {
+		return formatter.format(durationNanos / 1e6);
+	}
+
+	/** Returns the number of items per second, or "n/a" if the duration was too short to measure. */
+	protected static String formatRate(int items, long durationNanos) {
+		return (durationNanos > 0) ? formatter.format(items * 1e9 / durationNanos) : "n/a";
+	}
 }
@@ -0,0 +1,166 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.Ostermiller.util.CSVParser;
+import com.intland.codebeamer.remoting.RemoteApi;
+
+
+/**
+ * Imports CSV rows with multiple workers, each using its own session from a {@link RemoteApiSessionPool}
+ * and running on the threads of the {@link SampleExecutor}.
+ * <p>
+ * The calling thread reads the CSV file and puts the rows into a bounded queue,
+ * the workers take the rows from the queue and create the entities at the same time.
+ * The first failure stops the import and is rethrown to the caller.
+ *
+ * @see com.intland.codebeamer.remoting.sample.CodeBeamerCsvImporter
+ *
+ * @version $Id$
+ */
+public class ConcurrentCsvImporter implements CsvImportEngine {
+	/** Marks the end of the rows for the workers. */
+	private static final String END_OF_ROWS[] = new String[0];
+
+	/** Number of rows that can be queued per worker. */
+	private static final int ROWS_PER_WORKER = 64;
+
+	private final String serviceUrl;
+	private final String login;
+	private final String password;
+	private final int sessions;
+
+	/**
+	 * @param sessions the number of worker threads (and sessions) to use.
+	 */
+	public ConcurrentCsvImporter(String serviceUrl, String login, String password, int sessions) {
+		if(sessions < 1)
+			throw new IllegalArgumentException("The number of sessions must be positive: " + sessions);
+
+		this.serviceUrl = serviceUrl;
+		this.login = login;
+		this.password = password;
+		this.sessions = sessions;
+	}
+
+	public int getSessions() {
+		return sessions;
+	}
+
+	public <T> int importRows(InputStream in, CsvRowImporter<T> importer) throws Exception {
+		BlockingQueue<String[]> queue = new ArrayBlockingQueue<String[]>(sessions * ROWS_PER_WORKER);
+		AtomicInteger imported = new AtomicInteger();
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		ThroughputMonitor monitor = new ThroughputMonitor("rows");
+		RemoteApiSessionPool pool = new RemoteApiSessionPool(serviceUrl, login, password, sessions);
+
+		// each worker has a session of its own, so only their number is limited
+		SampleExecutor.TaskGroup workers = SampleExecutor.getInstance().newGroup(null, sessions);
+		for(int i = 0; i < sessions; i++)
+			workers.execute(new Worker<T>(pool, queue, importer, imported, failure, monitor));
+
+		try {
+			CSVParser parser = new CSVParser(in, ',');
+
+			// parse by skipping the first row
+			String values[] = parser.getLine();
+			while((values = parser.getLine()) != null && failure.get() == null)
+				put(queue, values, failure);
+		} catch(IOException ex) {
+			System.err.println(ex);
+		} finally {
+			for(int i = 0; i < sessions; i++)
+				put(queue, END_OF_ROWS, failure);
+
+			workers.shutdown();
+			workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+			pool.close();
+		}
+
+		rethrow(failure.get());
+
+		return imported.get();
+	}
+
+	/** Puts the row into the queue, unless the import has already failed. */
+	private static void put(BlockingQueue<String[]> queue, String values[], AtomicReference<Throwable> failure) throws InterruptedException {
+		while(failure.get() == null) {
+			if(queue.offer(values, 100, TimeUnit.MILLISECONDS))
+				return;
+		}
+	}
+
+	private static void rethrow(Throwable failure) throws Exception {
+		if(failure instanceof Exception)
+			throw (Exception) failure;
+		if(failure instanceof Error)
+			throw (Error) failure;
+		if(failure != null)
+			throw new RuntimeException(failure);
+	}
+
+	/** Borrows a session of its own and imports the rows taken from the queue. */
+	private static class Worker<T> implements Runnable {
+		private final RemoteApiSessionPool pool;
+		private final BlockingQueue<String[]> queue;
+		private final CsvRowImporter<T> importer;
+		private final AtomicInteger imported;
+		private final AtomicReference<Throwable> failure;
+		private final ThroughputMonitor monitor;
+
+		Worker(RemoteApiSessionPool pool, BlockingQueue<String[]> queue, CsvRowImporter<T> importer, AtomicInteger imported, AtomicReference<Throwable> failure, ThroughputMonitor monitor) {
+			this.pool = pool;
+			this.queue = queue;
+			this.importer = importer;
+			this.imported = imported;
+			this.failure = failure;
+			this.monitor = monitor;
+		}
+
+		public void run() {
+			RemoteApiSessionPool.Session session = null;
+			try {
+				session = pool.borrow();
+				RemoteApi api = session.getApi();
+				String token = session.getToken();
+
+				while(failure.get() == null) {
+					String values[] = queue.poll(100, TimeUnit.MILLISECONDS);
+					if(values == null)
+						continue;
+					if(values == END_OF_ROWS)
+						break;
+
+					T entity = importer.parse(api, token, values);
+					if(entity != null && importer.create(api, token, entity) != null)
+						imported.incrementAndGet();
+
+					monitor.increment();
+				}
+			} catch(Throwable ex) {
+				failure.compareAndSet(null, ex);
+			} finally {
+				if(session != null)
+					pool.release(session);
+			}
+		}
+	}
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.io.InputStream;
+
+
+/**
+ * Strategy to send the entities read from a CSV file to CodeBeamer.
+ *
+ * @see com.intland.codebeamer.remoting.sample.CodeBeamerCsvImporter
+ *
+ * @version $Id$
+ */
+public interface CsvImportEngine {
+	/**
+	 * Imports all the rows of the given CSV file, skipping the header row.
+	 * @return the number of entities imported.
+	 */
+	<T> int importRows(InputStream in, CsvRowImporter<T> importer) throws Exception;
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import com.intland.codebeamer.remoting.RemoteApi;
+
+
+/**
+ * Converts a single CSV row to an entity and creates that entity in CodeBeamer.
+ * <p>
+ * Parsing and creating are separate steps, so that the importers can decide
+ * how the rows are read and how the remote calls are sent.
+ *
+ * @see com.intland.codebeamer.remoting.sample.CodeBeamerCsvImporter
+ *
+ * @version $Id$
+ */
+public abstract class CsvRowImporter<T> {
+	/**
+	 * Builds the entity described by the given CSV row.
+	 * @return the entity to create or <code>null</code> if the row should be skipped.
+	 */
+	public abstract T parse(RemoteApi api, String token, String values[]) throws Exception;
+
+	/**
+	 * Creates the given entity in CodeBeamer.
+	 * @return the created entity or <code>null</code> if it was not created.
+	 */
+	public abstract T create(RemoteApi api, String token, T entity) throws Exception;
+
+	/**
+	 * Called by the engines which send the create calls later than {@link #create(RemoteApi, String, Object)}
+	 * is called, for example in batches, with the result of the call.
+	 * @param created the entity returned by the server or <code>null</code> if it was not created.
+	 */
+	public void created(T entity, Object created) throws Exception {
+	}
+}
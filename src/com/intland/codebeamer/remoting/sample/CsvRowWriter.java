@@ -0,0 +1,264 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Calendar;
+import java.util.Date;
+
+
+/**
+ * Writes CSV rows field by field into a reusable character buffer.
+ * <p>
+ * The output is the same as that of <code>com.Ostermiller.util.CSVPrinter</code>, so the files
+ * can be read by the importers, but the rows are not passed as arrays of strings: numbers,
+ * dates and <code>ID;name</code> references are encoded straight into the buffer, without
+ * intermediate strings. The dates are written in the <code>yyyy.MM.dd HH:mm:ss</code> format by
+ * a calendar of the writer, which caches the formatted minute, instead of a shared
+ * <code>SimpleDateFormat</code>.
+ * <p>
+ * The instances are not thread safe, but they share no state, so multiple threads can
+ * export at the same time with a writer each. The rows are buffered until {@link #flush()}
+ * or {@link #close()} is called.
+ *
+ * @version $Id$
+ */
+public class CsvRowWriter implements ExportSink {
+	private static final char DELIMITER = ',';
+	private static final char QUOTE = '"';
+	private static final char LINE_END = '\n';
+	private static final int BUFFER_SIZE = 8192;
+
+	private final Writer out;
+	private final char buffer[] = new char[BUFFER_SIZE];
+	private int position = 0;
+	private boolean newLine = true;
+
+	/** The field being encoded, reused by all the fields which are not strings. */
+	private final StringBuilder field = new StringBuilder(64);
+
+	private final Calendar calendar = Calendar.getInstance();
+	private long cachedMinute = Long.MIN_VALUE;
+	private final char minutePrefix[] = new char[32];
+	private int minutePrefixLength = 0;
+
+	/** Writes the rows to the stream in the default character encoding, like <code>CSVPrinter</code>. */
+	public CsvRowWriter(OutputStream out) {
+		this(new OutputStreamWriter(out));
+	}
+
+	public CsvRowWriter(Writer out) {
+		this.out = out;
+	}
+
+	/** Writes the names of the columns as the first row. */
+	public void header(String names[]) throws IOException {
+		writeRow(names);
+	}
+
+	/** Writes a whole row. */
+	public void writeRow(String values[]) throws IOException {
+		for(int i = 0; i < values.length; i++)
+			field(values[i]);
+		endRow();
+	}
+
+	/** Writes a field, <code>null</code> is written as an empty field. */
+	public void field(String value) throws IOException {
+		write((value != null) ? value : "");
+	}
+
+	public void field(Integer value) throws IOException {
+		if(value == null) {
+			field((String) null);
+			return;
+		}
+		field(value.intValue());
+	}
+
+	public void field(int value) throws IOException {
+		field.setLength(0);
+		field.append(value);
+		write(field);
+	}
+
+	public void field(Long value) throws IOException {
+		field.setLength(0);
+		if(value != null)
+			field.append(value.longValue());
+		write(field);
+	}
+
+	public void field(Boolean value) throws IOException {
+		field((value != null) ? (value.booleanValue() ? "true" : "false") : null);
+	}
+
+	/** Writes the date in the <code>yyyy.MM.dd HH:mm:ss</code> format. */
+	public void field(Date value) throws IOException {
+		field.setLength(0);
+		if(value != null)
+			appendDate(value.getTime());
+		write(field);
+	}
+
+	/** Writes a reference in the <code>ID;name</code> format, or an empty field if the id is <code>null</code>. */
+	public void field(Integer id, String name) throws IOException {
+		field.setLength(0);
+		if(id != null)
+			field.append(id.intValue()).append(';').append(name);
+		write(field);
+	}
+
+	/** Ends the current row. */
+	public void endRow() throws IOException {
+		put(LINE_END);
+		newLine = true;
+	}
+
+	public void flush() throws IOException {
+		out.write(buffer, 0, position);
+		position = 0;
+		out.flush();
+	}
+
+	public void close() throws IOException {
+		try {
+			flush();
+		} finally {
+			out.close();
+		}
+	}
+
+	/** Writes the delimiter if needed and the value, quoted and escaped if needed. */
+	private void write(CharSequence value) throws IOException {
+		int length = value.length();
+		boolean quote = needsQuotes(value, length);
+		if(newLine) {
+			newLine = false;
+		} else {
+			put(DELIMITER);
+		}
+
+		if(!quote) {
+			for(int i = 0; i < length; i++)
+				put(value.charAt(i));
+			return;
+		}
+
+		put(QUOTE);
+		for(int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			switch(c) {
+			case '\n':
+				put('\\');
+				put('n');
+				break;
+			case '\r':
+				put('\\');
+				put('r');
+				break;
+			case '\\':
+			case QUOTE:
+				put('\\');
+				put(c);
+				break;
+			default:
+				put(c);
+			}
+		}
+		put(QUOTE);
+	}
+
+	/** Applies the quoting rules of <code>CSVPrinter</code>. */
+	private boolean needsQuotes(CharSequence value, int length) {
+		if(length == 0)
+			return newLine;
+
+		char first = value.charAt(0);
+		// the first field of a row must not look like a comment
+		if(newLine && !((first >= '0' && first <= '9') || (first >= 'A' && first <= 'Z') || (first >= 'a' && first <= 'z')))
+			return true;
+		if(isBlank(first) || isBlank(value.charAt(length - 1)))
+			return true;
+
+		for(int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			if(c == QUOTE || c == DELIMITER || c == '\n' || c == '\r')
+				return true;
+		}
+		return false;
+	}
+
+	private static boolean isBlank(char c) {
+		return c == ' ' || c == '\f' || c == '\t';
+	}
+
+	private void put(char c) throws IOException {
+		if(position == BUFFER_SIZE) {
+			out.write(buffer, 0, position);
+			position = 0;
+		}
+		buffer[position++] = c;
+	}
+
+	/** Appends the date to the field, formatting the date and the time only once per minute. */
+	private void appendDate(long time) {
+		long minute = time / 60000;
+		if(time % 60000 < 0)
+			minute--;
+
+		if(minute != cachedMinute) {
+			calendar.setTimeInMillis(minute * 60000);
+			if(calendar.get(Calendar.SECOND) != 0) {
+				// an offset of the time zone which is not whole minutes, format the whole date
+				cachedMinute = Long.MIN_VALUE;
+				calendar.setTimeInMillis(time);
+				appendFields(field);
+				return;
+			}
+
+			int start = field.length();
+			appendFields(field);
+			minutePrefixLength = field.length() - start - 2;
+			field.getChars(start, start + minutePrefixLength, minutePrefix, 0);
+			field.setLength(start);
+			cachedMinute = minute;
+		}
+
+		field.append(minutePrefix, 0, minutePrefixLength);
+		appendTwoDigits(field, (int) ((time - minute * 60000) / 1000));
+	}
+
+	/** Appends the fields of the calendar in the <code>yyyy.MM.dd HH:mm:ss</code> format. */
+	private void appendFields(StringBuilder to) {
+		int year = calendar.get(Calendar.YEAR);
+		for(int digits = 1000; digits > 1 && year < digits; digits /= 10)
+			to.append('0');
+		to.append(year).append('.');
+		appendTwoDigits(to, calendar.get(Calendar.MONTH) + 1);
+		to.append('.');
+		appendTwoDigits(to, calendar.get(Calendar.DAY_OF_MONTH));
+		to.append(' ');
+		appendTwoDigits(to, calendar.get(Calendar.HOUR_OF_DAY));
+		to.append(':');
+		appendTwoDigits(to, calendar.get(Calendar.MINUTE));
+		to.append(':');
+		appendTwoDigits(to, calendar.get(Calendar.SECOND));
+	}
+
+	private static void appendTwoDigits(StringBuilder to, int value) {
+		to.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+	}
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.io.IOException;
+import java.util.Date;
+
+
+/**
+ * Receives the exported rows field by field, with the type of each field.
+ * <p>
+ * The exporter writes the header first, then the fields of each row followed by {@link #endRow()}.
+ * A field of a column is always written with the same method, except that
+ * <code>field((String) null)</code> stands for a missing value in any column.
+ *
+ * @see com.intland.codebeamer.remoting.sample.CsvRowWriter
+ * @see com.intland.codebeamer.remoting.sample.ParquetExportSink
+ *
+ * @version $Id$
+ */
+public interface ExportSink {
+	/** Writes the names of the columns, before the first row. */
+	void header(String names[]) throws IOException;
+
+	/** Writes a text field, or a missing value if <code>null</code>. */
+	void field(String value) throws IOException;
+
+	/** Writes an id or a number. */
+	void field(Integer value) throws IOException;
+
+	void field(int value) throws IOException;
+
+	/** Writes a long number, typically a duration in milliseconds. */
+	void field(Long value) throws IOException;
+
+	void field(Boolean value) throws IOException;
+
+	void field(Date value) throws IOException;
+
+	/** Writes a reference to an entity by its id and name, a missing value if the id is <code>null</code>. */
+	void field(Integer id, String name) throws IOException;
+
+	/** Ends the current row. */
+	void endRow() throws IOException;
+
+	void flush() throws IOException;
+
+	void close() throws IOException;
+}
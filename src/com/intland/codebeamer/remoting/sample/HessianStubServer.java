@@ -0,0 +1,269 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.caucho.hessian.io.AbstractHessianOutput;
+import com.caucho.hessian.io.Hessian2Input;
+import com.caucho.hessian.io.Hessian2Output;
+import com.caucho.hessian.io.HessianOutput;
+import com.caucho.hessian.server.HessianSkeleton;
+import com.intland.codebeamer.persistence.dto.ArtifactDto;
+import com.intland.codebeamer.persistence.dto.ProjectDto;
+import com.intland.codebeamer.persistence.dto.TrackerDto;
+import com.intland.codebeamer.persistence.dto.TrackerItemDto;
+import com.intland.codebeamer.persistence.dto.UserDto;
+import com.intland.codebeamer.remoting.ArtifactType;
+import com.intland.codebeamer.remoting.RemoteApi;
+import com.intland.codebeamer.remoting.bean.ServerInfo;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * A Hessian server running in the same JVM, which serves synthetic data for the
+ * finders of {@link RemoteApi}, so the client side cost of the remote calls
+ * (proxy, serialization and HTTP) can be measured without a CodeBeamer server.
+ * <p>
+ * Every finder returns the configured number of DTOs, the other methods of the
+ * API fail with {@link UnsupportedOperationException}. Like a server behind a compressing
+ * proxy, it accepts gzip compressed requests and compresses the replies if the client
+ * accepts it.
+ *
+ * @see com.intland.codebeamer.remoting.sample.RemoteApiBenchmark
+ *
+ * @version $Id$
+ */
+public class HessianStubServer {
+	/** The path of the service, as on a real server. */
+	public static final String SERVICE_PATH = "/cb/remote-api";
+
+	/** The token returned by the stub for every login. */
+	public static final String TOKEN = "stub-session";
+
+	private final int payloadSize;
+	private final int descriptionLength;
+	private final HessianSkeleton skeleton;
+	private HttpServer server;
+	private ExecutorService executor;
+
+	/**
+	 * @param payloadSize the number of DTOs returned by the finders.
+	 * @param descriptionLength the length of the description of the DTOs, in characters.
+	 */
+	public HessianStubServer(int payloadSize, int descriptionLength) {
+		this.payloadSize = payloadSize;
+		this.descriptionLength = descriptionLength;
+
+		RemoteApi service = (RemoteApi) Proxy.newProxyInstance(RemoteApi.class.getClassLoader(), new Class<?>[] { RemoteApi.class }, new SyntheticData());
+		this.skeleton = new HessianSkeleton(service, RemoteApi.class);
+	}
+
+	/**
+	 * Starts listening on a free port of the loopback interface.
+	 * @return the service URL to connect to.
+	 */
+	public synchronized String start() throws IOException {
+		// without this the replies are delayed until the client acknowledges the headers
+		if(System.getProperty("sun.net.httpserver.nodelay") == null)
+			System.setProperty("sun.net.httpserver.nodelay", "true");
+
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext(SERVICE_PATH, new HessianHandler());
+		executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.start();
+
+		return "http://127.0.0.1:" + server.getAddress().getPort() + SERVICE_PATH;
+	}
+
+	public synchronized void stop() {
+		if(server != null) {
+			server.stop(0);
+			executor.shutdownNow();
+			server = null;
+		}
+	}
+
+	public int getPayloadSize() {
+		return payloadSize;
+	}
+
+	/** Reads the Hessian call from the request and writes the reply, like <code>HessianServlet</code>. */
+	private class HessianHandler implements HttpHandler {
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				InputStream is = exchange.getRequestBody();
+				if("gzip".equalsIgnoreCase(exchange.getRequestHeaders().getFirst("Content-Encoding")))
+					is = new GZIPInputStream(is);
+				ByteArrayOutputStream os = new ByteArrayOutputStream();
+
+				Hessian2Input in = new Hessian2Input(is);
+				int code = in.read();
+				if(code != 'c')
+					throw new IOException("expected 'c' in hessian input at " + code);
+
+				int major = in.read();
+				in.read(); // minor
+				AbstractHessianOutput out = (major >= 2) ? new Hessian2Output(os) : new HessianOutput(os);
+
+				skeleton.invoke(in, out);
+
+				String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+				if(acceptEncoding != null && acceptEncoding.contains("gzip")) {
+					ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+					GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+					os.writeTo(gzip);
+					gzip.close();
+					os = compressed;
+					exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+				}
+
+				// the reply is buffered to send it with its length instead of in chunks
+				exchange.getResponseHeaders().set("Content-Type", "application/x-hessian");
+				exchange.sendResponseHeaders(200, os.size());
+				os.writeTo(exchange.getResponseBody());
+			} catch(IOException ex) {
+				throw ex;
+			} catch(Exception ex) {
+				IOException ioe = new IOException(ex.toString());
+				ioe.initCause(ex);
+				throw ioe;
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+
+	/** Implements the finders with synthetic data. */
+	private class SyntheticData implements InvocationHandler {
+		private final String description;
+		private final Date date = new Date();
+
+		SyntheticData() {
+			StringBuilder builder = new StringBuilder(descriptionLength);
+			while(builder.length() < descriptionLength)
+				builder.append("Synthetic description of a CodeBeamer entity. ");
+			builder.setLength(descriptionLength);
+			description = builder.toString();
+		}
+
+		public Object invoke(Object proxy, Method method, Object args[]) {
+			String name = method.getName();
+			if(name.equals("login"))
+				return TOKEN;
+			if(name.equals("logout"))
+				return null;
+			if(name.equals("getServerInfo"))
+				return new ServerInfo("7.4", ".0", date.toString(), System.getProperty("os.name"), System.getProperty("java.version"));
+			if(name.equals("getSessionUser"))
+				return createUsers(1)[0];
+			if(name.equals("findAllUsers"))
+				return createUsers(payloadSize);
+			if(name.equals("findAllProjects"))
+				return createProjects();
+			if(name.equals("findTopArtifactsByProject") || name.equals("findArtifactsByParentArtifact"))
+				return createArtifacts();
+			if(name.equals("findAllTrackers"))
+				return createTrackers();
+			if(name.equals("findTrackerItemsByTrackerId"))
+				return createTrackerItems();
+
+			throw new UnsupportedOperationException(name + " is not implemented by the stub server");
+		}
+
+		private UserDto[] createUsers(int count) {
+			UserDto users[] = new UserDto[count];
+			for(int i = 0; i < users.length; i++) {
+				users[i] = new UserDto();
+				users[i].setId(Integer.valueOf(i + 1));
+				users[i].setName("user" + i);
+				users[i].setFirstName("First" + i);
+				users[i].setLastName("Last" + i);
+				users[i].setEmail("user" + i + "@example.com");
+				users[i].setCompany("Example Ltd.");
+				users[i].setSkills(description);
+				users[i].setRegistryDate(date);
+			}
+			return users;
+		}
+
+		private ProjectDto[] createProjects() {
+			ProjectDto projects[] = new ProjectDto[payloadSize];
+			for(int i = 0; i < projects.length; i++) {
+				projects[i] = new ProjectDto();
+				projects[i].setId(Integer.valueOf(i + 1));
+				projects[i].setName("Project " + i);
+				projects[i].setKeyName("P" + i);
+				projects[i].setDescription(description);
+				projects[i].setCreatedAt(date);
+				projects[i].setLastModifiedAt(date);
+			}
+			return projects;
+		}
+
+		private ArtifactDto[] createArtifacts() {
+			ArtifactDto artifacts[] = new ArtifactDto[payloadSize];
+			for(int i = 0; i < artifacts.length; i++) {
+				artifacts[i] = new ArtifactDto();
+				artifacts[i].setId(Integer.valueOf(i + 1));
+				artifacts[i].setName("Document " + i + ".txt");
+				artifacts[i].setTypeId(Integer.valueOf(ArtifactType.FILE));
+				artifacts[i].setDescription(description);
+				artifacts[i].setMimeType("text/plain");
+				artifacts[i].setFileSize(Long.valueOf(1024L * i));
+				artifacts[i].setVersion(Integer.valueOf(1));
+			}
+			return artifacts;
+		}
+
+		private TrackerDto[] createTrackers() {
+			TrackerDto trackers[] = new TrackerDto[payloadSize];
+			for(int i = 0; i < trackers.length; i++) {
+				trackers[i] = new TrackerDto();
+				trackers[i].setId(Integer.valueOf(i + 1));
+				trackers[i].setName("Tracker " + i);
+				trackers[i].setKeyName("T" + i);
+				trackers[i].setDescription(description);
+			}
+			return trackers;
+		}
+
+		private TrackerItemDto[] createTrackerItems() {
+			TrackerItemDto items[] = new TrackerItemDto[payloadSize];
+			for(int i = 0; i < items.length; i++) {
+				items[i] = new TrackerItemDto();
+				items[i].setId(Integer.valueOf(i + 1));
+				items[i].setName("Tracker item " + i);
+				items[i].setDescription(description);
+				items[i].setPriority(Integer.valueOf(i % 5));
+				items[i].setSubmittedAt(date);
+				items[i].setModifiedAt(date);
+				items[i].setVersion(Integer.valueOf(1));
+			}
+			return items;
+		}
+	}
+}
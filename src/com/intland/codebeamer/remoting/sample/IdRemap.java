@@ -0,0 +1,104 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.util.Arrays;
+
+
+/**
+ * Maps the ids of the source server to the ids of the entities created on the target server.
+ * <p>
+ * The ids are kept in primitive arrays with open addressing, instead of a map of
+ * <code>Integer</code> objects, so a million mappings take about 16 MB and a lookup
+ * does not allocate. The instances are thread safe.
+ *
+ * @version $Id$
+ */
+public class IdRemap {
+	/** Returned by {@link #get(int)} for the ids not mapped. */
+	public static final int NONE = Integer.MIN_VALUE;
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private int keys[];
+	private int values[];
+	private int size = 0;
+
+	public IdRemap() {
+		keys = new int[INITIAL_CAPACITY];
+		values = new int[INITIAL_CAPACITY];
+		Arrays.fill(keys, NONE);
+	}
+
+	/** Returns the id mapped to the given one, or {@link #NONE}. */
+	public synchronized int get(int id) {
+		int slot = find(keys, id);
+		return (keys[slot] == id) ? values[slot] : NONE;
+	}
+
+	public synchronized boolean contains(int id) {
+		return keys[find(keys, id)] == id;
+	}
+
+	/** Maps the given id to the other one, replacing the earlier mapping if any. */
+	public synchronized void put(int id, int mappedId) {
+		if(id == NONE || mappedId == NONE)
+			throw new IllegalArgumentException("Invalid id: " + id + " -> " + mappedId);
+
+		int slot = find(keys, id);
+		if(keys[slot] != id) {
+			// keep the table at most half full
+			if(2 * (size + 1) > keys.length) {
+				grow();
+				slot = find(keys, id);
+			}
+			keys[slot] = id;
+			size++;
+		}
+		values[slot] = mappedId;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	/** Returns the slot of the id, or the free slot where it should be put. */
+	private static int find(int keys[], int id) {
+		int mask = keys.length - 1;
+		// spread the sequential ids over the table
+		int hash = id * 0x9E3779B9;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		while(keys[slot] != id && keys[slot] != NONE)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	private void grow() {
+		int oldKeys[] = keys;
+		int oldValues[] = values;
+		keys = new int[oldKeys.length * 2];
+		values = new int[oldValues.length * 2];
+		Arrays.fill(keys, NONE);
+
+		for(int i = 0; i < oldKeys.length; i++) {
+			if(oldKeys[i] != NONE) {
+				int slot = find(keys, oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	public synchronized String toString() {
+		return size + " ids mapped";
+	}
+}
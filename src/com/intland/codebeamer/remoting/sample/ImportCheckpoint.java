@@ -0,0 +1,220 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+
+/**
+ * An append-only log of the rows already imported, mapping the key of each source row
+ * to the id of the entity created from it.
+ * <p>
+ * Every created entity appends a <code>key&lt;TAB&gt;id</code> line to the log file. The log is
+ * forced to the disk in batches, after every {@value #DEFAULT_SYNC_EVERY} records or
+ * {@value #DEFAULT_SYNC_INTERVAL_MILLIS} milliseconds by default, so a crash loses at most the
+ * records since the last sync: these rows are created again when the import is restarted.
+ * <p>
+ * Opening an existing log reads the records back, and drops an incomplete last line written by
+ * an interrupted run. The instances are thread safe.
+ *
+ * @see com.intland.codebeamer.remoting.sample.CheckpointedRowImporter
+ *
+ * @version $Id$
+ */
+public class ImportCheckpoint {
+	/** Default number of records after which the log is forced to the disk. */
+	public static final int DEFAULT_SYNC_EVERY = 100;
+
+	/** Default time after which the pending records are forced to the disk. */
+	public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 1000;
+
+	private static final String ENCODING = "UTF-8";
+
+	private final File file;
+	private final int syncEvery;
+	private final long syncIntervalMillis;
+	private final Map<String, Integer> created = new HashMap<String, Integer>();
+	private final int restored;
+	private final FileOutputStream fileOut;
+	private final OutputStream out;
+	private int unsynced = 0;
+	private long lastSync = System.currentTimeMillis();
+	private long syncs = 0;
+	private boolean closed = false;
+
+	public ImportCheckpoint(File file) throws IOException {
+		this(file, DEFAULT_SYNC_EVERY, DEFAULT_SYNC_INTERVAL_MILLIS);
+	}
+
+	/**
+	 * Opens the log, creating it if it does not exist yet.
+	 * @param syncEvery the number of records after which the log is forced to the disk.
+	 * @param syncIntervalMillis the time after which the pending records are forced to the disk.
+	 */
+	public ImportCheckpoint(File file, int syncEvery, long syncIntervalMillis) throws IOException {
+		if(syncEvery < 1)
+			throw new IllegalArgumentException("The sync batch size must be positive: " + syncEvery);
+
+		this.file = file;
+		this.syncEvery = syncEvery;
+		this.syncIntervalMillis = syncIntervalMillis;
+
+		if(file.exists())
+			read();
+		this.restored = created.size();
+
+		this.fileOut = new FileOutputStream(file, true);
+		this.out = new BufferedOutputStream(fileOut, 8192);
+	}
+
+	/** Returns the key of a CSV row: its first column, or the checksum of the row if that is empty. */
+	public static String getKey(String values[]) {
+		if(values.length > 0 && values[0] != null && values[0].trim().length() > 0)
+			return values[0].trim();
+
+		CRC32 crc = new CRC32();
+		for(int i = 0; i < values.length; i++) {
+			if(values[i] != null)
+				crc.update(values[i].getBytes());
+			crc.update(0);
+		}
+		return "crc:" + Long.toHexString(crc.getValue());
+	}
+
+	/** Reads the records of an earlier run, truncating the incomplete last line if any. */
+	private void read() throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			ByteArrayOutputStream line = new ByteArrayOutputStream();
+			byte buffer[] = new byte[8192];
+			long complete = 0;
+			long position = 0;
+			int length;
+			while((length = raf.read(buffer)) != -1) {
+				for(int i = 0; i < length; i++) {
+					position++;
+					if(buffer[i] != '\n') {
+						line.write(buffer[i]);
+						continue;
+					}
+
+					parse(new String(line.toByteArray(), ENCODING));
+					line.reset();
+					complete = position;
+				}
+			}
+
+			if(complete < raf.length()) {
+				System.err.println("Dropping the incomplete last record of " + file);
+				raf.setLength(complete);
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	private void parse(String line) {
+		int separator = line.lastIndexOf('\t');
+		if(separator == -1)
+			return;
+
+		try {
+			created.put(line.substring(0, separator), Integer.valueOf(line.substring(separator + 1)));
+		} catch(NumberFormatException ex) {
+			System.err.println("Ignoring the invalid record \"" + line + "\" in " + file);
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/** Returns whether the row with the given key has been imported. */
+	public synchronized boolean isCreated(String key) {
+		return created.containsKey(key);
+	}
+
+	/** Returns the id of the entity created from the row with the given key, or <code>null</code>. */
+	public synchronized Integer getCreatedId(String key) {
+		return created.get(key);
+	}
+
+	/** Returns the mapping of the row keys to the ids of the created entities. */
+	public synchronized Map<String, Integer> getCreatedIds() {
+		return Collections.unmodifiableMap(new HashMap<String, Integer>(created));
+	}
+
+	/** Returns the number of records read back from an earlier run. */
+	public int getRestored() {
+		return restored;
+	}
+
+	/** Returns the number of records in the log. */
+	public synchronized int size() {
+		return created.size();
+	}
+
+	/**
+	 * Appends a record, and forces the log to the disk if the batch is full or the sync interval elapsed.
+	 * @param key identifies the source row, tabs and line breaks are replaced by spaces.
+	 * @param id the id of the entity created from the row.
+	 */
+	public synchronized void record(String key, Integer id) throws IOException {
+		if(closed)
+			throw new IllegalStateException("The checkpoint is closed");
+
+		key = key.replace('\t', ' ').replace('\r', ' ').replace('\n', ' ');
+		out.write((key + '\t' + id + '\n').getBytes(ENCODING));
+		created.put(key, id);
+
+		if(++unsynced >= syncEvery || System.currentTimeMillis() - lastSync >= syncIntervalMillis)
+			sync();
+	}
+
+	/** Forces the pending records to the disk. */
+	public synchronized void sync() throws IOException {
+		out.flush();
+		if(unsynced > 0) {
+			fileOut.getFD().sync();
+			syncs++;
+		}
+		unsynced = 0;
+		lastSync = System.currentTimeMillis();
+	}
+
+	/** Forces the pending records to the disk and closes the log. */
+	public synchronized void close() throws IOException {
+		if(closed)
+			return;
+
+		try {
+			sync();
+		} finally {
+			closed = true;
+			out.close();
+		}
+	}
+
+	public synchronized String toString() {
+		return file + ": " + created.size() + " rows (" + restored + " restored), " + syncs + " syncs";
+	}
+}
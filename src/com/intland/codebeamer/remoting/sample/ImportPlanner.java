@@ -0,0 +1,432 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.Ostermiller.util.CSVParser;
+import com.intland.codebeamer.persistence.dto.base.IdentifiableDto;
+import com.intland.codebeamer.remoting.RemoteApi;
+
+
+/**
+ * Imports the CSV files of multiple entity types at the same time, rewriting the references
+ * between the entities from the ids of the exporting server to the ids of the created entities.
+ * <p>
+ * Every entity type is a {@link Step}, with the columns of its rows that refer to the rows of
+ * other steps (or of itself, like the parent of an artifact). The references make a graph,
+ * typically users &rarr; projects &rarr; trackers and artifact folders &rarr; tracker items.
+ * A row is created as soon as all the rows it refers to have been created, not when the
+ * previous entity types have been imported completely, so independent subtrees are imported
+ * in parallel and a row only waits for its own dependencies. Before a row is parsed, its
+ * references are rewritten to the new ids through the {@link IdRemap} of the referred step.
+ * <p>
+ * References to rows not in the imported files keep their original id. A row whose dependency
+ * failed is skipped, and so are the rows depending on it. The rows of all the files are kept in
+ * memory until they are imported.
+ * <p>
+ * If a checkpoint directory is set, the created rows are recorded in an {@link ImportCheckpoint}
+ * per file, and a restarted import skips them and restores their new ids.
+ *
+ * @see com.intland.codebeamer.remoting.sample.CodeBeamerCsvImporter
+ *
+ * @version $Id$
+ */
+public class ImportPlanner {
+	private final RemoteApiSessionPool pool;
+	private final int sessions;
+	private final List<Step> steps = new ArrayList<Step>();
+	private File checkpointDir;
+
+	private SampleExecutor.TaskGroup group;
+	private ThroughputMonitor monitor;
+	private int remaining = 0;
+	private int active = 0;
+
+	/** The rows of an entity type. */
+	public static class Step {
+		private final String name;
+		private final String csvPath;
+		private final CsvRowImporter<?> importer;
+		private final List<Reference> references = new ArrayList<Reference>();
+		private final IdRemap ids = new IdRemap();
+		private final IdRemap rowIndexes = new IdRemap();
+		private final List<Row> rows = new ArrayList<Row>();
+		private ImportCheckpoint checkpoint;
+
+		private final AtomicInteger imported = new AtomicInteger();
+		private final AtomicInteger failed = new AtomicInteger();
+		private final AtomicInteger skipped = new AtomicInteger();
+		private int restored = 0;
+		private int unmapped = 0;
+
+		Step(String name, String csvPath, CsvRowImporter<?> importer) {
+			this.name = name;
+			this.csvPath = csvPath;
+			this.importer = importer;
+		}
+
+		/**
+		 * Declares that the given column of the rows holds the id of a row of the target step,
+		 * either alone or in the <code>ID;name</code> format.
+		 * @return this step.
+		 */
+		public Step references(int column, Step target) {
+			references.add(new Reference(column, target));
+			return this;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/** Returns the mapping of the exported ids of the rows to the ids of the created entities. */
+		public IdRemap getIds() {
+			return ids;
+		}
+
+		public int getImported() {
+			return imported.get();
+		}
+
+		public int getFailed() {
+			return failed.get();
+		}
+
+		/** Returns the number of rows not imported because a row they depend on failed. */
+		public int getSkipped() {
+			return skipped.get();
+		}
+
+		public String toString() {
+			return name + ": " + imported + " imported, " + failed + " failed, " + skipped + " skipped"
+				+ (restored > 0 ? ", " + restored + " restored" : "") + (unmapped > 0 ? ", " + unmapped + " references kept" : "");
+		}
+	}
+
+	/** A column referring to the rows of a step. */
+	private static class Reference {
+		private final int column;
+		private final Step target;
+
+		Reference(int column, Step target) {
+			this.column = column;
+			this.target = target;
+		}
+	}
+
+	/** A row waiting to be imported. */
+	private static class Row {
+		private final Step step;
+		private final String values[];
+		private final int sourceId;
+		private int unresolved = 0;
+		private List<Row> dependents;
+		private boolean done = false;
+
+		Row(Step step, String values[], int sourceId) {
+			this.step = step;
+			this.values = values;
+			this.sourceId = sourceId;
+		}
+	}
+
+	/**
+	 * @param sessions the number of rows imported at the same time, each with its own session.
+	 */
+	public ImportPlanner(String serviceUrl, String login, String password, int sessions) throws IOException {
+		if(sessions < 1)
+			throw new IllegalArgumentException("The number of sessions must be positive: " + sessions);
+
+		this.pool = new RemoteApiSessionPool(serviceUrl, login, password, sessions);
+		this.sessions = sessions;
+	}
+
+	/** Records the created rows in this directory, and skips the rows recorded by earlier runs. */
+	public void setCheckpointDir(File checkpointDir) {
+		this.checkpointDir = checkpointDir;
+	}
+
+	/**
+	 * Adds an entity type to import. The first column of the rows must be their exported id,
+	 * which the references of the other rows are resolved by. The rows are parsed and created
+	 * by several threads at the same time, so the importer must be thread safe.
+	 */
+	public Step addStep(String name, String csvPath, CsvRowImporter<?> importer) {
+		Step step = new Step(name, csvPath, importer);
+		steps.add(step);
+		return step;
+	}
+
+	public List<Step> getSteps() {
+		return steps;
+	}
+
+	/** Imports the rows of all the steps, and returns when all of them are imported or skipped. */
+	public void execute() throws Exception {
+		monitor = new ThroughputMonitor("rows");
+		group = SampleExecutor.getInstance().newGroup(null, sessions);
+		try {
+			for(Step step : steps)
+				load(step);
+
+			List<Row> ready = new ArrayList<Row>();
+			for(Step step : steps) {
+				for(Row row : step.rows) {
+					if(!row.done && link(row) == 0)
+						ready.add(row);
+				}
+			}
+
+			synchronized(this) {
+				submit(ready);
+				while(remaining > 0 && active > 0)
+					wait();
+
+				// the rows left can only be waiting for each other
+				for(Step step : steps) {
+					for(Row row : step.rows) {
+						if(!row.done) {
+							System.err.println("Couldn't import " + step.name + " row " + row.sourceId + ": circular reference");
+							skip(row);
+						}
+					}
+				}
+			}
+
+			group.shutdown();
+			group.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} finally {
+			pool.close();
+			for(Step step : steps) {
+				if(step.checkpoint != null)
+					step.checkpoint.close();
+			}
+		}
+	}
+
+	/** Reads the rows of the step, and restores the ones created by an earlier run. */
+	private void load(Step step) throws IOException {
+		if(checkpointDir != null)
+			step.checkpoint = new ImportCheckpoint(new File(checkpointDir, new File(step.csvPath).getName() + ".checkpoint"));
+
+		InputStream in = new FileInputStream(step.csvPath);
+		try {
+			CSVParser parser = new CSVParser(in, ',');
+
+			// parse by skipping the first row
+			String values[] = parser.getLine();
+			while((values = parser.getLine()) != null) {
+				Integer sourceId = readId(values, 0);
+				Row row = new Row(step, values, (sourceId != null) ? sourceId.intValue() : IdRemap.NONE);
+
+				Integer createdId = (step.checkpoint != null) ? step.checkpoint.getCreatedId(ImportCheckpoint.getKey(values)) : null;
+				if(createdId != null) {
+					row.done = true;
+					step.restored++;
+					if(sourceId != null)
+						step.ids.put(sourceId.intValue(), createdId.intValue());
+				} else {
+					remaining++;
+				}
+
+				if(sourceId != null)
+					step.rowIndexes.put(sourceId.intValue(), step.rows.size());
+				step.rows.add(row);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Registers the row as a dependent of the rows it refers to which are not created yet.
+	 * @return the number of rows the row has to wait for.
+	 */
+	private int link(Row row) {
+		for(Reference reference : row.step.references) {
+			Integer id = readId(row.values, reference.column);
+			if(id == null || reference.target.ids.contains(id.intValue()))
+				continue;
+
+			int index = reference.target.rowIndexes.get(id.intValue());
+			Row target = (index != IdRemap.NONE) ? reference.target.rows.get(index) : null;
+			if(target == null || target == row) {
+				row.step.unmapped++;
+				continue;
+			}
+
+			// the target is not done, otherwise it would be mapped
+			if(target.dependents == null)
+				target.dependents = new ArrayList<Row>();
+			target.dependents.add(row);
+			row.unresolved++;
+		}
+		return row.unresolved;
+	}
+
+	/** Submits the rows whose dependencies are all created, must hold the lock. */
+	private void submit(List<Row> rows) {
+		for(final Row row : rows) {
+			active++;
+			group.execute(new Runnable() {
+				public void run() {
+					boolean created = false;
+					try {
+						created = importRow(row);
+					} finally {
+						completed(row, created);
+					}
+				}
+			});
+		}
+	}
+
+	/**
+	 * Rewrites the references of the row to the new ids and creates the entity.
+	 * @return whether the new id of the row was recorded.
+	 */
+	private boolean importRow(Row row) {
+		Step step = row.step;
+		String values[] = remap(row);
+		try {
+			RemoteApiSessionPool.Session session = pool.borrow();
+			try {
+				RemoteApi api = session.getApi();
+				String token = session.getToken();
+
+				Object created = create(step.importer, api, token, values);
+				if(created == null) {
+					step.failed.incrementAndGet();
+					return false;
+				}
+
+				step.imported.incrementAndGet();
+				Integer createdId = (created instanceof IdentifiableDto) ? ((IdentifiableDto) created).getId() : null;
+				if(createdId == null)
+					return false;
+
+				if(row.sourceId != IdRemap.NONE)
+					step.ids.put(row.sourceId, createdId.intValue());
+				if(step.checkpoint != null)
+					step.checkpoint.record(ImportCheckpoint.getKey(row.values), createdId);
+				return true;
+			} finally {
+				pool.release(session);
+				monitor.increment();
+			}
+		} catch(Exception ex) {
+			System.err.println("Couldn't import " + step.name + " row " + row.sourceId + ": " + ex);
+			step.failed.incrementAndGet();
+			return false;
+		}
+	}
+
+	/** Returns a copy of the values of the row with the references rewritten to the new ids. */
+	private String[] remap(Row row) {
+		String values[] = row.values.clone();
+		for(Reference reference : row.step.references) {
+			Integer id = readId(values, reference.column);
+			if(id == null)
+				continue;
+
+			int mapped = reference.target.ids.get(id.intValue());
+			if(mapped == IdRemap.NONE)
+				continue;
+
+			String value = values[reference.column];
+			int separator = value.indexOf(';');
+			values[reference.column] = (separator == -1) ? String.valueOf(mapped) : mapped + value.substring(separator);
+		}
+		return values;
+	}
+
+	/** Releases the rows depending on the completed one, or skips them if it failed. */
+	private synchronized void completed(Row row, boolean created) {
+		row.done = true;
+		remaining--;
+		active--;
+
+		if(row.dependents != null) {
+			List<Row> ready = new ArrayList<Row>();
+			for(Row dependent : row.dependents) {
+				if(!created) {
+					skip(dependent);
+				} else if(--dependent.unresolved == 0) {
+					ready.add(dependent);
+				}
+			}
+			row.dependents = null;
+			submit(ready);
+		}
+
+		if(remaining == 0 || active == 0)
+			notifyAll();
+	}
+
+	/** Skips the row and the rows depending on it, must hold the lock. */
+	private void skip(Row row) {
+		if(row.done)
+			return;
+
+		row.done = true;
+		remaining--;
+		row.step.skipped.incrementAndGet();
+		if(row.dependents != null) {
+			for(Row dependent : row.dependents)
+				skip(dependent);
+			row.dependents = null;
+		}
+	}
+
+	/** Parses the row and creates its entity, returns <code>null</code> if the row is skipped or not created. */
+	private static <T> Object create(CsvRowImporter<T> importer, RemoteApi api, String token, String values[]) throws Exception {
+		T entity = importer.parse(api, token, values);
+		return (entity != null) ? importer.create(api, token, entity) : null;
+	}
+
+	/** Returns the id in the given column, which is either an id or has the <code>ID;name</code> format. */
+	private static Integer readId(String values[], int column) {
+		if(column >= values.length || values[column] == null)
+			return null;
+
+		String value = values[column].trim();
+		int separator = value.indexOf(';');
+		try {
+			return Integer.valueOf((separator == -1) ? value : value.substring(0, separator));
+		} catch(NumberFormatException ex) {
+			return null;
+		}
+	}
+
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		for(Step step : steps) {
+			result.append(step.name);
+			if(!step.references.isEmpty()) {
+				result.append(" (refers to");
+				for(Reference reference : step.references)
+					result.append(' ').append(reference.target.name).append(" by column ").append(reference.column);
+				result.append(')');
+			}
+			result.append('\n');
+		}
+		return result.toString();
+	}
+}
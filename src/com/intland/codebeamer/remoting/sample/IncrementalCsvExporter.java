@@ -0,0 +1,571 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+import com.intland.codebeamer.persistence.dto.ArtifactDto;
+import com.intland.codebeamer.persistence.dto.ProjectDto;
+import com.intland.codebeamer.persistence.dto.TrackerDto;
+import com.intland.codebeamer.persistence.dto.TrackerItemDto;
+import com.intland.codebeamer.persistence.dto.TrackerStatsDto;
+import com.intland.codebeamer.persistence.dto.UserDto;
+import com.intland.codebeamer.remoting.RemoteApi;
+import com.intland.codebeamer.remoting.RemoteApiFactory;
+import com.intland.codebeamer.remoting.bean.ServerInfo;
+
+
+/**
+ * This program is part of the CodeBeamer SDK.
+ * <p>
+ * This console application illustrates:
+ * <ul>
+ *   <li>connecting to CodeBeamer</li>
+ *   <li>signing in as a CodeBeamer user</li>
+ *   <li>exporting only the data modified since the previous run to CSV files</li>
+ * </ul>
+ * The time of the last successful run is kept in a small state file. For every
+ * entity type an upsert file (in the format written by {@link CodeBeamerCsvExporter})
+ * and a file with the IDs of the deleted entities are written to the output directory.
+ * The first run, without a state file, exports everything.
+ * <p>
+ * The entities deleted permanently are not returned by the server any more, so the state file
+ * also keeps the IDs of the exported entities, and the IDs missing from the next run are written
+ * to the delete files too (as are the entities the user cannot see any more). The tracker items
+ * of a tracker are listed again completely only when their number on the server does not match
+ * the IDs kept for the tracker.
+ * <p>
+ * Only the tracker items are filtered by the server; the other entities are still
+ * downloaded but only the modified ones are written. Users have no modification date,
+ * so only the users registered since the previous run are exported.
+ *
+ * @see com.intland.codebeamer.remoting.sample.CodeBeamerCsvExporter
+ *
+ * @version $Id$
+ */
+public class IncrementalCsvExporter {
+	/** The name of the property in the state file holding the time of the last run. */
+	protected static final String LAST_EXPORT_PROPERTY = "lastExport";
+
+	/** The prefix of the properties in the state file holding the IDs of the exported entities. */
+	protected static final String IDS_PROPERTY_PREFIX = "ids.";
+
+	/** Safety margin subtracted from the start of the run, to tolerate clock differences between the client and the server. */
+	protected static final long CLOCK_SKEW_MILLIS = 5 * 60 * 1000L;
+
+	/** Default number of tracker items requested per page. */
+	protected static final int DEFAULT_PAGE_SIZE = 500;
+
+	/**
+	 * Main entry point.
+	 * Commandline parsing is not elaborated, for real use
+	 * please consider using the Apache Commons CLI package.
+	 */
+	public static void main(String[] args) throws Exception {
+		if(args.length != 5) {
+			System.err.println("Usage: <program> service-URL (for example http://localhost:8080/cb/remote-api)\n"
+				+ "login password state-file-path output-dir\n"
+				+ "Use -Dcb.export.threads=N to list the artifact directories with N parallel requests,\n"
+				+ "and -Dcb.export.pageSize=N to download the tracker items in pages of N items (default " + DEFAULT_PAGE_SIZE + ", at most " + TrackerItemPager.MAX_PAGE_SIZE + ").");
+			System.exit(-1);
+		}
+		String serviceUrl = args[0];
+		String login = args[1];
+		String password = args[2];
+		File stateFile = new File(args[3]);
+		File outputDir = new File(args[4]);
+		int threads = Integer.getInteger("cb.export.threads", 1).intValue();
+		int pageSize = Integer.getInteger("cb.export.pageSize", DEFAULT_PAGE_SIZE).intValue();
+
+		if(!outputDir.isDirectory() && !outputDir.mkdirs()) {
+			System.err.println("Couldn't create output directory " + outputDir);
+			System.exit(-1);
+		}
+
+		Properties state = readState(stateFile);
+		Properties nextState = new Properties();
+		Date since = getLastExport(state);
+		Date runStart = new Date(System.currentTimeMillis() - CLOCK_SKEW_MILLIS);
+
+		System.out.println("Connecting to CodeBeamer web service at " + serviceUrl + "...");
+		RemoteApi api = RemoteApiFactory.getInstance().connect(serviceUrl);
+		if(api == null) {
+			System.err.println("Couldn't connect, is the service URL correct?");
+			System.exit(-1);
+		}
+
+		// the projects and the trackers are listed by more than one export
+		CachingRemoteApi cache = new CachingRemoteApi(api);
+		api = cache.getProxy();
+
+		System.out.println("Signing in...");
+		String token = api.login(login, password);
+		ServerInfo serverInfo = api.getServerInfo();
+		System.out.println("Signed in to CodeBeamer " + serverInfo.getMajorVersion() + serverInfo.getMinorVersion() + " (" + serverInfo.getBuildDate() + ") running on " + serverInfo.getOs() + "/Java " + serverInfo.getJavaVersion());
+
+		System.out.println((since != null) ? "Exporting changes since " + since : "No previous export found, exporting everything");
+
+		System.out.print("Exporting users...");
+		DeltaFiles users = new DeltaFiles(outputDir, "users", CodeBeamerCsvExporter.UserHeader, getIds(state, "users"));
+		System.out.println(" " + exportUsers(api, token, since, users));
+		setIds(nextState, "users", users.getExistingIds());
+
+		System.out.print("Exporting projects...");
+		DeltaFiles projects = new DeltaFiles(outputDir, "projects", CodeBeamerCsvExporter.ProjectHeader, getIds(state, "projects"));
+		System.out.println(" " + exportProjects(api, token, since, projects));
+		setIds(nextState, "projects", projects.getExistingIds());
+
+		System.out.print("Exporting artifacts...");
+		DeltaFiles artifacts = new DeltaFiles(outputDir, "artifacts", CodeBeamerCsvExporter.ArtifactHeader, getIds(state, "artifacts"));
+		System.out.println(" " + exportArtifacts(api, token, since, artifacts, threads));
+		setIds(nextState, "artifacts", artifacts.getExistingIds());
+
+		System.out.print("Exporting trackers...");
+		DeltaFiles trackers = new DeltaFiles(outputDir, "trackers", CodeBeamerCsvExporter.TrackerPropertiesHeader, getIds(state, "trackers"));
+		System.out.println(" " + exportTrackers(api, token, since, trackers));
+		setIds(nextState, "trackers", trackers.getExistingIds());
+
+		System.out.print("Exporting tracker items...");
+		DeltaFiles trackerItems = new DeltaFiles(outputDir, "trackeritems", CodeBeamerCsvExporter.TrackerHeader, null);
+		System.out.println(" " + exportTrackerItems(api, token, since, trackerItems, pageSize, state, nextState));
+
+		setLastExport(nextState, runStart);
+		writeState(stateFile, nextState);
+
+		System.out.println("Cache: " + cache);
+
+		System.out.println("Signing out...");
+		api.logout(token);
+
+		System.out.println("Done");
+	}
+
+	/**
+	 * Exports the user accounts registered since the given date, and the deleted ones.
+	 * @return the number of modified and deleted user accounts.
+	 */
+	protected static String exportUsers(RemoteApi api, String token, Date since, DeltaFiles files) throws IOException {
+		try {
+			UserDto users[] = api.findAllUsers(token);
+			for(int i = 0; users != null && i < users.length; i++) {
+				files.exists(users[i].getId());
+				if(isChanged(since, users[i].getRegistryDate())) {
+					CodeBeamerCsvExporter.writeUserRow(files.upserts, users[i]);
+					files.upserted();
+				}
+			}
+			files.deleteMissing();
+		} finally {
+			files.close();
+		}
+
+		return files.toString();
+	}
+
+	/**
+	 * Exports the projects modified since the given date.
+	 * @return the number of modified and deleted projects.
+	 */
+	protected static String exportProjects(RemoteApi api, String token, Date since, DeltaFiles files) throws IOException {
+		try {
+			ProjectDto projects[] = api.findAllProjects(token);
+			for(int i = 0; i < projects.length; i++) {
+				ProjectDto project = projects[i];
+				if(!project.isDeleted())
+					files.exists(project.getId());
+				if(!isChanged(since, lastModified(project.getLastModifiedAt(), project.getCreatedAt())))
+					continue;
+
+				if(project.isDeleted()) {
+					files.delete(project.getId());
+				} else {
+					CodeBeamerCsvExporter.writeProjectRow(files.upserts, project);
+					files.upserted();
+				}
+			}
+			files.deleteMissing();
+		} finally {
+			files.close();
+		}
+
+		return files.toString();
+	}
+
+	/**
+	 * Exports the artifacts modified since the given date.
+	 * The document trees are still traversed completely.
+	 * @return the number of modified and deleted artifacts.
+	 */
+	protected static String exportArtifacts(RemoteApi api, String token, Date since, DeltaFiles files, int threads) throws IOException {
+		ExecutorService executor = SampleExecutor.getInstance().newGroup(token, Math.max(1, threads));
+		try {
+			ProjectDto projects[] = api.findAllProjects(token);
+			for(int i = 0; i < projects.length; i++) {
+				ArtifactNode nodes[] = ArtifactNode.list(api, token, api.findTopArtifactsByProject(token, projects[i].getId()), executor);
+				for(int j = 0; j < nodes.length; j++)
+					exportArtifact(since, files, nodes[j]);
+			}
+			files.deleteMissing();
+		} finally {
+			executor.shutdownNow();
+			files.close();
+		}
+
+		return files.toString();
+	}
+
+	/** Recursively exports the given artifact and its children, if they were modified. */
+	protected static void exportArtifact(Date since, DeltaFiles files, ArtifactNode node) throws IOException {
+		ArtifactDto artifact = node.getArtifact();
+		if(!artifact.isDeleted())
+			files.exists(artifact.getId());
+		if(isChanged(since, lastModified(artifact.getLastModifiedAt(), artifact.getCreatedAt()))) {
+			if(artifact.isDeleted()) {
+				files.delete(artifact.getId());
+			} else {
+				CodeBeamerCsvExporter.writeArtifact(files.upserts, artifact);
+				files.upserted();
+			}
+		}
+
+		ArtifactNode children[] = node.getChildren();
+		for(int i = 0; i < children.length; i++)
+			exportArtifact(since, files, children[i]);
+	}
+
+	/**
+	 * Exports the trackers modified since the given date.
+	 * @return the number of modified and deleted trackers.
+	 */
+	protected static String exportTrackers(RemoteApi api, String token, Date since, DeltaFiles files) throws IOException {
+		try {
+			TrackerDto trackers[] = api.findAllTrackers(token);
+			for(int i = 0; i < trackers.length; i++) {
+				TrackerDto tracker = trackers[i];
+				if(!tracker.isDeleted())
+					files.exists(tracker.getId());
+				if(!isChanged(since, lastModified(tracker.getLastModifiedAt(), tracker.getCreatedAt())))
+					continue;
+
+				if(tracker.isDeleted()) {
+					files.delete(tracker.getId());
+				} else {
+					CodeBeamerCsvExporter.writeTrackerRow(files.upserts, tracker);
+					files.upserted();
+				}
+			}
+			files.deleteMissing();
+		} finally {
+			files.close();
+		}
+
+		return files.toString();
+	}
+
+	/**
+	 * Exports the tracker items modified since the given date, and the deleted ones.
+	 * Only the modified items are downloaded, page by page. The IDs of the items of each tracker
+	 * are kept in the state, and all the items of a tracker are listed again only if their number
+	 * does not match, as some of them were deleted permanently.
+	 * @param state the state of the previous export, holding the IDs of the items of each tracker.
+	 * @param nextState receives the IDs of the items of each tracker.
+	 * @return the number of modified and deleted tracker items.
+	 */
+	protected static String exportTrackerItems(RemoteApi api, String token, Date since, DeltaFiles files, int pageSize, Properties state, Properties nextState) throws IOException {
+		ExecutorService executor = SampleExecutor.getInstance().newGroup(token, 1);
+		try {
+			TrackerDto trackers[] = api.findAllTrackers(token);
+			Integer trackerIds[] = new Integer[trackers.length];
+			for(int i = 0; i < trackers.length; i++)
+				trackerIds[i] = trackers[i].getId();
+
+			Map<Integer, Integer> itemCounts = new HashMap<Integer, Integer>();
+			TrackerStatsDto stats[] = (trackerIds.length > 0) ? api.findTrackerItemStatsByTrackers(token, trackerIds) : null;
+			for(int i = 0; stats != null && i < stats.length; i++) {
+				if(stats[i] != null && stats[i].getTracker() != null)
+					itemCounts.put(stats[i].getTracker().getId(), Integer.valueOf(stats[i].getAllItems()));
+			}
+
+			Set<String> exportedTrackers = new HashSet<String>();
+			for(int i = 0; i < trackers.length; i++) {
+				String name = "trackeritems." + trackerIds[i];
+				Set<Integer> previousIds = getIds(state, name);
+				Set<Integer> ids = (previousIds != null) ? new HashSet<Integer>(previousIds) : new HashSet<Integer>();
+
+				TrackerItemPager pager = new TrackerItemPager(api, token, new Integer[] { trackerIds[i] }, since, pageSize, executor);
+				TrackerItemDto items[];
+				while((items = pager.nextPage()) != null) {
+					for(int j = 0; j < items.length; j++) {
+						if(items[j].isDeleted()) {
+							ids.remove(items[j].getId());
+							files.delete(items[j].getId());
+						} else {
+							ids.add(items[j].getId());
+							CodeBeamerCsvExporter.writeTrackerItem(files.upserts, items[j]);
+							files.upserted();
+						}
+					}
+				}
+
+				// all the items were listed by the first export
+				boolean complete = (since == null) || (previousIds != null && Integer.valueOf(ids.size()).equals(itemCounts.get(trackerIds[i])));
+				if(!complete) {
+					Set<Integer> existingIds = listTrackerItemIds(api, token, trackerIds[i], pageSize, executor);
+					if(previousIds != null)
+						ids.removeAll(existingIds);
+					else
+						ids.clear();
+					for(Integer id : sort(ids))
+						files.delete(id);
+					ids = existingIds;
+				}
+
+				setIds(nextState, name, ids);
+				exportedTrackers.add(name);
+			}
+
+			// the items of the trackers deleted permanently
+			for(String name : state.stringPropertyNames()) {
+				if(name.startsWith(IDS_PROPERTY_PREFIX + "trackeritems.") && !exportedTrackers.contains(name.substring(IDS_PROPERTY_PREFIX.length()))) {
+					for(Integer id : sort(getIds(state, name.substring(IDS_PROPERTY_PREFIX.length()))))
+						files.delete(id);
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+			files.close();
+		}
+
+		return files.toString();
+	}
+
+	/** Returns the IDs of all the tracker items of a tracker, except the deleted ones. */
+	protected static Set<Integer> listTrackerItemIds(RemoteApi api, String token, Integer trackerId, int pageSize, ExecutorService executor) throws IOException {
+		Set<Integer> ids = new HashSet<Integer>();
+		TrackerItemPager pager = new TrackerItemPager(api, token, new Integer[] { trackerId }, null, pageSize, executor);
+		TrackerItemDto items[];
+		while((items = pager.nextPage()) != null) {
+			for(int i = 0; i < items.length; i++) {
+				if(!items[i].isDeleted())
+					ids.add(items[i].getId());
+			}
+		}
+		return ids;
+	}
+
+	// - helpers --------------------------------------------------------------
+
+	/** Returns whether the given modification date is after the given date (or any of them is unknown). */
+	private static boolean isChanged(Date since, Date modifiedAt) {
+		return (since == null) || (modifiedAt == null) || !modifiedAt.before(since);
+	}
+
+	private static Date lastModified(Date lastModifiedAt, Date createdAt) {
+		return (lastModifiedAt != null) ? lastModifiedAt : createdAt;
+	}
+
+	/**
+	 * Returns the state of the last successful export from the given state file, or from its backup
+	 * if the replacement of the file was interrupted, or an empty state if there is none.
+	 */
+	protected static Properties readState(File stateFile) throws IOException {
+		Properties state = new Properties();
+		if(!stateFile.exists())
+			stateFile = getBackupFile(stateFile);
+		if(!stateFile.exists())
+			return state;
+
+		InputStream in = new FileInputStream(stateFile);
+		try {
+			state.load(in);
+		} finally {
+			in.close();
+		}
+		return state;
+	}
+
+	/** Returns the time of the last export, or <code>null</code> if there was none. */
+	protected static Date getLastExport(Properties state) {
+		String value = state.getProperty(LAST_EXPORT_PROPERTY);
+		return (value != null) ? new Date(Long.parseLong(value.trim())) : null;
+	}
+
+	protected static void setLastExport(Properties state, Date lastExport) {
+		state.setProperty(LAST_EXPORT_PROPERTY, Long.toString(lastExport.getTime()));
+	}
+
+	/** Returns the IDs of the entities exported by the last export, or <code>null</code> if they were not kept. */
+	protected static Set<Integer> getIds(Properties state, String name) {
+		String value = state.getProperty(IDS_PROPERTY_PREFIX + name);
+		if(value == null)
+			return null;
+
+		Set<Integer> ids = new HashSet<Integer>();
+		for(String range : value.split(",")) {
+			if(range.trim().length() == 0)
+				continue;
+
+			int separator = range.indexOf('-', 1);
+			int first = Integer.parseInt(range.substring(0, (separator > 0) ? separator : range.length()).trim());
+			int last = (separator > 0) ? Integer.parseInt(range.substring(separator + 1).trim()) : first;
+			for(int id = first; id <= last; id++)
+				ids.add(Integer.valueOf(id));
+		}
+		return ids;
+	}
+
+	/** Saves the IDs of the exported entities, the consecutive IDs as ranges. */
+	protected static void setIds(Properties state, String name, Set<Integer> ids) {
+		StringBuilder value = new StringBuilder();
+		List<Integer> sorted = sort(ids);
+		for(int i = 0; i < sorted.size(); i++) {
+			int first = sorted.get(i).intValue();
+			while(i + 1 < sorted.size() && sorted.get(i + 1).intValue() == sorted.get(i).intValue() + 1)
+				i++;
+
+			if(value.length() > 0)
+				value.append(',');
+			value.append(first);
+			if(sorted.get(i).intValue() != first)
+				value.append('-').append(sorted.get(i).intValue());
+		}
+		state.setProperty(IDS_PROPERTY_PREFIX + name, value.toString());
+	}
+
+	private static List<Integer> sort(Set<Integer> ids) {
+		List<Integer> sorted = new ArrayList<Integer>(ids);
+		Collections.sort(sorted);
+		return sorted;
+	}
+
+	/**
+	 * Saves the state of the export to the given state file, replacing it only when completely written.
+	 * The new file is renamed over the old one where the platform allows that. Elsewhere the old file
+	 * is renamed to a backup first, which {@link #readState(File)} falls back to if the
+	 * replacement is interrupted, and is removed once the new file is in place.
+	 */
+	protected static void writeState(File stateFile, Properties state) throws IOException {
+		File tempFile = new File(stateFile.getPath() + ".tmp");
+		OutputStream out = new FileOutputStream(tempFile);
+		try {
+			state.store(out, "CodeBeamer incremental export, last export at " + getLastExport(state));
+		} finally {
+			out.close();
+		}
+
+		File backupFile = getBackupFile(stateFile);
+		if(!tempFile.renameTo(stateFile)) {
+			if(stateFile.exists()) {
+				if(backupFile.exists() && !backupFile.delete() || !stateFile.renameTo(backupFile))
+					throw new IOException("Couldn't back up state file " + stateFile);
+			}
+			if(!tempFile.renameTo(stateFile))
+				throw new IOException("Couldn't replace state file " + stateFile + ", the last state is kept in " + backupFile);
+		}
+		// a backup left by an interrupted replacement is out of date now
+		backupFile.delete();
+	}
+
+	private static File getBackupFile(File stateFile) {
+		return new File(stateFile.getPath() + ".bak");
+	}
+
+	/** The upsert and the delete file of an entity type. */
+	protected static class DeltaFiles {
+		private static final String DELETED_HEADER[] = { "id" };
+
+		protected final CsvRowWriter upserts;
+		protected final CsvRowWriter deletes;
+		private final Set<Integer> previousIds;
+		private final Set<Integer> existingIds = new HashSet<Integer>();
+		private final Set<Integer> deletedIds = new HashSet<Integer>();
+		private int upserted = 0;
+		private int deleted = 0;
+
+		/**
+		 * @param previousIds the IDs of the entities exported by the last export, or <code>null</code> if they are not known.
+		 */
+		public DeltaFiles(File dir, String name, String header[], Set<Integer> previousIds) throws IOException {
+			this.previousIds = previousIds;
+			upserts = new CsvRowWriter(new FileOutputStream(new File(dir, name + ".csv")));
+			deletes = new CsvRowWriter(new FileOutputStream(new File(dir, name + "-deleted.csv")));
+			upserts.writeRow(header);
+			deletes.writeRow(DELETED_HEADER);
+		}
+
+		/** Counts a row written to the upsert file. */
+		public void upserted() {
+			upserted++;
+		}
+
+		/** Writes the ID of a deleted entity to the delete file, once. */
+		public void delete(Integer id) throws IOException {
+			if(!deletedIds.add(id))
+				return;
+
+			deletes.field(id);
+			deletes.endRow();
+			deleted++;
+		}
+
+		/** Records an entity which exists, whether it was modified or not. */
+		public void exists(Integer id) {
+			existingIds.add(id);
+		}
+
+		public Set<Integer> getExistingIds() {
+			return existingIds;
+		}
+
+		/**
+		 * Writes the IDs of the entities of the last export which do not exist any more, as they were
+		 * deleted permanently, to the delete file. Called when all the existing entities were recorded.
+		 */
+		public void deleteMissing() throws IOException {
+			if(previousIds == null)
+				return;
+
+			for(Integer id : sort(previousIds)) {
+				if(!existingIds.contains(id))
+					delete(id);
+			}
+		}
+
+		public void close() throws IOException {
+			try {
+				upserts.close();
+			} finally {
+				deletes.close();
+			}
+		}
+
+		/** Returns the number of upserted and deleted rows. */
+		public String toString() {
+			return upserted + " modified, " + deleted + " deleted";
+		}
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import com.intland.codebeamer.remoting.RemoteApi;
+
+
+/**
+ * Records the metrics of the calls of a {@link RemoteApi} into a {@link RemoteApiMetrics}:
+ * the number of calls and failures, the latency and, if the proxy was created by a
+ * {@link TransportRemoteApiFactory}, the size of the requests and responses, per method.
+ * <p>
+ * The calls taking longer than the slow call threshold are logged with their method, duration
+ * and sizes, but not with their arguments, which may contain passwords and session tokens.
+ * <p>
+ * A call costs two clock reads, a few atomic increments and a thread local lookup, so the
+ * instrumentation can be left on. Wrap the proxy returned by the factory before other wrappers,
+ * such as a {@link CachingRemoteApi}, to measure only the calls which reach the server.
+ *
+ * @version $Id$
+ */
+public class InstrumentedRemoteApi implements InvocationHandler {
+	/** The call being made by the thread, receives the byte counts of the streams. */
+	private static final ThreadLocal<Call> CURRENT = new ThreadLocal<Call>();
+
+	private final RemoteApi api;
+	private final RemoteApiMetrics metrics;
+	private volatile long slowCallNanos = Long.MAX_VALUE;
+	private volatile PrintStream slowCallLog = System.err;
+
+	/** The sizes of a call. */
+	private static class Call {
+		long requestBytes = 0;
+		long responseBytes = 0;
+	}
+
+	public InstrumentedRemoteApi(RemoteApi api, RemoteApiMetrics metrics) {
+		this.api = api;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Returns the API recording its calls into the metrics, with the slow call threshold set by
+	 * the <code>cb.metrics.slowCallMillis</code> system property.
+	 */
+	public static RemoteApi wrap(RemoteApi api, RemoteApiMetrics metrics) {
+		InstrumentedRemoteApi instrumented = new InstrumentedRemoteApi(api, metrics);
+		Long slowCallMillis = Long.getLong("cb.metrics.slowCallMillis");
+		if(slowCallMillis != null)
+			instrumented.setSlowCallMillis(slowCallMillis.longValue());
+		return instrumented.getProxy();
+	}
+
+	/** Returns the API to be called instead of the wrapped one. */
+	public RemoteApi getProxy() {
+		return (RemoteApi) Proxy.newProxyInstance(RemoteApi.class.getClassLoader(), new Class<?>[] { RemoteApi.class }, this);
+	}
+
+	public RemoteApiMetrics getMetrics() {
+		return metrics;
+	}
+
+	/** Sets the duration above which the calls are logged, <code>0</code> or less disables the log. */
+	public void setSlowCallMillis(long millis) {
+		slowCallNanos = (millis > 0) ? millis * 1000000L : Long.MAX_VALUE;
+	}
+
+	public long getSlowCallMillis() {
+		return (slowCallNanos != Long.MAX_VALUE) ? slowCallNanos / 1000000L : 0;
+	}
+
+	/** Sets the stream the slow calls are logged to, <code>System.err</code> by default. */
+	public void setSlowCallLog(PrintStream slowCallLog) {
+		this.slowCallLog = slowCallLog;
+	}
+
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		if(method.getDeclaringClass() == Object.class)
+			return invokeObjectMethod(proxy, method, args);
+
+		Call call = new Call();
+		Call outer = CURRENT.get();
+		CURRENT.set(call);
+		boolean failed = true;
+		long start = System.nanoTime();
+		try {
+			Object result = method.invoke(api, args);
+			failed = false;
+			return result;
+		} catch(InvocationTargetException ex) {
+			throw ex.getCause();
+		} finally {
+			long nanos = System.nanoTime() - start;
+			CURRENT.set(outer);
+
+			boolean slow = nanos >= slowCallNanos;
+			metrics.getMethod(method.getName()).record(nanos, failed, slow, call.requestBytes, call.responseBytes);
+			if(slow) {
+				PrintStream log = slowCallLog;
+				if(log != null)
+					log.println("Slow remote call: " + method.getName() + " took " + nanos / 1000000L + " ms" + (failed ? " and failed" : "")
+						+ " (" + call.requestBytes + " bytes sent, " + call.responseBytes + " bytes received)");
+			}
+		}
+	}
+
+	private Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+		if(method.getName().equals("equals"))
+			return Boolean.valueOf(proxy == args[0]);
+		if(method.getName().equals("hashCode"))
+			return Integer.valueOf(System.identityHashCode(proxy));
+		return "Instrumented " + api + " (" + metrics + ")";
+	}
+
+	/**
+	 * Returns the stream counting the bytes of the request of the current call, or the stream itself
+	 * if the thread is not making an instrumented call.
+	 */
+	static OutputStream countRequest(OutputStream out) {
+		final Call call = CURRENT.get();
+		if(call == null || out == null)
+			return out;
+
+		return new FilterOutputStream(out) {
+			public void write(int b) throws IOException {
+				out.write(b);
+				call.requestBytes++;
+			}
+
+			public void write(byte b[], int off, int len) throws IOException {
+				out.write(b, off, len);
+				call.requestBytes += len;
+			}
+		};
+	}
+
+	/**
+	 * Returns the stream counting the bytes of the response of the current call, or the stream itself
+	 * if the thread is not making an instrumented call.
+	 */
+	static InputStream countResponse(InputStream in) {
+		final Call call = CURRENT.get();
+		if(call == null || in == null)
+			return in;
+
+		return new FilterInputStream(in) {
+			public int read() throws IOException {
+				int b = in.read();
+				if(b != -1)
+					call.responseBytes++;
+				return b;
+			}
+
+			public int read(byte b[], int off, int len) throws IOException {
+				int read = in.read(b, off, len);
+				if(read > 0)
+					call.responseBytes += read;
+				return read;
+			}
+
+			public long skip(long n) throws IOException {
+				long skipped = in.skip(n);
+				if(skipped > 0)
+					call.responseBytes += skipped;
+				return skipped;
+			}
+		};
+	}
+}
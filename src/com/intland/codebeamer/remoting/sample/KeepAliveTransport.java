@@ -0,0 +1,327 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * A {@link RemoteApiTransport} reusing persistent HTTP connections between the calls.
+ * <p>
+ * The JDK keeps the connections alive in its own cache, but the Hessian proxy
+ * disconnects every connection after reading the reply, and depending on the JDK
+ * disconnecting may close the cached socket, so that every call pays for a new TCP
+ * (and TLS) handshake. The connections of this transport ignore the disconnect once
+ * the reply stream has been closed, and leave the socket to the cache of the JDK.
+ * A connection whose reply stream was not closed (for example after an error) is
+ * disconnected as before.
+ * <p>
+ * The transport also sets the connect and read timeouts, asks the server for gzip
+ * compressed replies and, optionally, compresses the requests (the server must accept
+ * <code>Content-Encoding: gzip</code> requests for that).
+ * <p>
+ * The JDK caches at most 5 idle connections per server by default, run multi-threaded
+ * clients with <code>-Dhttp.maxConnections</code> set to at least the number of threads.
+ *
+ * @version $Id$
+ */
+public class KeepAliveTransport implements RemoteApiTransport {
+	/** Default connect timeout. */
+	public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+
+	/** Default read timeout, 0 waits forever. */
+	public static final int DEFAULT_READ_TIMEOUT_MILLIS = 0;
+
+	private static final String GZIP = "gzip";
+
+	private int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+	private int readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+	private boolean compressResponses = true;
+	private boolean compressRequests = false;
+
+	/**
+	 * Returns a transport configured by the system properties <code>cb.http.connectTimeout</code>,
+	 * <code>cb.http.readTimeout</code> (in milliseconds), <code>cb.http.gzipResponses</code>
+	 * and <code>cb.http.gzipRequests</code>.
+	 */
+	public static KeepAliveTransport fromSystemProperties() {
+		KeepAliveTransport transport = new KeepAliveTransport();
+		transport.setConnectTimeoutMillis(Integer.getInteger("cb.http.connectTimeout", DEFAULT_CONNECT_TIMEOUT_MILLIS).intValue());
+		transport.setReadTimeoutMillis(Integer.getInteger("cb.http.readTimeout", DEFAULT_READ_TIMEOUT_MILLIS).intValue());
+		transport.setCompressResponses(!"false".equals(System.getProperty("cb.http.gzipResponses")));
+		transport.setCompressRequests(Boolean.getBoolean("cb.http.gzipRequests"));
+		return transport;
+	}
+
+	public int getConnectTimeoutMillis() {
+		return connectTimeoutMillis;
+	}
+
+	public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+		this.connectTimeoutMillis = connectTimeoutMillis;
+	}
+
+	public int getReadTimeoutMillis() {
+		return readTimeoutMillis;
+	}
+
+	public void setReadTimeoutMillis(int readTimeoutMillis) {
+		this.readTimeoutMillis = readTimeoutMillis;
+	}
+
+	public boolean isCompressResponses() {
+		return compressResponses;
+	}
+
+	/** Sets whether to ask the server for gzip compressed replies. */
+	public void setCompressResponses(boolean compressResponses) {
+		this.compressResponses = compressResponses;
+	}
+
+	public boolean isCompressRequests() {
+		return compressRequests;
+	}
+
+	/** Sets whether to send the requests gzip compressed. */
+	public void setCompressRequests(boolean compressRequests) {
+		this.compressRequests = compressRequests;
+	}
+
+	public HttpURLConnection openConnection(URL url) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+		conn.setConnectTimeout(connectTimeoutMillis);
+		conn.setReadTimeout(readTimeoutMillis);
+		conn.setRequestProperty("Connection", "keep-alive");
+		if(compressResponses)
+			conn.setRequestProperty("Accept-Encoding", GZIP);
+		if(compressRequests)
+			conn.setRequestProperty("Content-Encoding", GZIP);
+
+		return new KeepAliveConnection(conn, compressRequests);
+	}
+
+	public String toString() {
+		return "keep-alive (connect timeout " + connectTimeoutMillis + " ms, read timeout " + readTimeoutMillis
+			+ " ms, gzip responses " + compressResponses + ", gzip requests " + compressRequests + ")";
+	}
+
+	/**
+	 * Delegates to a JDK connection, compresses the request and decompresses the reply if needed,
+	 * and keeps the socket alive when the reply has been read.
+	 */
+	private static class KeepAliveConnection extends HttpURLConnection {
+		private final HttpURLConnection conn;
+		private final boolean compressRequest;
+		private GZIPOutputStream requestStream;
+		private InputStream replyStream;
+		private volatile boolean replyRead = false;
+
+		KeepAliveConnection(HttpURLConnection conn, boolean compressRequest) {
+			super(conn.getURL());
+			this.conn = conn;
+			this.compressRequest = compressRequest;
+		}
+
+		/** Completes the compressed request before the reply is read. */
+		private void finishRequest() throws IOException {
+			if(requestStream != null) {
+				requestStream.finish();
+				requestStream = null;
+			}
+		}
+
+		private InputStream decode(InputStream in) throws IOException {
+			if(in != null && GZIP.equalsIgnoreCase(conn.getContentEncoding()))
+				return new GZIPInputStream(in);
+			return in;
+		}
+
+		public OutputStream getOutputStream() throws IOException {
+			if(!compressRequest)
+				return conn.getOutputStream();
+
+			if(requestStream == null)
+				requestStream = new GZIPOutputStream(conn.getOutputStream(), 8192);
+			return requestStream;
+		}
+
+		public InputStream getInputStream() throws IOException {
+			finishRequest();
+			if(replyStream == null) {
+				replyStream = new FilterInputStream(decode(conn.getInputStream())) {
+					public void close() throws IOException {
+						// the JDK returns the socket to its cache when the stream is closed, if the
+						// rest of the reply can be skipped, otherwise it closes the socket itself
+						replyRead = true;
+						super.close();
+					}
+				};
+			}
+			return replyStream;
+		}
+
+		public InputStream getErrorStream() {
+			try {
+				return decode(conn.getErrorStream());
+			} catch(IOException ex) {
+				return conn.getErrorStream();
+			}
+		}
+
+		public void disconnect() {
+			if(!replyRead)
+				conn.disconnect();
+		}
+
+		public void connect() throws IOException {
+			conn.connect();
+		}
+
+		public boolean usingProxy() {
+			return conn.usingProxy();
+		}
+
+		public int getResponseCode() throws IOException {
+			finishRequest();
+			return conn.getResponseCode();
+		}
+
+		public String getResponseMessage() throws IOException {
+			finishRequest();
+			return conn.getResponseMessage();
+		}
+
+		public String getHeaderField(String name) {
+			return conn.getHeaderField(name);
+		}
+
+		public String getHeaderField(int n) {
+			return conn.getHeaderField(n);
+		}
+
+		public String getHeaderFieldKey(int n) {
+			return conn.getHeaderFieldKey(n);
+		}
+
+		public Map<String, List<String>> getHeaderFields() {
+			return conn.getHeaderFields();
+		}
+
+		public String getContentType() {
+			return conn.getContentType();
+		}
+
+		public String getContentEncoding() {
+			return conn.getContentEncoding();
+		}
+
+		public int getContentLength() {
+			return conn.getContentLength();
+		}
+
+		public void setRequestProperty(String key, String value) {
+			conn.setRequestProperty(key, value);
+		}
+
+		public void addRequestProperty(String key, String value) {
+			conn.addRequestProperty(key, value);
+		}
+
+		public String getRequestProperty(String key) {
+			return conn.getRequestProperty(key);
+		}
+
+		public Map<String, List<String>> getRequestProperties() {
+			return conn.getRequestProperties();
+		}
+
+		public void setRequestMethod(String method) throws ProtocolException {
+			conn.setRequestMethod(method);
+		}
+
+		public String getRequestMethod() {
+			return conn.getRequestMethod();
+		}
+
+		public void setDoOutput(boolean doOutput) {
+			conn.setDoOutput(doOutput);
+		}
+
+		public boolean getDoOutput() {
+			return conn.getDoOutput();
+		}
+
+		public void setDoInput(boolean doInput) {
+			conn.setDoInput(doInput);
+		}
+
+		public boolean getDoInput() {
+			return conn.getDoInput();
+		}
+
+		public void setUseCaches(boolean useCaches) {
+			conn.setUseCaches(useCaches);
+		}
+
+		public boolean getUseCaches() {
+			return conn.getUseCaches();
+		}
+
+		public void setConnectTimeout(int timeout) {
+			conn.setConnectTimeout(timeout);
+		}
+
+		public int getConnectTimeout() {
+			return conn.getConnectTimeout();
+		}
+
+		public void setReadTimeout(int timeout) {
+			conn.setReadTimeout(timeout);
+		}
+
+		public int getReadTimeout() {
+			return conn.getReadTimeout();
+		}
+
+		public void setChunkedStreamingMode(int chunkLength) {
+			conn.setChunkedStreamingMode(chunkLength);
+		}
+
+		public void setFixedLengthStreamingMode(int contentLength) {
+			if(compressRequest)
+				throw new IllegalStateException("The length of a compressed request is not known in advance");
+			conn.setFixedLengthStreamingMode(contentLength);
+		}
+
+		public void setInstanceFollowRedirects(boolean followRedirects) {
+			conn.setInstanceFollowRedirects(followRedirects);
+		}
+
+		public boolean getInstanceFollowRedirects() {
+			return conn.getInstanceFollowRedirects();
+		}
+
+		public String toString() {
+			return conn.toString();
+		}
+	}
+}
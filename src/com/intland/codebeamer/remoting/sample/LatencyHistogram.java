@@ -0,0 +1,130 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Records latencies into log-linear buckets, in the manner of an HDR histogram.
+ * <p>
+ * Values below 256 microseconds are counted exactly, larger values are counted in
+ * buckets whose width is 1/128 of their lower bound, so any recorded value is reported
+ * with less than 1% error, from microseconds up to hours, in a fixed amount of memory.
+ * <p>
+ * It is safe to record values from multiple threads.
+ *
+ * @version $Id$
+ */
+public class LatencyHistogram {
+	/** The number of buckets between two powers of two. */
+	private static final int SUB_BUCKETS = 128;
+	private static final int SUB_BUCKET_BITS = 7;
+
+	/** Values below this are counted exactly. */
+	private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+
+	private static final int BUCKETS = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong totalCount = new AtomicLong();
+	private final AtomicLong totalMicros = new AtomicLong();
+	private final AtomicLong maxMicros = new AtomicLong();
+
+	/** Records a latency given in nanoseconds. */
+	public void recordNanos(long nanos) {
+		record(Math.max(0, nanos) / 1000);
+	}
+
+	/** Records a latency given in microseconds. */
+	public void record(long micros) {
+		counts.incrementAndGet(getIndex(micros));
+		totalCount.incrementAndGet();
+		totalMicros.addAndGet(micros);
+
+		long max;
+		while(micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros))
+			;
+	}
+
+	/** Adds the values recorded by the other histogram to this one. */
+	public void add(LatencyHistogram other) {
+		for(int i = 0; i < BUCKETS; i++) {
+			long count = other.counts.get(i);
+			if(count > 0)
+				counts.addAndGet(i, count);
+		}
+		totalCount.addAndGet(other.totalCount.get());
+		totalMicros.addAndGet(other.totalMicros.get());
+
+		long max;
+		long otherMax = other.maxMicros.get();
+		while(otherMax > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, otherMax))
+			;
+	}
+
+	public long getCount() {
+		return totalCount.get();
+	}
+
+	/** Returns the largest recorded value in microseconds. */
+	public long getMax() {
+		return maxMicros.get();
+	}
+
+	/** Returns the mean of the recorded values in microseconds. */
+	public double getMean() {
+		long count = totalCount.get();
+		return (count > 0) ? (double) totalMicros.get() / count : 0.0;
+	}
+
+	/**
+	 * Returns the value in microseconds that the given percent of the recorded values do not exceed.
+	 * The value is the upper bound of its bucket, so it is never lower than the real one.
+	 */
+	public long getValueAtPercentile(double percent) {
+		long count = totalCount.get();
+		if(count == 0)
+			return 0;
+
+		long rank = Math.max(1, (long) Math.ceil(percent / 100 * count));
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if(seen >= rank)
+				return Math.min(getUpperBound(i), getMax());
+		}
+
+		return getMax();
+	}
+
+	/** Returns the bucket of the value. */
+	static int getIndex(long value) {
+		if(value < LINEAR_LIMIT)
+			return (int) Math.max(0, value);
+
+		int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+		return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/** Returns the largest value counted in the bucket. */
+	static long getUpperBound(int index) {
+		if(index < LINEAR_LIMIT)
+			return index;
+
+		int shift = (index - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+		long subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.intland.codebeamer.remoting.RemoteApi;
+import com.intland.codebeamer.remoting.RemoteApiFactory;
+import com.intland.codebeamer.remoting.sample.RemoteApiBenchmark.Operation;
+
+
+/**
+ * Calls a weighted mix of remote API operations from multiple sessions at a fixed target rate.
+ * <p>
+ * The schedule is open-loop: the calls are due at fixed intervals from the start, whether or not
+ * the previous calls have completed. The response time of a call is measured from the time it was
+ * due, not from the time a session became free to send it, so a stalled server shows up in the
+ * percentiles instead of silently lowering the rate (no coordinated omission). The service time,
+ * measured from the actual start of the call, is recorded too.
+ *
+ * @see com.intland.codebeamer.remoting.sample.CodeBeamerRemoteProfiler
+ *
+ * @version $Id$
+ */
+public class LoadGenerator {
+	private static NumberFormat formatter = NumberFormat.getInstance();
+
+	static {
+		formatter.setMaximumFractionDigits(1);
+	}
+
+	private final String serviceUrl;
+	private final String login;
+	private final String password;
+	private final int sessions;
+	private final double ratePerSecond;
+	private final Map<String, Integer> mix;
+	private final Map<String, Stats> stats = new LinkedHashMap<String, Stats>();
+
+	/**
+	 * @param sessions the number of sessions (and threads) sending the calls.
+	 * @param ratePerSecond the number of calls started per second, by all the sessions together.
+	 * @param mix the weight of the operations by name, see {@link RemoteApiBenchmark#createOperations(RemoteApi, String)}.
+	 * <code>null</code> or empty means every operation with the same weight.
+	 */
+	public LoadGenerator(String serviceUrl, String login, String password, int sessions, double ratePerSecond, Map<String, Integer> mix) {
+		if(sessions < 1)
+			throw new IllegalArgumentException("The number of sessions must be positive: " + sessions);
+		if(ratePerSecond <= 0)
+			throw new IllegalArgumentException("The rate must be positive: " + ratePerSecond);
+
+		this.serviceUrl = serviceUrl;
+		this.login = login;
+		this.password = password;
+		this.sessions = sessions;
+		this.ratePerSecond = ratePerSecond;
+		this.mix = mix;
+	}
+
+	/**
+	 * Parses a mix given as comma separated <code>operation:weight</code> pairs,
+	 * for example <code>findAllProjects:5,findTrackerItemsByTrackerId:1</code>.
+	 */
+	public static Map<String, Integer> parseMix(String value) {
+		Map<String, Integer> mix = new LinkedHashMap<String, Integer>();
+		if(value == null)
+			return mix;
+
+		String entries[] = value.split(",");
+		for(int i = 0; i < entries.length; i++) {
+			String entry = entries[i].trim();
+			if(entry.length() == 0)
+				continue;
+
+			int separator = entry.indexOf(':');
+			if(separator < 0)
+				mix.put(entry, Integer.valueOf(1));
+			else
+				mix.put(entry.substring(0, separator).trim(), Integer.valueOf(entry.substring(separator + 1).trim()));
+		}
+
+		return mix;
+	}
+
+	/**
+	 * Runs the load for the given duration and returns the statistics by operation name.
+	 */
+	public Map<String, Stats> run(long durationSeconds) throws Exception {
+		RemoteApi api = RemoteApiFactory.getInstance().connect(serviceUrl);
+		String token = api.login(login, password);
+		List<String> schedule;
+		Map<String, Operation> operations;
+		try {
+			operations = RemoteApiBenchmark.createOperations(api, token);
+			schedule = createSchedule(operations);
+		} finally {
+			api.logout(token);
+		}
+
+		for(String name : operations.keySet())
+			if(schedule.contains(name))
+				stats.put(name, new Stats());
+
+		long intervalNanos = (long) (1e9 / ratePerSecond);
+		long startTime = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+		long endTime = startTime + TimeUnit.SECONDS.toNanos(durationSeconds);
+		AtomicLong tickets = new AtomicLong();
+		AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+		Session threads[] = new Session[sessions];
+		for(int i = 0; i < threads.length; i++) {
+			threads[i] = new Session(i + 1, operations, schedule, tickets, startTime, endTime, intervalNanos, failure);
+			threads[i].start();
+		}
+		for(int i = 0; i < threads.length; i++)
+			threads[i].join();
+
+		if(failure.get() != null)
+			throw new RuntimeException("Couldn't run the load", failure.get());
+
+		return stats;
+	}
+
+	/** Returns the operation names repeated by their weight, picking a random element follows the mix. */
+	private List<String> createSchedule(Map<String, Operation> operations) {
+		List<String> schedule = new ArrayList<String>();
+		if(mix == null || mix.isEmpty()) {
+			schedule.addAll(operations.keySet());
+		} else {
+			for(Map.Entry<String, Integer> entry : mix.entrySet()) {
+				if(!operations.containsKey(entry.getKey()))
+					throw new IllegalArgumentException("Unknown operation: " + entry.getKey() + ", available: " + operations.keySet());
+
+				for(int i = 0; i < entry.getValue().intValue(); i++)
+					schedule.add(entry.getKey());
+			}
+		}
+
+		if(schedule.isEmpty())
+			throw new IllegalArgumentException("The mix is empty");
+
+		return schedule;
+	}
+
+	/** Prints the statistics of the operations and of all the calls together. */
+	public static void print(Map<String, Stats> stats, long durationSeconds) {
+		Stats total = new Stats();
+		for(Map.Entry<String, Stats> entry : stats.entrySet()) {
+			System.out.println(entry.getKey() + ": " + entry.getValue().toString(durationSeconds));
+			total.add(entry.getValue());
+		}
+		System.out.println("total: " + total.toString(durationSeconds));
+	}
+
+	/** Signs in with its own session and sends the calls as they become due. */
+	private class Session extends Thread {
+		private final Map<String, Operation> operations;
+		private final List<String> schedule;
+		private final AtomicLong tickets;
+		private final long startTime;
+		private final long endTime;
+		private final long intervalNanos;
+		private final AtomicReference<Throwable> failure;
+		private final Random random;
+
+		Session(int index, Map<String, Operation> operations, List<String> schedule, AtomicLong tickets, long startTime, long endTime, long intervalNanos, AtomicReference<Throwable> failure) {
+			super("load-" + index);
+			this.operations = operations;
+			this.schedule = schedule;
+			this.tickets = tickets;
+			this.startTime = startTime;
+			this.endTime = endTime;
+			this.intervalNanos = intervalNanos;
+			this.failure = failure;
+			this.random = new Random(index);
+		}
+
+		public void run() {
+			RemoteApi api = null;
+			String token = null;
+			try {
+				api = RemoteApiFactory.getInstance().connect(serviceUrl);
+				token = api.login(login, password);
+
+				while(failure.get() == null) {
+					long dueTime = startTime + tickets.getAndIncrement() * intervalNanos;
+					if(dueTime - endTime >= 0)
+						break;
+
+					long wait = dueTime - System.nanoTime();
+					if(wait > 0)
+						TimeUnit.NANOSECONDS.sleep(wait);
+
+					String name = schedule.get(random.nextInt(schedule.size()));
+					Stats operationStats = stats.get(name);
+					long callStart = System.nanoTime();
+					try {
+						operations.get(name).call(api, token);
+					} catch(RuntimeException ex) {
+						operationStats.errors.incrementAndGet();
+					}
+					long callEnd = System.nanoTime();
+
+					operationStats.responseTime.recordNanos(callEnd - dueTime);
+					operationStats.serviceTime.recordNanos(callEnd - callStart);
+				}
+			} catch(Throwable ex) {
+				failure.compareAndSet(null, ex);
+			} finally {
+				if(token != null) {
+					try {
+						api.logout(token);
+					} catch(Exception ex) {
+						System.err.println(ex);
+					}
+				}
+			}
+		}
+	}
+
+	/** The latencies and errors of an operation. */
+	public static class Stats {
+		/** Measured from the time the call was due. */
+		public final LatencyHistogram responseTime = new LatencyHistogram();
+		/** Measured from the time the call was actually sent. */
+		public final LatencyHistogram serviceTime = new LatencyHistogram();
+		public final AtomicLong errors = new AtomicLong();
+
+		void add(Stats other) {
+			responseTime.add(other.responseTime);
+			serviceTime.add(other.serviceTime);
+			errors.addAndGet(other.errors.get());
+		}
+
+		public String toString(long durationSeconds) {
+			return responseTime.getCount() + " calls (" + formatter.format((double) responseTime.getCount() / Math.max(1, durationSeconds)) + "/s), "
+				+ errors.get() + " errors, response p50 " + millis(responseTime.getValueAtPercentile(50))
+				+ " p99 " + millis(responseTime.getValueAtPercentile(99))
+				+ " p999 " + millis(responseTime.getValueAtPercentile(99.9))
+				+ " max " + millis(responseTime.getMax())
+				+ " ms, service p50 " + millis(serviceTime.getValueAtPercentile(50))
+				+ " p99 " + millis(serviceTime.getValueAtPercentile(99)) + " ms";
+		}
+
+		private static String millis(long micros) {
+			return formatter.format(micros / 1000.0);
+		}
+	}
+}
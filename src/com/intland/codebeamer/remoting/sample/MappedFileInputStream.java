@@ -0,0 +1,136 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.intland.codebeamer.persistence.dto.BinaryStreamDto;
+import com.intland.codebeamer.persistence.util.BinaryStreamDtoHelper;
+import com.intland.codebeamer.remoting.RemoteApiFactory;
+
+
+/**
+ * Reads a file through a series of memory mapped windows, so uploading a file
+ * does not need heap in proportion to its size.
+ * <p>
+ * The bytes read are counted with a {@link ThroughputMonitor}, which reports
+ * the upload throughput while the request is being sent.
+ * <p>
+ * Use {@link #enableStreaming()} before connecting, otherwise the HTTP client
+ * buffers the whole request in memory before sending it.
+ *
+ * @version $Id$
+ */
+public class MappedFileInputStream extends InputStream {
+	/** The size of the part of the file mapped at the same time. */
+	public static final int WINDOW_SIZE = 8 * 1024 * 1024;
+
+	private final File file;
+	private final FileInputStream in;
+	private final FileChannel channel;
+	private final long length;
+	private final ThroughputMonitor monitor;
+	private MappedByteBuffer window;
+	private long windowStart = 0;
+
+	/**
+	 * @param monitor counts the bytes read, can be <code>null</code>.
+	 */
+	public MappedFileInputStream(File file, ThroughputMonitor monitor) throws IOException {
+		this.file = file;
+		this.in = new FileInputStream(file);
+		this.channel = in.getChannel();
+		this.length = channel.size();
+		this.monitor = monitor;
+	}
+
+	/** Makes the Hessian client send the requests in chunks, instead of buffering them to compute their length. */
+	public static void enableStreaming() {
+		RemoteApiFactory.getInstance().setChunkedPost(true);
+	}
+
+	/** Returns the content of the file to be passed to the remote API, the stream must be closed after the call. */
+	public BinaryStreamDto toBinaryStream() {
+		BinaryStreamDto data = BinaryStreamDtoHelper.createFromStream(this, length);
+		data.setFileName(file.getName());
+		return data;
+	}
+
+	public long getLength() {
+		return length;
+	}
+
+	public int read() throws IOException {
+		if(!nextWindow())
+			return -1;
+
+		count(1);
+		return window.get() & 0xff;
+	}
+
+	public int read(byte b[], int off, int len) throws IOException {
+		if(len == 0)
+			return 0;
+		if(!nextWindow())
+			return -1;
+
+		int n = Math.min(len, window.remaining());
+		window.get(b, off, n);
+		count(n);
+		return n;
+	}
+
+	public long skip(long n) throws IOException {
+		long position = Math.min(length, getPosition() + Math.max(0, n));
+		long skipped = position - getPosition();
+		window = null;
+		windowStart = position;
+		return skipped;
+	}
+
+	public int available() {
+		return (int) Math.min(Integer.MAX_VALUE, length - getPosition());
+	}
+
+	public void close() throws IOException {
+		window = null;
+		in.close();
+	}
+
+	private long getPosition() {
+		return (window != null) ? windowStart + window.position() : windowStart;
+	}
+
+	/** Maps the next part of the file if the current one has been read. */
+	private boolean nextWindow() throws IOException {
+		if(window != null && window.hasRemaining())
+			return true;
+
+		long position = getPosition();
+		if(position >= length)
+			return false;
+
+		window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, length - position));
+		windowStart = position;
+		return true;
+	}
+
+	private void count(int bytes) {
+		if(monitor != null)
+			monitor.add(bytes);
+	}
+}
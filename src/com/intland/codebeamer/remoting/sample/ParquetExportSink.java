@@ -0,0 +1,762 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Writes the exported rows into an Apache Parquet file, keeping the type of each field, so that
+ * the files can be loaded by the warehouse and analytics tools without parsing them from text.
+ * <p>
+ * The rows are collected into row groups of {@value #DEFAULT_ROW_GROUP_SIZE} rows by default.
+ * Every column is optional, and is written as a single gzip compressed page per row group:
+ * <ul>
+ *   <li>ids and numbers as <code>INT32</code>,</li>
+ *   <li>long numbers as <code>INT64</code>, dates as <code>INT64</code> <code>TIMESTAMP_MILLIS</code>,</li>
+ *   <li>booleans as <code>BOOLEAN</code>,</li>
+ *   <li>texts as <code>UTF8</code> strings, dictionary encoded if there are at most half as many
+ *   distinct values as values, for example status or tracker names,</li>
+ *   <li>references (<code>ID;name</code> in the CSV files) as a <code>name_id</code> column and a
+ *   dictionary encoded <code>name_name</code> column.</li>
+ * </ul>
+ * The type of a column is the type of the first value written into it, a column having only missing
+ * values is written as a text column. Only the features of the format needed for these columns are
+ * implemented, without depending on the Parquet libraries: plain and dictionary encoding, definition
+ * levels and the Thrift compact protocol of the metadata.
+ * <p>
+ * The pages of the columns having no values in a row group yet are written at the end of the file,
+ * before the footer, when the type of the column is known.
+ *
+ * @version $Id$
+ */
+public class ParquetExportSink implements ExportSink {
+	/** Starts and ends the files. */
+	static final byte MAGIC[] = { 'P', 'A', 'R', '1' };
+
+	/** Default number of rows per row group. */
+	public static final int DEFAULT_ROW_GROUP_SIZE = 65536;
+
+	// the types of the exported values
+	private static final byte NONE = 0;
+	private static final byte INT = 1;
+	private static final byte LONG = 2;
+	private static final byte DATE = 3;
+	private static final byte BOOLEAN = 4;
+	private static final byte STRING = 5;
+	private static final byte REFERENCE = 6;
+
+	// the physical types, encodings and other constants of the Parquet format
+	private static final int TYPE_BOOLEAN = 0;
+	private static final int TYPE_INT32 = 1;
+	private static final int TYPE_INT64 = 2;
+	private static final int TYPE_BYTE_ARRAY = 6;
+	private static final int CONVERTED_UTF8 = 0;
+	private static final int CONVERTED_TIMESTAMP_MILLIS = 9;
+	private static final int OPTIONAL = 1;
+	private static final int ENCODING_PLAIN = 0;
+	private static final int ENCODING_RLE = 3;
+	private static final int ENCODING_RLE_DICTIONARY = 8;
+	private static final int CODEC_GZIP = 2;
+	private static final int DATA_PAGE = 0;
+	private static final int DICTIONARY_PAGE = 2;
+
+	private final OutputStream out;
+	private final int rowGroupSize;
+
+	private String names[] = new String[0];
+	private final List<Column> columns = new ArrayList<Column>();
+	private int column = 0;
+	private int rows = 0;
+
+	private long position = 0;
+	private final List<RowGroup> rowGroups = new ArrayList<RowGroup>();
+	private long writtenBytes = 0;
+	private long rawBytes = 0;
+
+	public ParquetExportSink(OutputStream out) throws IOException {
+		this(out, DEFAULT_ROW_GROUP_SIZE);
+	}
+
+	public ParquetExportSink(OutputStream out, int rowGroupSize) throws IOException {
+		if(rowGroupSize < 1)
+			throw new IllegalArgumentException("The row group size must be positive: " + rowGroupSize);
+
+		this.out = new BufferedOutputStream(out, 65536);
+		this.rowGroupSize = rowGroupSize;
+		write(MAGIC, 0, MAGIC.length);
+	}
+
+	public void header(String names[]) {
+		this.names = names.clone();
+	}
+
+	public void field(String value) {
+		Column target = next(STRING, value == null);
+		if(value != null)
+			target.strings[target.count] = value;
+		target.present(value != null);
+	}
+
+	public void field(Integer value) {
+		Column target = next(INT, value == null);
+		if(value != null)
+			target.ints[target.count] = value.intValue();
+		target.present(value != null);
+	}
+
+	public void field(int value) {
+		Column target = next(INT, false);
+		target.ints[target.count] = value;
+		target.present(true);
+	}
+
+	public void field(Long value) {
+		Column target = next(LONG, value == null);
+		if(value != null)
+			target.longs[target.count] = value.longValue();
+		target.present(value != null);
+	}
+
+	public void field(Boolean value) {
+		Column target = next(BOOLEAN, value == null);
+		if(value != null)
+			target.ints[target.count] = value.booleanValue() ? 1 : 0;
+		target.present(value != null);
+	}
+
+	public void field(Date value) {
+		Column target = next(DATE, value == null);
+		if(value != null)
+			target.longs[target.count] = value.getTime();
+		target.present(value != null);
+	}
+
+	public void field(Integer id, String name) {
+		Column target = next(REFERENCE, id == null);
+		if(id != null) {
+			target.ints[target.count] = id.intValue();
+			target.strings[target.count] = name;
+		}
+		target.present(id != null);
+	}
+
+	public void endRow() throws IOException {
+		// the columns not written in this row are missing values
+		while(column < columns.size())
+			field((String) null);
+		column = 0;
+
+		if(++rows >= rowGroupSize)
+			writeRowGroup();
+	}
+
+	/** Writes the rows collected so far as a row group, the rows of a group must fit into the memory. */
+	public void flush() throws IOException {
+		if(column > 0)
+			throw new IllegalStateException("The row is not complete");
+
+		if(rows > 0)
+			writeRowGroup();
+		out.flush();
+	}
+
+	/** Writes the last row group, the pages of the columns without values and the footer, and closes the stream. */
+	public void close() throws IOException {
+		try {
+			flush();
+
+			// the columns of the header never written are missing values
+			while(columns.size() < names.length)
+				columns.add(new Column(0));
+			writeMissingColumns();
+			writeFooter();
+			out.flush();
+		} finally {
+			out.close();
+		}
+	}
+
+	/** Returns the size of the file written so far. */
+	public long getWrittenBytes() {
+		return writtenBytes;
+	}
+
+	/** Returns the size of the encoded pages before compression. */
+	public long getRawBytes() {
+		return rawBytes;
+	}
+
+	/** Returns the next column of the row, set to the given type unless the value is missing. */
+	private Column next(byte type, boolean missing) {
+		if(column == columns.size())
+			columns.add(new Column(rows));
+
+		Column next = columns.get(column++);
+		if(!missing || type != STRING)
+			next.setType(type, column - 1);
+		next.ensureCapacity();
+		return next;
+	}
+
+	private void writeRowGroup() throws IOException {
+		RowGroup group = new RowGroup(rows);
+		for(Column values : columns) {
+			// the type of a column without values is not known yet
+			if(values.type == NONE) {
+				group.columns.add(null);
+			} else if(values.type == REFERENCE) {
+				group.columns.add(new ColumnChunk[] { writeColumnChunk(TYPE_INT32, values, false), writeColumnChunk(TYPE_BYTE_ARRAY, values, true) });
+			} else {
+				group.columns.add(new ColumnChunk[] { writeColumnChunk(getPhysicalType(values.type), values, false) });
+			}
+			values.reset();
+		}
+		rowGroups.add(group);
+		rows = 0;
+	}
+
+	/**
+	 * Writes the values of a column in the current row group as a single data page, preceded by a dictionary page
+	 * if the texts are dictionary encoded.
+	 *
+	 * @param names whether to write the names of the references, instead of the values of the column.
+	 */
+	private ColumnChunk writeColumnChunk(int physicalType, Column values, boolean names) throws IOException {
+		ColumnChunk chunk = new ColumnChunk(physicalType);
+		ByteArrayOutputStream page = new ByteArrayOutputStream(values.count * 4 + 64);
+		int present = writeDefinitionLevels(page, values, names);
+
+		int encoding = ENCODING_PLAIN;
+		if(physicalType == TYPE_BYTE_ARRAY && present > 0) {
+			Map<String, Integer> dictionary = new HashMap<String, Integer>();
+			List<String> entries = new ArrayList<String>();
+			int indices[] = new int[present];
+			for(int i = 0, value = 0; i < values.count; i++) {
+				if(!values.hasValue(i, names))
+					continue;
+				Integer index = dictionary.get(values.strings[i]);
+				if(index == null) {
+					index = Integer.valueOf(entries.size());
+					dictionary.put(values.strings[i], index);
+					entries.add(values.strings[i]);
+				}
+				indices[value++] = index.intValue();
+			}
+
+			if(names || entries.size() * 2 <= present) {
+				ByteArrayOutputStream dictionaryPage = new ByteArrayOutputStream();
+				for(String entry : entries)
+					writeByteArray(dictionaryPage, entry);
+				chunk.dictionaryOffset = position;
+				writePage(chunk, DICTIONARY_PAGE, dictionaryPage, entries.size(), ENCODING_PLAIN);
+
+				int bitWidth = 32 - Integer.numberOfLeadingZeros(entries.size() - 1);
+				page.write(bitWidth);
+				writeHybrid(page, indices, present, bitWidth);
+				encoding = ENCODING_RLE_DICTIONARY;
+			}
+		}
+		if(encoding == ENCODING_PLAIN)
+			values.writePlain(page, physicalType, names);
+
+		chunk.dataOffset = position;
+		writePage(chunk, DATA_PAGE, page, values.count, encoding);
+		return chunk;
+	}
+
+	/** Writes a column chunk having only missing values. */
+	private ColumnChunk writeMissingColumnChunk(int physicalType, int rows) throws IOException {
+		ColumnChunk chunk = new ColumnChunk(physicalType);
+		ByteArrayOutputStream page = new ByteArrayOutputStream(16);
+		writeDefinitionLevels(page, new Column(rows), false);
+		chunk.dataOffset = position;
+		writePage(chunk, DATA_PAGE, page, rows, ENCODING_PLAIN);
+		return chunk;
+	}
+
+	/** Writes the definition levels of the rows, 1 if they have a value, preceded by their length, and returns the number of values. */
+	private static int writeDefinitionLevels(ByteArrayOutputStream page, Column values, boolean names) {
+		int levels[] = new int[values.count];
+		int present = 0;
+		for(int i = 0; i < values.count; i++) {
+			if(values.hasValue(i, names)) {
+				levels[i] = 1;
+				present++;
+			}
+		}
+
+		ByteArrayOutputStream encoded = new ByteArrayOutputStream(values.count / 8 + 8);
+		writeHybrid(encoded, levels, values.count, 1);
+		writeIntLE(page, encoded.size());
+		page.write(encoded.toByteArray(), 0, encoded.size());
+		return present;
+	}
+
+	/** Writes a page header and the compressed page. */
+	private void writePage(ColumnChunk chunk, int type, ByteArrayOutputStream page, int values, int encoding) throws IOException {
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(page.size() / 4 + 64);
+		GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+		page.writeTo(gzip);
+		gzip.close();
+
+		ThriftWriter header = new ThriftWriter();
+		header.i32(1, type);
+		header.i32(2, page.size());
+		header.i32(3, compressed.size());
+		header.beginStruct((type == DATA_PAGE) ? 5 : 7);
+		header.i32(1, values);
+		header.i32(2, encoding);
+		if(type == DATA_PAGE) {
+			header.i32(3, ENCODING_RLE);
+			header.i32(4, ENCODING_RLE);
+		}
+		header.endStruct();
+		header.endStruct();
+		byte headerBytes[] = header.toByteArray();
+
+		write(headerBytes, 0, headerBytes.length);
+		write(compressed.toByteArray(), 0, compressed.size());
+		rawBytes += page.size();
+		chunk.uncompressedSize += headerBytes.length + page.size();
+		chunk.compressedSize += headerBytes.length + compressed.size();
+		if(type == DATA_PAGE)
+			chunk.encoding = encoding;
+	}
+
+	/** Writes the chunks of the columns which had no values in a row group, now that their types are known. */
+	private void writeMissingColumns() throws IOException {
+		for(RowGroup group : rowGroups) {
+			for(int i = 0; i < columns.size(); i++) {
+				if(i == group.columns.size())
+					group.columns.add(null);
+				if(group.columns.get(i) != null)
+					continue;
+
+				int physicalTypes[] = getPhysicalTypes(columns.get(i).type);
+				ColumnChunk chunks[] = new ColumnChunk[physicalTypes.length];
+				for(int j = 0; j < physicalTypes.length; j++)
+					chunks[j] = writeMissingColumnChunk(physicalTypes[j], group.rows);
+				group.columns.set(i, chunks);
+			}
+		}
+	}
+
+	/** Writes the file metadata, its length and the magic bytes. */
+	private void writeFooter() throws IOException {
+		List<String> leafNames = new ArrayList<String>();
+		List<Integer> leafConvertedTypes = new ArrayList<Integer>();
+		for(int i = 0; i < columns.size(); i++) {
+			String name = (i < names.length) ? names[i] : "column" + i;
+			byte type = columns.get(i).type;
+			if(type == REFERENCE) {
+				leafNames.add(name + "_id");
+				leafConvertedTypes.add(null);
+				leafNames.add(name + "_name");
+				leafConvertedTypes.add(Integer.valueOf(CONVERTED_UTF8));
+			} else {
+				leafNames.add(name);
+				leafConvertedTypes.add((type == DATE) ? Integer.valueOf(CONVERTED_TIMESTAMP_MILLIS) : (getPhysicalType(type) == TYPE_BYTE_ARRAY) ? Integer.valueOf(CONVERTED_UTF8) : null);
+			}
+		}
+
+		long totalRows = 0;
+		for(RowGroup group : rowGroups)
+			totalRows += group.rows;
+
+		ThriftWriter footer = new ThriftWriter();
+		footer.i32(1, 1);
+		footer.beginList(2, ThriftWriter.STRUCT, leafNames.size() + 1);
+		footer.beginElement();
+		footer.string(4, "schema");
+		footer.i32(5, leafNames.size());
+		footer.endStruct();
+		int leaf = 0;
+		for(Column values : columns) {
+			for(int physicalType : getPhysicalTypes(values.type)) {
+				footer.beginElement();
+				footer.i32(1, physicalType);
+				footer.i32(3, OPTIONAL);
+				footer.string(4, leafNames.get(leaf));
+				if(leafConvertedTypes.get(leaf) != null)
+					footer.i32(6, leafConvertedTypes.get(leaf).intValue());
+				footer.endStruct();
+				leaf++;
+			}
+		}
+		footer.i64(3, totalRows);
+		footer.beginList(4, ThriftWriter.STRUCT, rowGroups.size());
+		for(RowGroup group : rowGroups) {
+			long totalSize = 0;
+			footer.beginElement();
+			footer.beginList(1, ThriftWriter.STRUCT, leafNames.size());
+			leaf = 0;
+			for(ColumnChunk chunks[] : group.columns) {
+				for(ColumnChunk chunk : chunks) {
+					writeColumnChunkMetaData(footer, chunk, leafNames.get(leaf++), group.rows);
+					totalSize += chunk.uncompressedSize;
+				}
+			}
+			footer.i64(2, totalSize);
+			footer.i64(3, group.rows);
+			footer.endStruct();
+		}
+		footer.string(6, "codebeamer-remote-api-sample version 1.0");
+		footer.endStruct();
+
+		byte bytes[] = footer.toByteArray();
+		byte length[] = new byte[] { (byte) bytes.length, (byte) (bytes.length >>> 8), (byte) (bytes.length >>> 16), (byte) (bytes.length >>> 24) };
+		write(bytes, 0, bytes.length);
+		write(length, 0, length.length);
+		write(MAGIC, 0, MAGIC.length);
+	}
+
+	private static void writeColumnChunkMetaData(ThriftWriter footer, ColumnChunk chunk, String name, int rows) {
+		long offset = (chunk.dictionaryOffset >= 0) ? chunk.dictionaryOffset : chunk.dataOffset;
+		footer.beginElement();
+		footer.i64(2, offset);
+		footer.beginStruct(3);
+		footer.i32(1, chunk.type);
+		if(chunk.dictionaryOffset >= 0) {
+			footer.beginList(2, ThriftWriter.I32, 3);
+			footer.i32Element(ENCODING_PLAIN);
+			footer.i32Element(ENCODING_RLE);
+			footer.i32Element(chunk.encoding);
+		} else {
+			footer.beginList(2, ThriftWriter.I32, 2);
+			footer.i32Element(ENCODING_RLE);
+			footer.i32Element(chunk.encoding);
+		}
+		footer.beginList(3, ThriftWriter.BINARY, 1);
+		footer.stringElement(name);
+		footer.i32(4, CODEC_GZIP);
+		footer.i64(5, rows);
+		footer.i64(6, chunk.uncompressedSize);
+		footer.i64(7, chunk.compressedSize);
+		footer.i64(9, chunk.dataOffset);
+		if(chunk.dictionaryOffset >= 0)
+			footer.i64(11, chunk.dictionaryOffset);
+		footer.endStruct();
+		footer.endStruct();
+	}
+
+	private void write(byte bytes[], int offset, int length) throws IOException {
+		out.write(bytes, offset, length);
+		position += length;
+		writtenBytes += length;
+	}
+
+	public String toString() {
+		return rowGroups.size() + " row groups, " + writtenBytes + " bytes (" + rawBytes + " bytes before compression)";
+	}
+
+	private static int getPhysicalType(byte type) {
+		switch(type) {
+		case INT:
+			return TYPE_INT32;
+		case LONG:
+		case DATE:
+			return TYPE_INT64;
+		case BOOLEAN:
+			return TYPE_BOOLEAN;
+		default:
+			return TYPE_BYTE_ARRAY;
+		}
+	}
+
+	/** Returns the physical types of the Parquet columns of a column, the references have two. */
+	private static int[] getPhysicalTypes(byte type) {
+		return (type == REFERENCE) ? new int[] { TYPE_INT32, TYPE_BYTE_ARRAY } : new int[] { getPhysicalType(type) };
+	}
+
+	// - encoding helpers -----------------------------------------------------
+
+	static void writeVarLong(ByteArrayOutputStream out, long value) {
+		while((value & ~0x7FL) != 0) {
+			out.write((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	static void writeIntLE(ByteArrayOutputStream out, int value) {
+		out.write(value);
+		out.write(value >>> 8);
+		out.write(value >>> 16);
+		out.write(value >>> 24);
+	}
+
+	static void writeLongLE(ByteArrayOutputStream out, long value) {
+		writeIntLE(out, (int) value);
+		writeIntLE(out, (int) (value >>> 32));
+	}
+
+	/** Writes a text as a byte array: its length in bytes and its UTF-8 bytes. */
+	static void writeByteArray(ByteArrayOutputStream out, String value) throws IOException {
+		byte bytes[] = value.getBytes("UTF-8");
+		writeIntLE(out, bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Writes the values in the RLE / bit-packed hybrid encoding: a single run of the value if all values
+	 * are the same, a single bit-packed run otherwise.
+	 */
+	static void writeHybrid(ByteArrayOutputStream out, int values[], int count, int bitWidth) {
+		boolean same = true;
+		for(int i = 1; i < count && same; i++)
+			same = values[i] == values[0];
+
+		if(same) {
+			writeVarLong(out, (long) count << 1);
+			for(int i = 0; i < (bitWidth + 7) / 8; i++)
+				out.write(((count > 0) ? values[0] : 0) >>> (8 * i));
+			return;
+		}
+
+		int groups = (count + 7) / 8;
+		writeVarLong(out, ((long) groups << 1) | 1);
+		long buffer = 0;
+		int bits = 0;
+		for(int i = 0; i < groups * 8; i++) {
+			buffer |= ((i < count) ? values[i] & 0xFFFFFFFFL : 0) << bits;
+			bits += bitWidth;
+			while(bits >= 8) {
+				out.write((int) buffer);
+				buffer >>>= 8;
+				bits -= 8;
+			}
+		}
+	}
+
+	/** The metadata of a column chunk written into the file. */
+	private static class ColumnChunk {
+		private final int type;
+		private long dictionaryOffset = -1;
+		private long dataOffset;
+		private int encoding;
+		private long uncompressedSize;
+		private long compressedSize;
+
+		ColumnChunk(int type) {
+			this.type = type;
+		}
+	}
+
+	/** The column chunks of a row group, <code>null</code> for the columns without values yet. */
+	private static class RowGroup {
+		private final int rows;
+		private final List<ColumnChunk[]> columns = new ArrayList<ColumnChunk[]>();
+
+		RowGroup(int rows) {
+			this.rows = rows;
+		}
+	}
+
+	/** Writes structures in the Thrift compact protocol, as the metadata of the Parquet files. */
+	private static class ThriftWriter {
+		static final int I32 = 5;
+		static final int I64 = 6;
+		static final int BINARY = 8;
+		static final int LIST = 9;
+		static final int STRUCT = 12;
+
+		private final ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+		private final int lastFieldIds[] = new int[16];
+		private int depth = 0;
+
+		void i32(int id, int value) {
+			fieldHeader(id, I32);
+			writeVarLong(out, zigzag(value));
+		}
+
+		void i64(int id, long value) {
+			fieldHeader(id, I64);
+			writeVarLong(out, zigzag(value));
+		}
+
+		void string(int id, String value) {
+			fieldHeader(id, BINARY);
+			stringElement(value);
+		}
+
+		void beginStruct(int id) {
+			fieldHeader(id, STRUCT);
+			beginElement();
+		}
+
+		/** Starts a structure in a list. */
+		void beginElement() {
+			lastFieldIds[++depth] = 0;
+		}
+
+		/** Ends a structure, or the message at the top level. */
+		void endStruct() {
+			out.write(0);
+			depth--;
+		}
+
+		void beginList(int id, int elementType, int size) {
+			fieldHeader(id, LIST);
+			if(size < 15) {
+				out.write((size << 4) | elementType);
+			} else {
+				out.write(0xF0 | elementType);
+				writeVarLong(out, size);
+			}
+		}
+
+		void i32Element(int value) {
+			writeVarLong(out, zigzag(value));
+		}
+
+		void stringElement(String value) {
+			byte bytes[];
+			try {
+				bytes = value.getBytes("UTF-8");
+			} catch(IOException ex) {
+				throw new IllegalStateException(ex);
+			}
+			writeVarLong(out, bytes.length);
+			out.write(bytes, 0, bytes.length);
+		}
+
+		byte[] toByteArray() {
+			return out.toByteArray();
+		}
+
+		private void fieldHeader(int id, int type) {
+			int delta = id - lastFieldIds[depth];
+			if(delta > 0 && delta <= 15) {
+				out.write((delta << 4) | type);
+			} else {
+				out.write(type);
+				writeVarLong(out, zigzag(id));
+			}
+			lastFieldIds[depth] = id;
+		}
+	}
+
+	/** The values of a column in the current row group. */
+	private static class Column {
+		private byte type = NONE;
+		private int count = 0;
+		private byte presence[] = new byte[16];
+		private int ints[];
+		private long longs[];
+		private String strings[];
+
+		/** Marks the rows written before the column appeared as missing. */
+		Column(int missingRows) {
+			for(int i = 0; i < missingRows; i++) {
+				ensureCapacity();
+				present(false);
+			}
+		}
+
+		void setType(byte type, int index) {
+			if(this.type == type)
+				return;
+			if(this.type != NONE)
+				throw new IllegalStateException("Column " + index + " has type " + this.type + ", not " + type);
+
+			this.type = type;
+			int capacity = presence.length * 8;
+			if(type == INT || type == BOOLEAN || type == REFERENCE)
+				ints = new int[capacity];
+			if(type == LONG || type == DATE)
+				longs = new long[capacity];
+			if(type == STRING || type == REFERENCE)
+				strings = new String[capacity];
+		}
+
+		void ensureCapacity() {
+			if(count < presence.length * 8)
+				return;
+
+			int capacity = presence.length * 16;
+			presence = Arrays.copyOf(presence, capacity / 8);
+			if(ints != null)
+				ints = Arrays.copyOf(ints, capacity);
+			if(longs != null)
+				longs = Arrays.copyOf(longs, capacity);
+			if(strings != null)
+				strings = Arrays.copyOf(strings, capacity);
+		}
+
+		void present(boolean present) {
+			if(present)
+				presence[count >> 3] |= 1 << (count & 7);
+			count++;
+		}
+
+		boolean isPresent(int row) {
+			return (presence[row >> 3] & (1 << (row & 7))) != 0;
+		}
+
+		/** Returns whether the row has a value, or a reference having a name if <code>names</code> is set. */
+		boolean hasValue(int row, boolean names) {
+			return isPresent(row) && (!names || strings[row] != null);
+		}
+
+		void reset() {
+			Arrays.fill(presence, (byte) 0);
+			if(strings != null)
+				Arrays.fill(strings, 0, count, null);
+			count = 0;
+		}
+
+		/** Writes the present values one after the other, as the plain encoding of the physical type. */
+		void writePlain(ByteArrayOutputStream out, int physicalType, boolean names) throws IOException {
+			int bits = 0;
+			int current = 0;
+			for(int i = 0; i < count; i++) {
+				if(!hasValue(i, names))
+					continue;
+
+				switch(physicalType) {
+				case TYPE_INT32:
+					writeIntLE(out, ints[i]);
+					break;
+				case TYPE_INT64:
+					writeLongLE(out, longs[i]);
+					break;
+				case TYPE_BOOLEAN:
+					current |= ints[i] << (bits & 7);
+					if((++bits & 7) == 0) {
+						out.write(current);
+						current = 0;
+					}
+					break;
+				default:
+					writeByteArray(out, strings[i]);
+				}
+			}
+			if((bits & 7) != 0)
+				out.write(current);
+		}
+	}
+}
@@ -0,0 +1,381 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.Ostermiller.util.CSVParser;
+import com.Ostermiller.util.CSVPrinter;
+import com.intland.codebeamer.persistence.dto.ArtifactDto;
+import com.intland.codebeamer.persistence.dto.ProjectDto;
+import com.intland.codebeamer.persistence.dto.TrackerDto;
+import com.intland.codebeamer.remoting.RemoteApi;
+import com.intland.codebeamer.remoting.RemoteApiFactory;
+
+
+/**
+ * This program is part of the CodeBeamer SDK.
+ * <p>
+ * This console application benchmarks the most frequently used finders of the remote API.
+ * Every finder is called a number of times to warm up the JVM first, then measured call by call,
+ * and the distribution of the call times (mean, standard deviation and percentiles) is printed.
+ * <p>
+ * With <code>stub</code> instead of a service URL, the finders are called on a {@link HessianStubServer}
+ * started in the same JVM, which measures the client side cost of the calls (proxy, serialization and HTTP)
+ * independently of the server. The results can be saved to a CSV file and compared to a previous run,
+ * so that a build can fail when a finder gets slower.
+ *
+ * @see com.intland.codebeamer.remoting.sample.CodeBeamerRemoteProfiler
+ *
+ * @version $Id$
+ */
+public class RemoteApiBenchmark {
+	/** Columns of the result file. */
+	public static final String ResultHeader[] = { "operation", "iterations", "items", "mean_us", "stddev_us", "min_us", "p50_us", "p90_us", "p99_us", "max_us", "calls_per_s" };
+
+	public static final int DEFAULT_WARMUP = 50;
+	public static final int DEFAULT_ITERATIONS = 200;
+	public static final int DEFAULT_PAYLOAD_SIZE = 100;
+	public static final int DEFAULT_DESCRIPTION_LENGTH = 200;
+
+	/** Default slowdown of the mean call time, in percent, accepted compared to the baseline. */
+	public static final int DEFAULT_TOLERANCE_PERCENT = 20;
+
+	private static NumberFormat formatter = NumberFormat.getInstance();
+
+	static {
+		formatter.setMaximumFractionDigits(1);
+	}
+
+	/** A benchmarked remote call. */
+	public interface Operation {
+		/** @return the number of items returned by the call. */
+		int call(RemoteApi api, String token);
+	}
+
+	/**
+	 * Main entry point.
+	 * Commandline parsing is not elaborated, for real use
+	 * please consider using the Apache Commons CLI package.
+	 */
+	public static void main(String[] args) throws Exception {
+		if(!(args.length == 1 && "stub".equals(args[0])) && args.length != 3) {
+			System.err.println("Usage: <program> stub | service-URL login password\n"
+				+ "With stub, the finders are called on a Hessian server started in this JVM.\n"
+				+ "Use -Dcb.benchmark.warmup=N and -Dcb.benchmark.iterations=N to set the number of calls (default " + DEFAULT_WARMUP + " and " + DEFAULT_ITERATIONS + "),\n"
+				+ "-Dcb.benchmark.payloadSize=N and -Dcb.benchmark.descriptionLength=N to set the size of the stub data,\n"
+				+ "-Dcb.benchmark.output=file to save the results and -Dcb.benchmark.baseline=file to compare them to a previous run\n"
+				+ "(-Dcb.benchmark.tolerance=percent, default " + DEFAULT_TOLERANCE_PERCENT + ").\n"
+				+ "Use -Dcb.http.transport=keep-alive to send the calls through the KeepAliveTransport.");
+			System.exit(-1);
+		}
+		int warmup = Integer.getInteger("cb.benchmark.warmup", DEFAULT_WARMUP).intValue();
+		int iterations = Integer.getInteger("cb.benchmark.iterations", DEFAULT_ITERATIONS).intValue();
+		String output = System.getProperty("cb.benchmark.output");
+		String baseline = System.getProperty("cb.benchmark.baseline");
+		int tolerance = Integer.getInteger("cb.benchmark.tolerance", DEFAULT_TOLERANCE_PERCENT).intValue();
+
+		TransportRemoteApiFactory transport = TransportRemoteApiFactory.installFromSystemProperties();
+		if(transport != null)
+			System.out.println("Using " + transport);
+
+		HessianStubServer stub = null;
+		String serviceUrl;
+		String login;
+		String password;
+		if(args.length == 1) {
+			stub = new HessianStubServer(Integer.getInteger("cb.benchmark.payloadSize", DEFAULT_PAYLOAD_SIZE).intValue(),
+					Integer.getInteger("cb.benchmark.descriptionLength", DEFAULT_DESCRIPTION_LENGTH).intValue());
+			serviceUrl = stub.start();
+			login = "stub";
+			password = "stub";
+			System.out.println("Started stub server with " + stub.getPayloadSize() + " DTOs per call at " + serviceUrl);
+		} else {
+			serviceUrl = args[0];
+			login = args[1];
+			password = args[2];
+		}
+
+		List<Result> results;
+		try {
+			System.out.println("Connecting to CodeBeamer web service at " + serviceUrl + "...");
+			RemoteApi api = RemoteApiFactory.getInstance().connect(serviceUrl);
+			String token = api.login(login, password);
+
+			results = run(api, token, warmup, iterations);
+
+			api.logout(token);
+		} finally {
+			if(stub != null)
+				stub.stop();
+		}
+
+		if(output != null)
+			writeResults(results, new File(output));
+
+		if(baseline != null && !compare(results, readMeans(new File(baseline)), tolerance)) {
+			System.err.println("Regression detected compared to " + baseline);
+			System.exit(1);
+		}
+
+		System.out.println("Done");
+	}
+
+	/** Benchmarks the finders. */
+	public static List<Result> run(RemoteApi api, String token, int warmup, int iterations) {
+		List<Result> results = new ArrayList<Result>();
+		for(Map.Entry<String, Operation> operation : createOperations(api, token).entrySet()) {
+			System.out.print(operation.getKey() + "...");
+			Result result = measure(operation.getKey(), operation.getValue(), api, token, warmup, iterations);
+			System.out.println(" " + result);
+			results.add(result);
+		}
+
+		return results;
+	}
+
+	/**
+	 * Creates the benchmarked finders by name, looking up the IDs they need first.
+	 * The finders that need an ID are left out if there is no such entity.
+	 */
+	public static Map<String, Operation> createOperations(RemoteApi api, String token) {
+		Map<String, Operation> operations = new LinkedHashMap<String, Operation>();
+		operations.put("findAllUsers", new Operation() {
+			public int call(RemoteApi api, String token) {
+				return length(api.findAllUsers(token));
+			}
+		});
+		operations.put("findAllProjects", new Operation() {
+			public int call(RemoteApi api, String token) {
+				return length(api.findAllProjects(token));
+			}
+		});
+
+		ProjectDto projects[] = api.findAllProjects(token);
+		if(projects != null && projects.length > 0) {
+			final Integer projectId = projects[0].getId();
+			operations.put("findTopArtifactsByProject", new Operation() {
+				public int call(RemoteApi api, String token) {
+					return length(api.findTopArtifactsByProject(token, projectId));
+				}
+			});
+
+			ArtifactDto artifacts[] = api.findTopArtifactsByProject(token, projectId);
+			if(artifacts != null && artifacts.length > 0) {
+				ArtifactDto parent = artifacts[0];
+				for(int i = 0; i < artifacts.length; i++) {
+					if(artifacts[i].isDirectory()) {
+						parent = artifacts[i];
+						break;
+					}
+				}
+				final Integer parentId = parent.getId();
+				operations.put("findArtifactsByParentArtifact", new Operation() {
+					public int call(RemoteApi api, String token) {
+						return length(api.findArtifactsByParentArtifact(token, parentId));
+					}
+				});
+			}
+		}
+
+		operations.put("findAllTrackers", new Operation() {
+			public int call(RemoteApi api, String token) {
+				return length(api.findAllTrackers(token));
+			}
+		});
+
+		TrackerDto trackers[] = api.findAllTrackers(token);
+		if(trackers != null && trackers.length > 0) {
+			final Integer trackerId = trackers[0].getId();
+			operations.put("findTrackerItemsByTrackerId", new Operation() {
+				public int call(RemoteApi api, String token) {
+					return length(api.findTrackerItemsByTrackerId(token, trackerId));
+				}
+			});
+		}
+
+		return operations;
+	}
+
+	/** Calls the operation <code>warmup</code> times without measuring, then measures <code>iterations</code> calls. */
+	public static Result measure(String name, Operation operation, RemoteApi api, String token, int warmup, int iterations) {
+		for(int i = 0; i < warmup; i++)
+			operation.call(api, token);
+
+		long samples[] = new long[iterations];
+		int items = 0;
+		for(int i = 0; i < iterations; i++) {
+			long startTime = System.nanoTime();
+			items = operation.call(api, token);
+			samples[i] = System.nanoTime() - startTime;
+		}
+
+		return new Result(name, items, samples);
+	}
+
+	/** Saves the results as CSV. */
+	public static void writeResults(List<Result> results, File file) throws IOException {
+		OutputStream out = new FileOutputStream(file);
+		try {
+			CSVPrinter printer = new CSVPrinter(out);
+			printer.writeln(ResultHeader);
+			for(Result result : results) {
+				printer.writeln(new String[] {
+						result.getName(),
+						String.valueOf(result.getIterations()),
+						String.valueOf(result.getItems()),
+						String.valueOf(result.getMean() / 1000),
+						String.valueOf(result.getStandardDeviation() / 1000),
+						String.valueOf(result.getPercentile(0) / 1000),
+						String.valueOf(result.getPercentile(50) / 1000),
+						String.valueOf(result.getPercentile(90) / 1000),
+						String.valueOf(result.getPercentile(99) / 1000),
+						String.valueOf(result.getPercentile(100) / 1000),
+						String.valueOf(result.getCallsPerSecond())
+				});
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/** Reads the mean call times, in microseconds, from a result file saved earlier. */
+	public static Map<String, Double> readMeans(File file) throws IOException {
+		Map<String, Double> means = new HashMap<String, Double>();
+		InputStream in = new FileInputStream(file);
+		try {
+			CSVParser parser = new CSVParser(in, ',');
+
+			// parse by skipping the first row
+			String values[] = parser.getLine();
+			while((values = parser.getLine()) != null)
+				means.put(values[0], Double.valueOf(values[3]));
+		} finally {
+			in.close();
+		}
+
+		return means;
+	}
+
+	/**
+	 * Compares the mean call times to the baseline.
+	 * @return <code>false</code> if any of the operations got slower by more than the tolerance.
+	 */
+	public static boolean compare(List<Result> results, Map<String, Double> baseline, int tolerancePercent) {
+		boolean passed = true;
+		for(Result result : results) {
+			Double expected = baseline.get(result.getName());
+			if(expected == null)
+				continue;
+
+			double mean = result.getMean() / 1000;
+			double change = (expected.doubleValue() > 0) ? 100.0 * (mean - expected.doubleValue()) / expected.doubleValue() : 0.0;
+			boolean regression = change > tolerancePercent;
+			System.out.println(result.getName() + ": " + formatter.format(mean) + " us, baseline " + formatter.format(expected) + " us ("
+					+ (change >= 0 ? "+" : "") + formatter.format(change) + "%)" + (regression ? " REGRESSION" : ""));
+
+			passed &= !regression;
+		}
+
+		return passed;
+	}
+
+	private static int length(Object array[]) {
+		return (array != null) ? array.length : 0;
+	}
+
+	/** The measured call times of an operation. */
+	public static class Result {
+		private final String name;
+		private final int items;
+		private final long samples[];
+
+		/**
+		 * @param samples the call times in nanoseconds.
+		 */
+		public Result(String name, int items, long samples[]) {
+			this.name = name;
+			this.items = items;
+			this.samples = samples.clone();
+			Arrays.sort(this.samples);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/** Returns the number of items returned by the last call. */
+		public int getItems() {
+			return items;
+		}
+
+		public int getIterations() {
+			return samples.length;
+		}
+
+		/** Returns the mean call time in nanoseconds. */
+		public double getMean() {
+			if(samples.length == 0)
+				return 0.0;
+
+			double sum = 0;
+			for(int i = 0; i < samples.length; i++)
+				sum += samples[i];
+			return sum / samples.length;
+		}
+
+		/** Returns the standard deviation of the call times in nanoseconds. */
+		public double getStandardDeviation() {
+			if(samples.length < 2)
+				return 0.0;
+
+			double mean = getMean();
+			double sum = 0;
+			for(int i = 0; i < samples.length; i++)
+				sum += (samples[i] - mean) * (samples[i] - mean);
+			return Math.sqrt(sum / (samples.length - 1));
+		}
+
+		/** Returns the call time in nanoseconds below which the given percent of the calls completed (nearest rank). */
+		public double getPercentile(double percent) {
+			if(samples.length == 0)
+				return 0.0;
+
+			int rank = (int) Math.ceil(percent / 100 * samples.length);
+			return samples[Math.min(samples.length - 1, Math.max(0, rank - 1))];
+		}
+
+		/** Returns the number of calls per second of a single caller. */
+		public double getCallsPerSecond() {
+			double mean = getMean();
+			return (mean > 0) ? 1e9 / mean : 0.0;
+		}
+
+		public String toString() {
+			return items + " items, mean " + formatter.format(getMean() / 1000) + " us +/- " + formatter.format(getStandardDeviation() / 1000)
+				+ ", p50 " + formatter.format(getPercentile(50) / 1000) + " us, p99 " + formatter.format(getPercentile(99) / 1000)
+				+ " us, " + formatter.format(getCallsPerSecond()) + " calls/s";
+		}
+	}
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+
+/**
+ * The metrics of the remote API calls, per method, recorded by {@link InstrumentedRemoteApi}.
+ * <p>
+ * The metrics of a method are created at its first call: the number of calls and failed calls,
+ * the latency histogram, the request and response sizes, and the number of slow calls.
+ * They can be read directly, as a snapshot of meters named in the manner of Micrometer
+ * (see {@link #getMeters()}, to be copied into a metrics registry), or through JMX once
+ * {@link #registerMBeans(String)} is called, as an MBean per method.
+ * <p>
+ * Recording is lock free, so a registry can be shared by all the sessions of an application.
+ *
+ * @version $Id$
+ */
+public class RemoteApiMetrics {
+	/** The domain of the MBeans. */
+	public static final String JMX_DOMAIN = "com.intland.codebeamer.remoting.sample";
+
+	private final ConcurrentMap<String, MethodMetrics> methods = new ConcurrentHashMap<String, MethodMetrics>();
+	private volatile String jmxName;
+
+	/** The attributes of the MBean of a method, the latencies are in microseconds. */
+	public interface MethodMetricsMBean {
+		long getCalls();
+		long getErrors();
+		long getSlowCalls();
+		double getMeanMicros();
+		long getP50Micros();
+		long getP95Micros();
+		long getP99Micros();
+		long getMaxMicros();
+		long getRequestBytes();
+		long getResponseBytes();
+	}
+
+	/** The metrics of a method. */
+	public static class MethodMetrics implements MethodMetricsMBean {
+		private final String name;
+		private final LatencyHistogram latencies = new LatencyHistogram();
+		private final AtomicLong errors = new AtomicLong();
+		private final AtomicLong slowCalls = new AtomicLong();
+		private final AtomicLong requestBytes = new AtomicLong();
+		private final AtomicLong responseBytes = new AtomicLong();
+
+		MethodMetrics(String name) {
+			this.name = name;
+		}
+
+		/** Records a call. */
+		public void record(long nanos, boolean failed, boolean slow, long request, long response) {
+			latencies.recordNanos(nanos);
+			if(failed)
+				errors.incrementAndGet();
+			if(slow)
+				slowCalls.incrementAndGet();
+			if(request > 0)
+				requestBytes.addAndGet(request);
+			if(response > 0)
+				responseBytes.addAndGet(response);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public LatencyHistogram getLatencies() {
+			return latencies;
+		}
+
+		public long getCalls() {
+			return latencies.getCount();
+		}
+
+		public long getErrors() {
+			return errors.get();
+		}
+
+		public long getSlowCalls() {
+			return slowCalls.get();
+		}
+
+		public double getMeanMicros() {
+			return latencies.getMean();
+		}
+
+		public long getP50Micros() {
+			return latencies.getValueAtPercentile(50);
+		}
+
+		public long getP95Micros() {
+			return latencies.getValueAtPercentile(95);
+		}
+
+		public long getP99Micros() {
+			return latencies.getValueAtPercentile(99);
+		}
+
+		public long getMaxMicros() {
+			return latencies.getMax();
+		}
+
+		public long getRequestBytes() {
+			return requestBytes.get();
+		}
+
+		public long getResponseBytes() {
+			return responseBytes.get();
+		}
+
+		public String toString() {
+			return name + ": " + getCalls() + " calls, " + getErrors() + " errors, p50 " + getP50Micros() + " us, p99 "
+				+ getP99Micros() + " us, max " + getMaxMicros() + " us, " + getRequestBytes() + " bytes sent, "
+				+ getResponseBytes() + " bytes received";
+		}
+	}
+
+	/** Returns the metrics of the method, created at the first call. */
+	public MethodMetrics getMethod(String name) {
+		MethodMetrics method = methods.get(name);
+		if(method == null) {
+			MethodMetrics created = new MethodMetrics(name);
+			method = methods.putIfAbsent(name, created);
+			if(method == null) {
+				method = created;
+				if(jmxName != null) {
+					synchronized(this) {
+						if(jmxName != null)
+							register(method, jmxName);
+					}
+				}
+			}
+		}
+		return method;
+	}
+
+	/** Returns the metrics of the methods called so far, sorted by name. */
+	public List<MethodMetrics> getMethods() {
+		List<MethodMetrics> result = new ArrayList<MethodMetrics>(new TreeMap<String, MethodMetrics>(methods).values());
+		return Collections.unmodifiableList(result);
+	}
+
+	/**
+	 * Returns the current values of the meters, by Micrometer style names with the method as a tag,
+	 * for example <code>remoteapi.calls{method=findAllProjects}</code>. The latencies are in seconds.
+	 */
+	public SortedMap<String, Number> getMeters() {
+		SortedMap<String, Number> meters = new TreeMap<String, Number>();
+		for(MethodMetrics method : methods.values()) {
+			String tags = "{method=" + method.getName() + "}";
+			meters.put("remoteapi.calls" + tags, Long.valueOf(method.getCalls()));
+			meters.put("remoteapi.errors" + tags, Long.valueOf(method.getErrors()));
+			meters.put("remoteapi.slow.calls" + tags, Long.valueOf(method.getSlowCalls()));
+			meters.put("remoteapi.latency.mean" + tags, Double.valueOf(method.getMeanMicros() / 1e6));
+			meters.put("remoteapi.latency.p50" + tags, Double.valueOf(method.getP50Micros() / 1e6));
+			meters.put("remoteapi.latency.p95" + tags, Double.valueOf(method.getP95Micros() / 1e6));
+			meters.put("remoteapi.latency.p99" + tags, Double.valueOf(method.getP99Micros() / 1e6));
+			meters.put("remoteapi.latency.max" + tags, Double.valueOf(method.getMaxMicros() / 1e6));
+			meters.put("remoteapi.request.bytes" + tags, Long.valueOf(method.getRequestBytes()));
+			meters.put("remoteapi.response.bytes" + tags, Long.valueOf(method.getResponseBytes()));
+		}
+		return meters;
+	}
+
+	/**
+	 * Registers the metrics of the methods (also of the ones called later) in the platform MBean server,
+	 * as <code>com.intland.codebeamer.remoting.sample:type=RemoteApi,name=<i>name</i>,method=<i>method</i></code>.
+	 */
+	public synchronized void registerMBeans(String name) {
+		if(jmxName != null)
+			throw new IllegalStateException("The MBeans are already registered as " + jmxName);
+
+		jmxName = name;
+		for(MethodMetrics method : methods.values())
+			register(method, name);
+	}
+
+	/** Removes the MBeans registered by {@link #registerMBeans(String)}. */
+	public synchronized void unregisterMBeans() {
+		if(jmxName == null)
+			return;
+
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		for(MethodMetrics method : methods.values()) {
+			try {
+				ObjectName objectName = getObjectName(jmxName, method);
+				if(server.isRegistered(objectName))
+					server.unregisterMBean(objectName);
+			} catch(JMException ex) {
+				System.err.println("Couldn't unregister the metrics of " + method.getName() + ": " + ex);
+			}
+		}
+		jmxName = null;
+	}
+
+	/** Prints the metrics of the methods called so far, one line per method. */
+	public void print(PrintStream out) {
+		for(MethodMetrics method : getMethods())
+			out.println(method);
+	}
+
+	public String toString() {
+		long calls = 0;
+		long errors = 0;
+		for(Map.Entry<String, MethodMetrics> entry : methods.entrySet()) {
+			calls += entry.getValue().getCalls();
+			errors += entry.getValue().getErrors();
+		}
+		return methods.size() + " methods, " + calls + " calls, " + errors + " errors";
+	}
+
+	private static void register(MethodMetrics method, String name) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = getObjectName(name, method);
+			if(!server.isRegistered(objectName))
+				server.registerMBean(new StandardMBean(method, MethodMetricsMBean.class), objectName);
+		} catch(JMException ex) {
+			System.err.println("Couldn't register the metrics of " + method.getName() + ": " + ex);
+		}
+	}
+
+	private static ObjectName getObjectName(String name, MethodMetrics method) throws JMException {
+		return new ObjectName(JMX_DOMAIN + ":type=RemoteApi,name=" + ObjectName.quote(name) + ",method=" + method.getName());
+	}
+}
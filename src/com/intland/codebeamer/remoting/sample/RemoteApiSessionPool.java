@@ -0,0 +1,299 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.intland.codebeamer.persistence.util.exception.CodebeamerException;
+import com.intland.codebeamer.remoting.RemoteApi;
+import com.intland.codebeamer.remoting.client.IRemoteApiClientFactory;
+import com.intland.codebeamer.remoting.client.RemoteApiClientFactory;
+import com.intland.codebeamer.remoting.client.RetryingRemoteApiClientFactory;
+
+
+/**
+ * A pool of signed in sessions to be shared by multiple threads.
+ * <p>
+ * The sessions are created on demand, up to the size of the pool, and handed out to one
+ * thread at a time. Every session is connected through a {@link RetryingRemoteApiClientFactory},
+ * which signs in again transparently when the token expires. A session that has been idle
+ * longer than the validation interval is checked before it is handed out, and replaced if the
+ * check fails.
+ * <p>
+ * Typical use:
+ * <pre>
+ * RemoteApiSessionPool.Session session = pool.borrow();
+ * try {
+ *     session.getApi().findProjectById(session.getToken(), projectId);
+ * } finally {
+ *     pool.release(session);
+ * }
+ * </pre>
+ *
+ * @version $Id$
+ */
+public class RemoteApiSessionPool {
+	/** Default time after which an idle session is checked before handing it out. */
+	public static final long DEFAULT_VALIDATION_INTERVAL_MILLIS = 60000;
+
+	/** The waiting threads try to create a session this often, as a freed slot is not signalled. */
+	private static final long WAIT_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	private final URL serviceUrl;
+	private final String login;
+	private final String password;
+	private final int size;
+	private final BlockingQueue<Session> idle = new LinkedBlockingQueue<Session>();
+	private final List<Session> sessions = new ArrayList<Session>();
+	private int connecting = 0;
+	private volatile long validationIntervalMillis = DEFAULT_VALIDATION_INTERVAL_MILLIS;
+	private volatile boolean closed = false;
+
+	private final AtomicInteger inUse = new AtomicInteger();
+	private final AtomicInteger peakInUse = new AtomicInteger();
+	private final AtomicLong borrows = new AtomicLong();
+	private final AtomicLong waits = new AtomicLong();
+	private final AtomicLong waitNanos = new AtomicLong();
+	private final AtomicLong validations = new AtomicLong();
+	private final AtomicLong replacements = new AtomicLong();
+
+	/**
+	 * @param size the maximum number of sessions.
+	 */
+	public RemoteApiSessionPool(String serviceUrl, String login, String password, int size) throws MalformedURLException {
+		if(size < 1)
+			throw new IllegalArgumentException("The size of the pool must be positive: " + size);
+
+		this.serviceUrl = new URL(serviceUrl);
+		this.login = login;
+		this.password = password;
+		this.size = size;
+	}
+
+	public void setValidationIntervalMillis(long validationIntervalMillis) {
+		this.validationIntervalMillis = validationIntervalMillis;
+	}
+
+	/** Returns a session, waiting until one is available. */
+	public Session borrow() throws InterruptedException, CodebeamerException {
+		return borrow(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns a session, waiting at most the given time until one is available.
+	 * @return the session or <code>null</code> if none became available in time.
+	 */
+	public Session borrow(long timeout, TimeUnit unit) throws InterruptedException, CodebeamerException {
+		if(closed)
+			throw new IllegalStateException("The pool is closed");
+
+		Session session = idle.poll();
+		if(session == null)
+			session = create();
+		if(session == null) {
+			long startTime = System.nanoTime();
+			long remaining = unit.toNanos(timeout);
+			waits.incrementAndGet();
+			try {
+				// the slot of a session dropped by a failed validation can only be taken by creating a new one
+				while(session == null && remaining > 0) {
+					session = idle.poll(Math.min(remaining, WAIT_SLICE_NANOS), TimeUnit.NANOSECONDS);
+					if(closed)
+						throw new IllegalStateException("The pool is closed");
+					if(session == null)
+						session = create();
+					remaining = unit.toNanos(timeout) - (System.nanoTime() - startTime);
+				}
+			} finally {
+				waitNanos.addAndGet(System.nanoTime() - startTime);
+			}
+			if(session == null)
+				return null;
+		}
+
+		if(System.currentTimeMillis() - session.lastUsed > validationIntervalMillis)
+			session = validate(session);
+
+		borrows.incrementAndGet();
+		int current = inUse.incrementAndGet();
+		int peak;
+		while(current > (peak = peakInUse.get()) && !peakInUse.compareAndSet(peak, current))
+			;
+
+		return session;
+	}
+
+	/** Returns the session to the pool. */
+	public void release(Session session) {
+		inUse.decrementAndGet();
+		session.lastUsed = System.currentTimeMillis();
+		if(closed) {
+			session.factory.disconnect();
+		} else {
+			idle.offer(session);
+		}
+	}
+
+	/** Signs out all the sessions, the sessions in use are signed out when released. */
+	public void close() {
+		closed = true;
+		Session session;
+		while((session = idle.poll()) != null)
+			session.factory.disconnect();
+	}
+
+	/**
+	 * Creates a new session if the pool is not full yet. The slot is reserved under the lock,
+	 * but the session signs in outside of it, so that the other threads are not blocked meanwhile.
+	 */
+	private Session create() throws CodebeamerException {
+		synchronized(sessions) {
+			if(sessions.size() + connecting >= size)
+				return null;
+			connecting++;
+		}
+
+		Session session = null;
+		try {
+			session = connect();
+			return session;
+		} finally {
+			synchronized(sessions) {
+				connecting--;
+				if(session != null)
+					sessions.add(session);
+			}
+		}
+	}
+
+	private Session connect() throws CodebeamerException {
+		IRemoteApiClientFactory factory = new RetryingRemoteApiClientFactory(new RemoteApiClientFactory(serviceUrl, login, password));
+		return new Session(factory, factory.connect());
+	}
+
+	/** Checks the session, and replaces it with a new one if it is no longer usable. */
+	private Session validate(Session session) throws CodebeamerException {
+		validations.incrementAndGet();
+		try {
+			if(session.api.getSessionUser(session.getToken()) != null)
+				return session;
+		} catch(RuntimeException ex) {
+			System.err.println("Session validation failed: " + ex);
+		}
+
+		replacements.incrementAndGet();
+		try {
+			session.factory.disconnect();
+		} catch(RuntimeException ex) {
+			// the session is dropped anyway
+		}
+
+		Session replacement;
+		try {
+			replacement = connect();
+		} catch(CodebeamerException ex) {
+			dropped(session);
+			throw ex;
+		} catch(RuntimeException ex) {
+			dropped(session);
+			throw ex;
+		}
+		synchronized(sessions) {
+			sessions.set(sessions.indexOf(session), replacement);
+		}
+		return replacement;
+	}
+
+	/** Frees the slot of a session which could not be replaced, so that a later borrow can sign in again. */
+	private void dropped(Session session) {
+		synchronized(sessions) {
+			sessions.remove(session);
+		}
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/** Returns the number of sessions signed in so far. */
+	public int getCreated() {
+		synchronized(sessions) {
+			return sessions.size();
+		}
+	}
+
+	public int getInUse() {
+		return inUse.get();
+	}
+
+	public int getPeakInUse() {
+		return peakInUse.get();
+	}
+
+	public long getBorrows() {
+		return borrows.get();
+	}
+
+	/** Returns the number of times a thread had to wait for a session. */
+	public long getWaits() {
+		return waits.get();
+	}
+
+	/** Returns the total time the threads waited for a session, in milliseconds. */
+	public long getWaitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(waitNanos.get());
+	}
+
+	public long getValidations() {
+		return validations.get();
+	}
+
+	/** Returns the number of sessions replaced because they failed the validation. */
+	public long getReplacements() {
+		return replacements.get();
+	}
+
+	public String toString() {
+		return getInUse() + "/" + getCreated() + " sessions in use (peak " + getPeakInUse() + ", size " + size + "), "
+			+ getBorrows() + " borrows, " + getWaits() + " waits (" + getWaitMillis() + " ms), "
+			+ getValidations() + " validations, " + getReplacements() + " replaced";
+	}
+
+	/** A signed in session, used by one thread at a time. */
+	public static class Session {
+		private final IRemoteApiClientFactory factory;
+		private final RemoteApi api;
+		private volatile long lastUsed = System.currentTimeMillis();
+
+		Session(IRemoteApiClientFactory factory, RemoteApi api) {
+			this.factory = factory;
+			this.api = api;
+		}
+
+		public RemoteApi getApi() {
+			return api;
+		}
+
+		/** Returns the token to pass to the API, it stays valid even if the session is signed in again. */
+		public String getToken() {
+			return factory.getToken();
+		}
+	}
+}
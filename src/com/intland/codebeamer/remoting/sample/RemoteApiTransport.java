@@ -0,0 +1,36 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+
+/**
+ * Opens the HTTP connections the remote API calls are sent through.
+ * <p>
+ * The Hessian proxy sets the request headers (including the session cookie),
+ * writes the call and reads the reply through the returned connection, and
+ * disconnects it when the call is completed. An implementation decides how the
+ * connections are established, kept alive, timed out and compressed.
+ *
+ * @see com.intland.codebeamer.remoting.sample.TransportRemoteApiFactory
+ *
+ * @version $Id$
+ */
+public interface RemoteApiTransport {
+	/**
+	 * Returns a new, not yet connected, connection to the service URL.
+	 */
+	HttpURLConnection openConnection(URL url) throws IOException;
+}
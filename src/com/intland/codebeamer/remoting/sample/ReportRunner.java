@@ -0,0 +1,397 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.intland.codebeamer.persistence.dto.ArtifactDto;
+import com.intland.codebeamer.persistence.dto.ProjectDto;
+import com.intland.codebeamer.persistence.dto.TrackerItemDto;
+import com.intland.codebeamer.remoting.RemoteApi;
+import com.intland.codebeamer.remoting.RemoteApiFactory;
+import com.intland.codebeamer.remoting.ReportType;
+import com.intland.codebeamer.remoting.bean.ServerInfo;
+
+
+/**
+ * This program is part of the CodeBeamer SDK.
+ * <p>
+ * This console application illustrates:
+ * <ul>
+ *   <li>connecting to CodeBeamer</li>
+ *   <li>signing in as a CodeBeamer user</li>
+ *   <li>finding the reports of projects with {@link RemoteApi#findReportsByProject(String, Integer)}</li>
+ *   <li>running many reports in parallel and saving their results to files</li>
+ * </ul>
+ * A report is either rendered by the server with
+ * {@link RemoteApi#executeAndDownloadReport(String, Integer, int, boolean, boolean, String, String)}
+ * (as Excel, PDF, wiki, CSV, XML or mind map), or executed with {@link RemoteApi#executeReport(String, Integer)}
+ * and its tracker items written to a CSV file in the format of the {@link CodeBeamerCsvExporter}.
+ * <p>
+ * The remote API returns the whole result of a report at once, so the number of reports run at the
+ * same time is limited, and every result is written to disk as soon as it arrives and then released:
+ * at most as many results are held in memory as reports are running. The results are first written
+ * to <code>.part</code> files and renamed when complete. The duration, size and memory allocated by
+ * each report are written to a CSV manifest.
+ *
+ * @version $Id$
+ */
+public class ReportRunner {
+	/** Columns of the manifest. */
+	public static final String ManifestHeader[] = { "project", "report", "name", "file", "status", "millis", "bytes", "items", "allocatedBytes", "result" };
+
+	public static final String STATUS_OK = "OK";
+	public static final String STATUS_FAILED = "FAILED";
+
+	/** Executes the reports with {@link RemoteApi#executeReport(String, Integer)} instead of rendering them. */
+	public static final int ITEMS = 0;
+
+	/** Default number of reports run at the same time. */
+	public static final int DEFAULT_THREADS = 4;
+
+	/** Suffix of the files being written. */
+	protected static final String PART_SUFFIX = ".part";
+
+	private final RemoteApi api;
+	private final String token;
+	private final File targetDir;
+	private final int format;
+	private final int threads;
+	private boolean exportComments = false;
+	private boolean exportDescriptions = true;
+
+	private final AtomicInteger completed = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	private final AtomicLong bytes = new AtomicLong();
+
+	/**
+	 * @param format a {@link ReportType} or {@link #ITEMS}.
+	 * @param threads the number of reports run at the same time.
+	 */
+	public ReportRunner(RemoteApi api, String token, File targetDir, int format, int threads) throws IOException {
+		if(threads < 1)
+			throw new IllegalArgumentException("The number of threads must be positive: " + threads);
+		if(!targetDir.isDirectory() && !targetDir.mkdirs())
+			throw new IOException("Couldn't create target directory " + targetDir);
+
+		this.api = api;
+		this.token = token;
+		this.targetDir = targetDir;
+		this.format = format;
+		this.threads = threads;
+	}
+
+	/**
+	 * Main entry point.
+	 * Commandline parsing is not elaborated, for real use
+	 * please consider using the Apache Commons CLI package.
+	 */
+	public static void main(String[] args) throws Exception {
+		if(args.length < 5) {
+			System.err.println("Usage: <program> service-URL (for example http://localhost:8080/cb/remote-api)\n"
+				+ "login password target-dir manifest-file [project-name...]\n"
+				+ "Runs the reports of the given projects (of all projects by default) and saves their results to the target directory.\n"
+				+ "Use -Dcb.report.format=items|excel|pdf|wiki|csv|xml|mindmap (default items, the tracker items as CSV),\n"
+				+ "-Dcb.report.threads=N to run N reports at the same time (default " + DEFAULT_THREADS + "),\n"
+				+ "and -Dcb.report.comments=true or -Dcb.report.descriptions=false to include comments or leave out descriptions.");
+			System.exit(-1);
+		}
+		String serviceUrl = args[0];
+		String login = args[1];
+		String password = args[2];
+		File targetDir = new File(args[3]);
+		File manifest = new File(args[4]);
+		int format = parseFormat(System.getProperty("cb.report.format", "items"));
+
+		System.out.println("Connecting to CodeBeamer web service at " + serviceUrl + "...");
+		RemoteApi api = RemoteApiFactory.getInstance().connect(serviceUrl);
+		if(api == null) {
+			System.err.println("Couldn't connect, is the service URL correct?");
+			System.exit(-1);
+		}
+
+		System.out.println("Signing in...");
+		String token = api.login(login, password);
+		ServerInfo serverInfo = api.getServerInfo();
+		System.out.println("Signed in to CodeBeamer " + serverInfo.getMajorVersion() + serverInfo.getMinorVersion() + " (" + serverInfo.getBuildDate() + ") running on " + serverInfo.getOs() + "/Java " + serverInfo.getJavaVersion());
+
+		List<ProjectDto> projects = new ArrayList<ProjectDto>();
+		if(args.length > 5) {
+			for(int i = 5; i < args.length; i++) {
+				ProjectDto project = api.findProjectByName(token, args[i]);
+				if(project == null) {
+					System.err.println("Couldn't find project \"" + args[i] + "\"");
+					System.exit(-1);
+				}
+				projects.add(project);
+			}
+		} else {
+			ProjectDto all[] = api.findAllProjects(token);
+			for(int i = 0; i < all.length; i++)
+				projects.add(all[i]);
+		}
+
+		ReportRunner runner = new ReportRunner(api, token, targetDir, format, Integer.getInteger("cb.report.threads", DEFAULT_THREADS).intValue());
+		runner.setExportComments(Boolean.getBoolean("cb.report.comments"));
+		runner.setExportDescriptions(!"false".equals(System.getProperty("cb.report.descriptions")));
+
+		System.out.println("Running the reports of " + projects.size() + " projects...");
+		long startTime = System.currentTimeMillis();
+		runner.run(projects.toArray(new ProjectDto[projects.size()]), manifest);
+		System.out.println(runner.getCompleted() + " reports saved (" + runner.getBytes() + " bytes), " + runner.getFailed() + " failed in "
+			+ (System.currentTimeMillis() - startTime) + " ms, see " + manifest);
+
+		System.out.println("Signing out...");
+		api.logout(token);
+
+		System.out.println("Done");
+	}
+
+	/** Returns the format with the given name: <code>items</code> or the name of a {@link ReportType}. */
+	public static int parseFormat(String name) {
+		if("items".equalsIgnoreCase(name))
+			return ITEMS;
+		if("excel".equalsIgnoreCase(name))
+			return ReportType.EXCEL;
+		if("pdf".equalsIgnoreCase(name))
+			return ReportType.PDF;
+		if("wiki".equalsIgnoreCase(name))
+			return ReportType.WIKI;
+		if("csv".equalsIgnoreCase(name))
+			return ReportType.CSV;
+		if("xml".equalsIgnoreCase(name))
+			return ReportType.XML;
+		if("mindmap".equalsIgnoreCase(name))
+			return ReportType.MINDMAP;
+		throw new IllegalArgumentException("Unknown report format: " + name);
+	}
+
+	/** Returns the extension of the result files in the format. */
+	protected static String getExtension(int format) {
+		switch(format) {
+		case ReportType.EXCEL:
+			return ".xls";
+		case ReportType.PDF:
+			return ".pdf";
+		case ReportType.WIKI:
+			return ".txt";
+		case ReportType.XML:
+			return ".xml";
+		case ReportType.MINDMAP:
+			return ".mm";
+		default:
+			return ".csv";
+		}
+	}
+
+	/** Sets whether the rendered reports include the comments of the tracker items. */
+	public void setExportComments(boolean exportComments) {
+		this.exportComments = exportComments;
+	}
+
+	/** Sets whether the rendered reports include the descriptions of the tracker items. */
+	public void setExportDescriptions(boolean exportDescriptions) {
+		this.exportDescriptions = exportDescriptions;
+	}
+
+	/**
+	 * Runs the reports of the projects and writes the outcome of each to the manifest.
+	 * @return the number of reports saved.
+	 */
+	public int run(ProjectDto projects[], File manifest) throws IOException {
+		CsvRowWriter printer = new CsvRowWriter(new FileOutputStream(manifest));
+		try {
+			printer.header(ManifestHeader);
+			run(projects, printer);
+		} finally {
+			printer.close();
+		}
+
+		return completed.get();
+	}
+
+	/**
+	 * Runs the reports of the projects and writes the outcome of each to the printer.
+	 * The reports of a project are saved into a directory named after the project.
+	 * @return the number of reports saved.
+	 */
+	public int run(ProjectDto projects[], CsvRowWriter manifest) throws IOException {
+		ThroughputMonitor monitor = new ThroughputMonitor("reports");
+		ExecutorService executor = SampleExecutor.getInstance().newGroup(token, threads);
+		try {
+			List<Future<?>> runs = new ArrayList<Future<?>>();
+			for(int i = 0; i < projects.length; i++) {
+				ArtifactDto reports[] = api.findReportsByProject(token, projects[i].getId());
+				if(reports == null || reports.length == 0)
+					continue;
+
+				File dir = new File(targetDir, ArtifactMirror.toFileName(projects[i].getName()));
+				if(!dir.isDirectory() && !dir.mkdirs())
+					throw new IOException("Couldn't create directory " + dir);
+
+				for(int j = 0; j < reports.length; j++)
+					runs.add(executor.submit(new Run(projects[i], reports[j], dir, manifest, monitor)));
+			}
+
+			for(Future<?> run : runs)
+				run.get();
+		} catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while running the reports");
+		} catch(ExecutionException ex) {
+			throw new RuntimeException(ex.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		return completed.get();
+	}
+
+	public int getCompleted() {
+		return completed.get();
+	}
+
+	public int getFailed() {
+		return failed.get();
+	}
+
+	/** Returns the total size of the saved results. */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	/** Writes the tracker items of a report, the first column is the index of the group of the item. */
+	protected static int writeItems(TrackerItemDto groups[][], OutputStream out) throws IOException {
+		String header[] = new String[CodeBeamerCsvExporter.TrackerHeader.length + 1];
+		header[0] = "group";
+		System.arraycopy(CodeBeamerCsvExporter.TrackerHeader, 0, header, 1, CodeBeamerCsvExporter.TrackerHeader.length);
+
+		int items = 0;
+		CsvRowWriter printer = new CsvRowWriter(out);
+		try {
+			printer.header(header);
+			for(int i = 0; groups != null && i < groups.length; i++) {
+				for(int j = 0; groups[i] != null && j < groups[i].length; j++) {
+					printer.field(i);
+					CodeBeamerCsvExporter.writeTrackerItem(printer, groups[i][j]);
+					items++;
+				}
+			}
+		} finally {
+			printer.close();
+		}
+		return items;
+	}
+
+	/** Returns the bytes allocated by the current thread so far, or <code>-1</code> if the JVM does not measure it. */
+	protected static long getAllocatedBytes() {
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if(threadBean instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threadBean;
+			if(allocation.isThreadAllocatedMemorySupported() && allocation.isThreadAllocatedMemoryEnabled())
+				return allocation.getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	/** Runs one report and saves its result to a temporary file, then renames it. */
+	private class Run implements Callable<Object> {
+		private final ProjectDto project;
+		private final ArtifactDto report;
+		private final File file;
+		private final CsvRowWriter manifest;
+		private final ThroughputMonitor monitor;
+
+		Run(ProjectDto project, ArtifactDto report, File dir, CsvRowWriter manifest, ThroughputMonitor monitor) {
+			this.project = project;
+			this.report = report;
+			this.file = new File(dir, report.getId() + "-" + ArtifactMirror.toFileName(report.getName()) + getExtension(format));
+			this.manifest = manifest;
+			this.monitor = monitor;
+		}
+
+		public Object call() throws IOException {
+			long startTime = System.currentTimeMillis();
+			long startAllocated = getAllocatedBytes();
+			File partFile = new File(file.getPath() + PART_SUFFIX);
+			String status = STATUS_FAILED;
+			String result = null;
+			int items = -1;
+
+			try {
+				OutputStream out = new FileOutputStream(partFile);
+				try {
+					if(format == ITEMS) {
+						items = writeItems(api.executeReport(token, report.getId()), out);
+					} else {
+						byte content[] = api.executeAndDownloadReport(token, report.getId(), format, exportComments, exportDescriptions, "\n", ",");
+						if(content == null)
+							throw new IOException("Empty content");
+						out.write(content);
+					}
+				} finally {
+					out.close();
+				}
+
+				if(file.exists() && !file.delete() || !partFile.renameTo(file))
+					throw new IOException("Couldn't rename " + partFile + " to " + file);
+				status = STATUS_OK;
+				result = file.getPath();
+			} catch(Exception ex) {
+				result = ex.toString();
+				partFile.delete();
+			}
+
+			long millis = System.currentTimeMillis() - startTime;
+			long allocated = (startAllocated >= 0) ? getAllocatedBytes() - startAllocated : -1;
+			long size = STATUS_OK.equals(status) ? file.length() : 0;
+			if(STATUS_OK.equals(status)) {
+				completed.incrementAndGet();
+				bytes.addAndGet(size);
+			} else {
+				failed.incrementAndGet();
+				System.err.println("Couldn't run report \"" + report.getName() + "\" of project \"" + project.getName() + "\": " + result);
+			}
+			monitor.increment();
+
+			synchronized(manifest) {
+				manifest.field(project.getName());
+				manifest.field(report.getId());
+				manifest.field(report.getName());
+				manifest.field(file.getName());
+				manifest.field(status);
+				manifest.field(Long.valueOf(millis));
+				manifest.field(Long.valueOf(size));
+				manifest.field((items >= 0) ? Integer.valueOf(items) : null);
+				manifest.field((allocated >= 0) ? Long.valueOf(allocated) : null);
+				manifest.field(result);
+				manifest.endRow();
+			}
+
+			return null;
+		}
+	}
+}
@@ -0,0 +1,400 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+
+/**
+ * Runs the remote calls of the sample tools on a shared pool of threads.
+ * <p>
+ * The number of tasks running at the same time is limited globally by the number of
+ * threads, per session (so that one session does not flood the server), and per
+ * {@link TaskGroup}. A tool submits its tasks to a group, which is an {@link java.util.concurrent.ExecutorService}
+ * of its own: tasks queued because of a limit do not hold a thread, and shutting down the group
+ * leaves the shared threads to the other groups.
+ * <p>
+ * When a task of a group fails with an exception, the group fails: the other tasks of the
+ * group fail with the same exception (the running ones are interrupted), no more tasks are
+ * accepted, and {@link TaskGroup#await()} rethrows the failure. Tasks that handle their own
+ * errors, for example by counting them, are not affected.
+ * <p>
+ * The shared executor is configured by <code>-Dcb.threads</code> (default 4 per processor) and
+ * <code>-Dcb.threads.perSession</code> (default {@value #DEFAULT_MAX_PER_SESSION}).
+ *
+ * @version $Id$
+ */
+public class SampleExecutor {
+	/** Default maximum number of tasks running at the same time for a session. */
+	public static final int DEFAULT_MAX_PER_SESSION = 8;
+
+	private static SampleExecutor Instance;
+
+	private final ThreadPoolExecutor pool;
+	private final int maxPerSession;
+	private final Map<String, SessionLimit> sessions = new HashMap<String, SessionLimit>();
+
+	/**
+	 * @param threads the maximum number of tasks running at the same time.
+	 * @param maxPerSession the maximum number of tasks of a session running at the same time.
+	 */
+	public SampleExecutor(int threads, int maxPerSession) {
+		if(threads < 1)
+			throw new IllegalArgumentException("The number of threads must be positive: " + threads);
+		if(maxPerSession < 1)
+			throw new IllegalArgumentException("The limit per session must be positive: " + maxPerSession);
+
+		this.maxPerSession = maxPerSession;
+		this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "cb-worker-" + count.incrementAndGet());
+				// the shared threads must not keep the tools running
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.pool.allowCoreThreadTimeOut(true);
+	}
+
+	/** Returns the executor shared by the tools, configured by the system properties. */
+	public static synchronized SampleExecutor getInstance() {
+		if(Instance == null) {
+			Instance = new SampleExecutor(Integer.getInteger("cb.threads", 4 * Runtime.getRuntime().availableProcessors()).intValue(),
+					Integer.getInteger("cb.threads.perSession", DEFAULT_MAX_PER_SESSION).intValue());
+		}
+		return Instance;
+	}
+
+	public int getThreads() {
+		return pool.getMaximumPoolSize();
+	}
+
+	public int getMaxPerSession() {
+		return maxPerSession;
+	}
+
+	/**
+	 * Returns a new group for the tasks of a session.
+	 * @param session identifies the session, typically its token, the tasks of the groups
+	 * of the same session share the limit per session. <code>null</code> means no limit per session.
+	 * @param parallelism the maximum number of tasks of the group running at the same time,
+	 * a warning is logged if the number of threads or the limit per session is lower.
+	 */
+	public TaskGroup newGroup(String session, int parallelism) {
+		if(parallelism < 1)
+			throw new IllegalArgumentException("The parallelism must be positive: " + parallelism);
+
+		// the thread counts of the tools are capped by the shared limits, tell the user
+		if(session != null && parallelism > maxPerSession && maxPerSession <= getThreads())
+			System.err.println("Running at most " + maxPerSession + " of the " + parallelism + " requested tasks at the same time, set -Dcb.threads.perSession to raise the limit per session");
+		else if(parallelism > getThreads())
+			System.err.println("Running at most " + getThreads() + " of the " + parallelism + " requested tasks at the same time, set -Dcb.threads to raise the number of threads");
+
+		SessionLimit sessionLimit = null;
+		if(session != null) {
+			synchronized(sessions) {
+				sessionLimit = sessions.get(session);
+				if(sessionLimit == null) {
+					sessionLimit = new SessionLimit(session);
+					sessions.put(session, sessionLimit);
+				}
+				sessionLimit.groups++;
+			}
+		}
+
+		return new TaskGroup(sessionLimit, parallelism);
+	}
+
+	/** Returns the number of tasks running or waiting for a thread. */
+	public int getActive() {
+		return pool.getActiveCount() + pool.getQueue().size();
+	}
+
+	public String toString() {
+		return getActive() + " tasks on " + getThreads() + " threads (" + maxPerSession + " per session)";
+	}
+
+	/** Passes the tasks on to the target, at most the limit at a time, queuing the others. */
+	private static class LimitedExecutor implements Executor {
+		private final Executor target;
+		private final int limit;
+		private final LinkedList<Runnable> queue = new LinkedList<Runnable>();
+		private int running = 0;
+
+		LimitedExecutor(Executor target, int limit) {
+			this.target = target;
+			this.limit = limit;
+		}
+
+		public void execute(final Runnable task) {
+			synchronized(this) {
+				queue.add(new Runnable() {
+					public void run() {
+						try {
+							task.run();
+						} finally {
+							completed();
+						}
+					}
+				});
+			}
+			dispatch();
+		}
+
+		private void completed() {
+			synchronized(this) {
+				running--;
+			}
+			dispatch();
+		}
+
+		private void dispatch() {
+			while(true) {
+				Runnable next;
+				synchronized(this) {
+					if(running >= limit || queue.isEmpty())
+						return;
+					next = queue.removeFirst();
+					running++;
+				}
+				try {
+					target.execute(next);
+				} catch(RuntimeException ex) {
+					synchronized(this) {
+						running--;
+					}
+					throw ex;
+				}
+			}
+		}
+	}
+
+	/** The limit of the tasks of a session, shared by the groups of the session. */
+	private class SessionLimit {
+		private final String session;
+		private final LimitedExecutor executor;
+		private int groups = 0;
+
+		SessionLimit(String session) {
+			this.session = session;
+			this.executor = new LimitedExecutor(pool, maxPerSession);
+		}
+
+		void release() {
+			synchronized(sessions) {
+				if(--groups == 0)
+					sessions.remove(session);
+			}
+		}
+	}
+
+	/**
+	 * The tasks of a tool, with their own limit, which fail together.
+	 */
+	public class TaskGroup extends AbstractExecutorService {
+		private final SessionLimit sessionLimit;
+		private final LimitedExecutor executor;
+		private final Set<GroupTask<?>> tasks = Collections.newSetFromMap(new ConcurrentHashMap<GroupTask<?>, Boolean>());
+		private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		private volatile boolean shutdown = false;
+		private boolean terminated = false;
+
+		TaskGroup(SessionLimit sessionLimit, int parallelism) {
+			this.sessionLimit = sessionLimit;
+			this.executor = new LimitedExecutor((sessionLimit != null) ? sessionLimit.executor : pool, parallelism);
+		}
+
+		protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+			return new GroupTask<T>(callable);
+		}
+
+		protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+			return new GroupTask<T>(runnable, value);
+		}
+
+		public void execute(Runnable command) {
+			GroupTask<?> task = (command instanceof GroupTask) ? (GroupTask<?>) command : (GroupTask<?>) newTaskFor(command, null);
+			synchronized(this) {
+				if(shutdown) {
+					Throwable cause = failure.get();
+					throw new RejectedExecutionException((cause != null) ? "The task group failed: " + cause : "The task group is shut down");
+				}
+				tasks.add(task);
+			}
+
+			try {
+				executor.execute(task);
+			} catch(RuntimeException ex) {
+				removed(task);
+				throw ex;
+			}
+		}
+
+		/** Returns the exception the group failed with, or <code>null</code>. */
+		public Throwable getFailure() {
+			return failure.get();
+		}
+
+		/**
+		 * Stops accepting tasks and waits until the submitted ones complete.
+		 * @throws ExecutionException if the group failed.
+		 */
+		public void await() throws InterruptedException, ExecutionException {
+			shutdown();
+			awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+			if(failure.get() != null)
+				throw new ExecutionException(failure.get());
+		}
+
+		/** Fails the group, the tasks not completed yet fail with the given exception. */
+		public void fail(Throwable cause) {
+			if(!failure.compareAndSet(null, cause))
+				return;
+
+			shutdown();
+			for(GroupTask<?> task : new ArrayList<GroupTask<?>>(tasks))
+				task.abort(cause);
+		}
+
+		public void shutdown() {
+			synchronized(this) {
+				shutdown = true;
+			}
+			checkTerminated();
+		}
+
+		public List<Runnable> shutdownNow() {
+			shutdown();
+			for(GroupTask<?> task : new ArrayList<GroupTask<?>>(tasks))
+				task.cancel(true);
+			return new ArrayList<Runnable>();
+		}
+
+		public boolean isShutdown() {
+			return shutdown;
+		}
+
+		public synchronized boolean isTerminated() {
+			return terminated;
+		}
+
+		public synchronized boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+			long deadline = System.nanoTime() + unit.toNanos(timeout);
+			while(!terminated) {
+				long remaining = deadline - System.nanoTime();
+				if(remaining <= 0)
+					return false;
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			}
+			return true;
+		}
+
+		/** Returns the number of tasks submitted but not completed yet. */
+		public int getPending() {
+			return tasks.size();
+		}
+
+		private void removed(GroupTask<?> task) {
+			tasks.remove(task);
+			checkTerminated();
+		}
+
+		private void checkTerminated() {
+			synchronized(this) {
+				if(terminated || !shutdown || !tasks.isEmpty())
+					return;
+
+				terminated = true;
+				notifyAll();
+			}
+			if(sessionLimit != null)
+				sessionLimit.release();
+		}
+
+		public String toString() {
+			return getPending() + " pending tasks" + (shutdown ? ", shut down" : "") + ((failure.get() != null) ? ", failed: " + failure.get() : "");
+		}
+
+		/** A task which fails its group if it throws an exception. */
+		private class GroupTask<T> extends FutureTask<T> {
+			private Thread runner;
+
+			GroupTask(Callable<T> callable) {
+				super(callable);
+			}
+
+			GroupTask(Runnable runnable, T value) {
+				super(runnable, value);
+			}
+
+			public void run() {
+				synchronized(this) {
+					runner = Thread.currentThread();
+				}
+				try {
+					super.run();
+				} finally {
+					synchronized(this) {
+						runner = null;
+					}
+					// an abort arriving after the task completed must not hit the next task of the thread
+					Thread.interrupted();
+				}
+			}
+
+			/** Fails the task with the failure of the group, interrupting it if it is running. */
+			void abort(Throwable cause) {
+				setException(cause);
+				synchronized(this) {
+					if(runner != null)
+						runner.interrupt();
+				}
+			}
+
+			protected void done() {
+				if(!isCancelled()) {
+					try {
+						get();
+					} catch(ExecutionException ex) {
+						fail(ex.getCause());
+					} catch(InterruptedException ex) {
+						// the task is done, so get() does not wait
+						Thread.currentThread().interrupt();
+					}
+				}
+				removed(this);
+			}
+		}
+	}
+}
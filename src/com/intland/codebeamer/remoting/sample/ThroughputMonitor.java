@@ -0,0 +1,89 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.text.NumberFormat;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Counts processed rows and periodically prints the current count and
+ * the average rate (rows/s) to the console.
+ * <p>
+ * It is safe to call {@link #increment()} and {@link #add(long)} from multiple threads.
+ *
+ * @version $Id$
+ */
+public class ThroughputMonitor {
+	/** Default interval between two progress reports. */
+	public static final long DEFAULT_REPORT_INTERVAL_MILLIS = 10000;
+
+	private final NumberFormat formatter = NumberFormat.getInstance();
+	private final String unit;
+	private final long reportIntervalNanos;
+	private final long startTime;
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong nextReportTime;
+
+	public ThroughputMonitor(String unit) {
+		this(unit, DEFAULT_REPORT_INTERVAL_MILLIS);
+	}
+
+	public ThroughputMonitor(String unit, long reportIntervalMillis) {
+		this.unit = unit;
+		this.reportIntervalNanos = TimeUnit.MILLISECONDS.toNanos(reportIntervalMillis);
+		this.startTime = System.nanoTime();
+		this.nextReportTime = new AtomicLong(startTime + reportIntervalNanos);
+		formatter.setMaximumFractionDigits(1);
+	}
+
+	/**
+	 * Registers one more processed row and prints the progress
+	 * if the report interval has elapsed.
+	 * @return the number of rows processed so far.
+	 */
+	public long increment() {
+		return add(1);
+	}
+
+	/**
+	 * Registers the given number of processed units (for example bytes)
+	 * and prints the progress if the report interval has elapsed.
+	 * @return the number of units processed so far.
+	 */
+	public long add(long units) {
+		long current = count.addAndGet(units);
+
+		long now = System.nanoTime();
+		long next = nextReportTime.get();
+		if(now - next >= 0 && nextReportTime.compareAndSet(next, now + reportIntervalNanos))
+			System.out.print(" " + current + " (" + formatter.format(getRate(current, now)) + " " + unit + "/s)...");
+
+		return current;
+	}
+
+	/** Returns the number of rows processed so far. */
+	public long getCount() {
+		return count.get();
+	}
+
+	/** Returns the average rate since this monitor was created, in rows/s. */
+	public double getRate() {
+		return getRate(count.get(), System.nanoTime());
+	}
+
+	private double getRate(long rows, long now) {
+		long elapsed = now - startTime;
+		return (elapsed > 0) ? rows * 1e9 / elapsed : 0.0;
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import com.intland.codebeamer.persistence.dto.TrackerChoiceOptionDto;
+import com.intland.codebeamer.persistence.dto.TrackerLayoutLabelDto;
+import com.intland.codebeamer.remoting.RemoteApi;
+import com.intland.codebeamer.remoting.RemoteApi.BatchMethodCall;
+import com.intland.codebeamer.remoting.RemoteApi.BatchMethodResult;
+
+
+/**
+ * Caches the choice options of trackers.
+ * <p>
+ * The options of all the cached choice fields of a tracker are downloaded
+ * with a single {@link RemoteApi#batch(BatchMethodCall[])} call when the tracker
+ * is first asked for, and are indexed by option ID.
+ *
+ * @version $Id$
+ */
+public class TrackerChoiceOptionCache {
+	/** The choice fields whose options are downloaded. */
+	public static final int LABEL_IDS[] = {
+		TrackerLayoutLabelDto.MILESTONES_LABEL_ID,
+		TrackerLayoutLabelDto.VERSION_LABEL_ID,
+		TrackerLayoutLabelDto.PLATFORM_LABEL_ID,
+		TrackerLayoutLabelDto.SUBJECT_LABEL_ID,
+		TrackerLayoutLabelDto.CATEGORY_LABEL_ID,
+		TrackerLayoutLabelDto.RESOLUTION_LABEL_ID,
+		TrackerLayoutLabelDto.SEVERITY_LABEL_ID };
+
+	/** Tracker ID -> label ID -> option ID -> option. */
+	private final Map<Integer, Map<Integer, Map<Integer, TrackerChoiceOptionDto>>> trackers = new HashMap<Integer, Map<Integer, Map<Integer, TrackerChoiceOptionDto>>>();
+
+	/**
+	 * Returns the options of the given choice field of the given tracker, indexed by option ID.
+	 * Downloads the options of the tracker if they are not cached yet.
+	 */
+	public synchronized Map<Integer, TrackerChoiceOptionDto> getOptions(RemoteApi api, String token, Integer trackerId, int labelId) {
+		Map<Integer, Map<Integer, TrackerChoiceOptionDto>> labels = trackers.get(trackerId);
+		if(labels == null) {
+			labels = loadOptions(api, token, trackerId);
+			trackers.put(trackerId, labels);
+		}
+
+		Map<Integer, TrackerChoiceOptionDto> options = labels.get(Integer.valueOf(labelId));
+		if(options == null)
+			return Collections.emptyMap();
+
+		return options;
+	}
+
+	/** Removes all the cached options. */
+	public synchronized void clear() {
+		trackers.clear();
+	}
+
+	/** Downloads the options of all the cached choice fields of the given tracker in one round trip. */
+	protected Map<Integer, Map<Integer, TrackerChoiceOptionDto>> loadOptions(RemoteApi api, String token, Integer trackerId) {
+		BatchMethodCall calls[] = new BatchMethodCall[LABEL_IDS.length];
+		for(int i = 0; i < LABEL_IDS.length; i++)
+			calls[i] = new BatchMethodCall("findTrackerChoiceOptions", new Object[] { token, trackerId, Integer.valueOf(LABEL_IDS[i]) });
+
+		BatchMethodResult<?> results[] = api.batch(calls);
+
+		Map<Integer, Map<Integer, TrackerChoiceOptionDto>> labels = new HashMap<Integer, Map<Integer, TrackerChoiceOptionDto>>();
+		for(int i = 0; i < results.length; i++) {
+			if(results[i].getThrowable() != null) {
+				System.err.println("Couldn't get options of field " + LABEL_IDS[i] + " in tracker " + trackerId + ": " + results[i].getThrowable());
+				continue;
+			}
+
+			TrackerChoiceOptionDto options[] = (TrackerChoiceOptionDto[]) results[i].result;
+			Map<Integer, TrackerChoiceOptionDto> byId = new HashMap<Integer, TrackerChoiceOptionDto>();
+			for(int j = 0; options != null && j < options.length; j++)
+				byId.put(options[j].getId(), options[j]);
+
+			labels.put(Integer.valueOf(LABEL_IDS[i]), byId);
+		}
+
+		return labels;
+	}
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.intland.codebeamer.persistence.dto.ScmChangeSetDto;
+import com.intland.codebeamer.persistence.dto.TrackerDto;
+import com.intland.codebeamer.persistence.dto.TrackerItemDto;
+import com.intland.codebeamer.persistence.dto.UserDto;
+import com.intland.codebeamer.persistence.dto.base.NamedDto;
+import com.intland.codebeamer.remoting.RemoteApi;
+
+
+/**
+ * Resolves the entities referenced by tracker items with the bulk finders of the
+ * {@link RemoteApi}, instead of one call per item.
+ * <p>
+ * {@link #hydrate(TrackerItemDto[])} collects the ids of the submitters, modifiers, assignees,
+ * supervisors and trackers of the items, removes the duplicates and the ones already
+ * resolved by earlier calls, and loads them in chunks. The comments, attachments and SCM
+ * commits of the items, if enabled, are loaded the same way. Exporting the items of a
+ * tracker with their comments, attachments and commits so takes a handful of calls per
+ * chunk of items, instead of three per item.
+ * <p>
+ * The resolved users and trackers are kept for the next calls, so the items can be hydrated
+ * page by page. Their resolution can be turned off if only the comments, attachments or commits
+ * are needed. The instances are not thread safe.
+ *
+ * @version $Id$
+ */
+public class TrackerItemHydrator {
+	/** Default number of ids per bulk call. */
+	public static final int DEFAULT_CHUNK_SIZE = 200;
+
+	private final RemoteApi api;
+	private final String token;
+	private final int chunkSize;
+	private boolean loadComments = false;
+	private boolean loadAttachments = false;
+	private boolean loadCommits = false;
+	private boolean resolveReferences = true;
+
+	private final Map<Integer, UserDto> users = new HashMap<Integer, UserDto>();
+	private final Map<Integer, TrackerDto> trackers = new HashMap<Integer, TrackerDto>();
+	@SuppressWarnings("deprecation")
+	private final Map<Integer, List<com.intland.codebeamer.persistence.dto.TrackerItemCommentDto>> comments = new HashMap<Integer, List<com.intland.codebeamer.persistence.dto.TrackerItemCommentDto>>();
+	@SuppressWarnings("deprecation")
+	private final Map<Integer, List<com.intland.codebeamer.persistence.dto.TrackerItemAttachmentDto>> attachments = new HashMap<Integer, List<com.intland.codebeamer.persistence.dto.TrackerItemAttachmentDto>>();
+	private final Map<Integer, List<ScmChangeSetDto>> commits = new HashMap<Integer, List<ScmChangeSetDto>>();
+
+	private int calls = 0;
+
+	public TrackerItemHydrator(RemoteApi api, String token) {
+		this(api, token, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * @param chunkSize the maximum number of ids passed to a bulk finder.
+	 */
+	public TrackerItemHydrator(RemoteApi api, String token, int chunkSize) {
+		if(chunkSize < 1)
+			throw new IllegalArgumentException("The chunk size must be positive: " + chunkSize);
+
+		this.api = api;
+		this.token = token;
+		this.chunkSize = chunkSize;
+	}
+
+	/** Sets whether to load the comments of the items. */
+	public void setLoadComments(boolean loadComments) {
+		this.loadComments = loadComments;
+	}
+
+	/** Sets whether to load the attachments of the items. */
+	public void setLoadAttachments(boolean loadAttachments) {
+		this.loadAttachments = loadAttachments;
+	}
+
+	/** Sets whether to load the SCM commits referring to the items. */
+	public void setLoadCommits(boolean loadCommits) {
+		this.loadCommits = loadCommits;
+	}
+
+	/**
+	 * Sets whether to resolve the users and trackers referenced by the items, their comments and
+	 * attachments, <code>true</code> by default. If not, the items are only used to load the
+	 * enabled comments, attachments and commits.
+	 */
+	public void setResolveReferences(boolean resolveReferences) {
+		this.resolveReferences = resolveReferences;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/** Returns the number of remote calls made so far. */
+	public int getCalls() {
+		return calls;
+	}
+
+	/**
+	 * Loads the entities referenced by the items. The comments, attachments and commits
+	 * of the items of the previous call are released.
+	 */
+	@SuppressWarnings("deprecation")
+	public void hydrate(TrackerItemDto items[]) {
+		Set<Integer> itemIds = new LinkedHashSet<Integer>();
+		Set<Integer> userIds = new LinkedHashSet<Integer>();
+		Set<Integer> trackerIds = new LinkedHashSet<Integer>();
+		for(int i = 0; i < items.length; i++) {
+			TrackerItemDto item = items[i];
+			addId(itemIds, item.getId());
+			addUser(userIds, item.getSubmitter());
+			addUser(userIds, item.getModifier());
+			addUsers(userIds, item.getAssignedTo());
+			addUsers(userIds, item.getSupervisors());
+			if(item.getTracker() != null)
+				addId(trackerIds, item.getTracker().getId());
+		}
+
+		comments.clear();
+		attachments.clear();
+		commits.clear();
+		List<Integer> ids = new ArrayList<Integer>(itemIds);
+
+		if(loadComments) {
+			for(Integer chunk[] : chunks(ids)) {
+				com.intland.codebeamer.persistence.dto.TrackerItemCommentDto found[] = api.findTrackerItemCommentsByTrackerItemId(token, chunk);
+				calls++;
+				for(int i = 0; found != null && i < found.length; i++) {
+					add(comments, getItemId(found[i]), found[i]);
+					addUser(userIds, found[i].getSubmitter());
+				}
+			}
+		}
+
+		if(loadAttachments) {
+			for(Integer chunk[] : chunks(ids)) {
+				com.intland.codebeamer.persistence.dto.TrackerItemAttachmentDto found[] = api.findTrackerItemAttachmentsByTrackerItemId(token, chunk);
+				calls++;
+				for(int i = 0; found != null && i < found.length; i++) {
+					add(attachments, getItemId(found[i]), found[i]);
+					addUser(userIds, found[i].getSubmitter());
+				}
+			}
+		}
+
+		if(loadCommits) {
+			for(Integer chunk[] : chunks(ids)) {
+				ScmChangeSetDto found[] = api.findCommitsByTrackerItems(token, chunk);
+				calls++;
+				Set<Integer> requested = new LinkedHashSet<Integer>();
+				Collections.addAll(requested, chunk);
+				for(int i = 0; found != null && i < found.length; i++) {
+					// a commit can refer to more than one of the items
+					if(found[i].getTrackerItems() == null)
+						continue;
+					for(TrackerItemDto item : found[i].getTrackerItems()) {
+						if(item != null && requested.contains(item.getId()))
+							add(commits, item.getId(), found[i]);
+					}
+				}
+			}
+		}
+
+		if(!resolveReferences)
+			return;
+
+		userIds.removeAll(users.keySet());
+		for(Integer chunk[] : chunks(userIds)) {
+			UserDto found[] = api.findUsersByIds(token, chunk);
+			calls++;
+			for(int i = 0; found != null && i < found.length; i++)
+				users.put(found[i].getId(), found[i]);
+		}
+
+		trackerIds.removeAll(trackers.keySet());
+		for(Integer chunk[] : chunks(trackerIds)) {
+			TrackerDto found[] = api.findTrackersByIds(token, chunk);
+			calls++;
+			for(int i = 0; found != null && i < found.length; i++)
+				trackers.put(found[i].getId(), found[i]);
+		}
+	}
+
+	/** Returns the user resolved by the calls so far, or <code>null</code>. */
+	public UserDto getUser(Integer id) {
+		return users.get(id);
+	}
+
+	/** Returns the resolved version of the given user, or the given one if it has not been resolved. */
+	public UserDto resolve(UserDto user) {
+		UserDto resolved = (user != null) ? users.get(user.getId()) : null;
+		return (resolved != null) ? resolved : user;
+	}
+
+	/** Returns the tracker resolved by the calls so far, or <code>null</code>. */
+	public TrackerDto getTracker(Integer id) {
+		return trackers.get(id);
+	}
+
+	/** Returns the comments of an item of the last call. */
+	@SuppressWarnings("deprecation")
+	public List<com.intland.codebeamer.persistence.dto.TrackerItemCommentDto> getComments(Integer itemId) {
+		return get(comments, itemId);
+	}
+
+	/** Returns the attachments of an item of the last call. */
+	@SuppressWarnings("deprecation")
+	public List<com.intland.codebeamer.persistence.dto.TrackerItemAttachmentDto> getAttachments(Integer itemId) {
+		return get(attachments, itemId);
+	}
+
+	/** Returns the commits referring to an item of the last call. */
+	public List<ScmChangeSetDto> getCommits(Integer itemId) {
+		return get(commits, itemId);
+	}
+
+	public String toString() {
+		return users.size() + " users and " + trackers.size() + " trackers resolved in " + calls + " calls (chunks of " + chunkSize + ")";
+	}
+
+	/** Splits the ids into arrays of at most the chunk size. */
+	private List<Integer[]> chunks(Collection<Integer> ids) {
+		List<Integer[]> chunks = new ArrayList<Integer[]>();
+		List<Integer> list = new ArrayList<Integer>(ids);
+		for(int start = 0; start < list.size(); start += chunkSize) {
+			List<Integer> chunk = list.subList(start, Math.min(start + chunkSize, list.size()));
+			chunks.add(chunk.toArray(new Integer[chunk.size()]));
+		}
+		return chunks;
+	}
+
+	@SuppressWarnings("deprecation")
+	private static Integer getItemId(com.intland.codebeamer.persistence.dto.TrackerItemCommentDto comment) {
+		return (comment.getTrackerItem() != null) ? comment.getTrackerItem().getId() : comment.getObjectId();
+	}
+
+	private static void addId(Set<Integer> ids, Integer id) {
+		if(id != null)
+			ids.add(id);
+	}
+
+	private static void addUser(Set<Integer> ids, UserDto user) {
+		if(user != null)
+			addId(ids, user.getId());
+	}
+
+	/** Adds the users, the roles among the assignees and supervisors are skipped. */
+	private static void addUsers(Set<Integer> ids, List<? extends NamedDto> members) {
+		if(members == null)
+			return;
+
+		for(NamedDto member : members) {
+			if(member instanceof UserDto)
+				addId(ids, member.getId());
+		}
+	}
+
+	private static <T> void add(Map<Integer, List<T>> map, Integer itemId, T value) {
+		if(itemId == null)
+			return;
+
+		List<T> values = map.get(itemId);
+		if(values == null) {
+			values = new ArrayList<T>();
+			map.put(itemId, values);
+		}
+		values.add(value);
+	}
+
+	private static <T> List<T> get(Map<Integer, List<T>> map, Integer itemId) {
+		List<T> values = map.get(itemId);
+		return (values != null) ? values : Collections.<T>emptyList();
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.intland.codebeamer.persistence.dto.TrackerItemDto;
+import com.intland.codebeamer.remoting.RemoteApi;
+
+
+/**
+ * Reads the tracker items of trackers page by page with
+ * {@link RemoteApi#findTrackerItemsByFilter(String, Integer[], Map, Map, Date, int, int)}.
+ * <p>
+ * The next page is requested in the background as soon as the current one is returned,
+ * so at most two pages are held in memory at any time.
+ *
+ * @version $Id$
+ */
+public class TrackerItemPager {
+	/** The server does not return more items per page than this. */
+	public static final int MAX_PAGE_SIZE = 1000;
+
+	/** Not modified, a plain <code>HashMap</code> is used to keep the Hessian serialization simple. */
+	private static final Map<Integer, Collection<String>> NO_FILTERS = new HashMap<Integer, Collection<String>>();
+
+	private final RemoteApi api;
+	private final String token;
+	private final Integer trackerIds[];
+	private final Date changedSince;
+	private final int pageSize;
+	private final ExecutorService executor;
+
+	private int nextPage = 0;
+	private Future<TrackerItemDto[]> prefetched;
+
+	/**
+	 * @param changedSince if not <code>null</code>, only the items modified since this date are returned.
+	 * @param executor runs the requests of the pages.
+	 */
+	public TrackerItemPager(RemoteApi api, String token, Integer trackerIds[], Date changedSince, int pageSize, ExecutorService executor) {
+		if(pageSize < 1 || pageSize > MAX_PAGE_SIZE)
+			throw new IllegalArgumentException("The page size must be between 1 and " + MAX_PAGE_SIZE + ": " + pageSize);
+
+		this.api = api;
+		this.token = token;
+		this.trackerIds = trackerIds;
+		this.changedSince = changedSince;
+		this.pageSize = pageSize;
+		this.executor = executor;
+
+		prefetched = executor.submit(new PageLoader(nextPage++));
+	}
+
+	/**
+	 * Returns the next page of items and starts loading the one after it.
+	 * @return the items or <code>null</code> if there are no more items.
+	 */
+	public TrackerItemDto[] nextPage() throws InterruptedIOException {
+		if(prefetched == null)
+			return null;
+
+		TrackerItemDto items[] = get(prefetched);
+		if(items != null && items.length >= pageSize) {
+			prefetched = executor.submit(new PageLoader(nextPage++));
+		} else {
+			prefetched = null;
+		}
+
+		return (items != null && items.length > 0) ? items : null;
+	}
+
+	/** Cancels loading the page requested in the background, if there is one. */
+	public void cancel() {
+		if(prefetched != null) {
+			prefetched.cancel(true);
+			prefetched = null;
+		}
+	}
+
+	private TrackerItemDto[] get(Future<TrackerItemDto[]> page) throws InterruptedIOException {
+		try {
+			return page.get();
+		} catch(InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while loading page " + (nextPage - 1));
+		} catch(ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if(cause instanceof Error)
+				throw (Error) cause;
+			throw new RuntimeException(cause);
+		}
+	}
+
+	/** Loads a single page. */
+	private class PageLoader implements Callable<TrackerItemDto[]> {
+		private final int page;
+
+		PageLoader(int page) {
+			this.page = page;
+		}
+
+		public TrackerItemDto[] call() {
+			return api.findTrackerItemsByFilter(token, trackerIds, NO_FILTERS, NO_FILTERS, changedSince, page, pageSize);
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright by Intland Software
+ *
+ * All rights reserved.
+ *
+ * This software is the confidential and proprietary information
+ * of Intland Software. ("Confidential Information"). You
+ * shall not disclose such Confidential Information and shall use
+ * it only in accordance with the terms of the license agreement
+ * you entered into with Intland.
+ */
+package com.intland.codebeamer.remoting.sample;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+
+import com.caucho.hessian.io.AbstractHessianInput;
+import com.caucho.hessian.io.AbstractHessianOutput;
+import com.intland.codebeamer.remoting.RemoteApiFactory;
+
+
+/**
+ * A {@link RemoteApiFactory} sending the calls through a {@link RemoteApiTransport}.
+ * <p>
+ * The proxies are the same as the ones of the default factory, so the session
+ * handling of the remote API (the cookie sent in the request headers and updated
+ * from the response headers) works unchanged with any transport.
+ * <p>
+ * Use {@link #install(RemoteApiTransport)} to make {@link RemoteApiFactory#getInstance()}
+ * (and so every client in this package) use the transport, or {@link #installFromSystemProperties()}
+ * to select it with <code>-Dcb.http.transport</code>.
+ *
+ * @version $Id$
+ */
+public class TransportRemoteApiFactory extends RemoteApiFactory {
+	private final RemoteApiTransport transport;
+
+	public TransportRemoteApiFactory(RemoteApiTransport transport) {
+		this.transport = transport;
+	}
+
+	/**
+	 * Replaces the shared factory with one using the transport.
+	 * Should be called before the first connection is made.
+	 */
+	public static synchronized TransportRemoteApiFactory install(RemoteApiTransport transport) {
+		TransportRemoteApiFactory factory = new TransportRemoteApiFactory(transport);
+		synchronized(RemoteApiFactory.class) {
+			if(Instance != null)
+				factory.setChunkedPost(Instance.isChunkedPost());
+			Instance = factory;
+		}
+		return factory;
+	}
+
+	/**
+	 * Installs the transport selected by the system property <code>cb.http.transport</code>:
+	 * <code>keep-alive</code> for a {@link KeepAliveTransport} configured by its system properties,
+	 * or the class name of a {@link RemoteApiTransport} implementation with a public default constructor.
+	 * If the property is not set but <code>cb.metrics</code> is, a {@link DefaultTransport} is installed,
+	 * so that the {@link InstrumentedRemoteApi} can count the bytes of the calls.
+	 * @return the installed factory, or <code>null</code> if neither property is set.
+	 */
+	public static TransportRemoteApiFactory installFromSystemProperties() throws Exception {
+		String name = System.getProperty("cb.http.transport");
+		if(name == null || name.length() == 0 || name.equals("default"))
+			return Boolean.getBoolean("cb.metrics") ? install(new DefaultTransport()) : null;
+
+		RemoteApiTransport transport;
+		if(name.equals("keep-alive"))
+			transport = KeepAliveTransport.fromSystemProperties();
+		else
+			transport = (RemoteApiTransport) Class.forName(name).getConstructor().newInstance();
+
+		return install(transport);
+	}
+
+	public RemoteApiTransport getTransport() {
+		return transport;
+	}
+
+	protected URLConnection openConnection(URL url) throws IOException {
+		HttpURLConnection conn = transport.openConnection(url);
+		conn.setDoOutput(true);
+		if(getReadTimeout() > 0)
+			conn.setReadTimeout((int) getReadTimeout());
+		conn.setRequestProperty("Content-Type", "x-application/hessian");
+		return conn;
+	}
+
+	/** Counts the bytes of the request if the call is made through an {@link InstrumentedRemoteApi}. */
+	public AbstractHessianOutput getHessianOutput(OutputStream os) {
+		return super.getHessianOutput(InstrumentedRemoteApi.countRequest(os));
+	}
+
+	/** Counts the bytes of the response if the call is made through an {@link InstrumentedRemoteApi}. */
+	public AbstractHessianInput getHessianInput(InputStream is) {
+		return super.getHessianInput(InstrumentedRemoteApi.countResponse(is));
+	}
+
+	public String toString() {
+		return getClass().getSimpleName() + "[" + transport + "]";
+	}
+
+	/** Opens the connections the same way as the default factory. */
+	public static class DefaultTransport implements RemoteApiTransport {
+		public HttpURLConnection openConnection(URL url) throws IOException {
+			return (HttpURLConnection) url.openConnection();
+		}
+
+		public String toString() {
+			return "default";
+		}
+	}
+}
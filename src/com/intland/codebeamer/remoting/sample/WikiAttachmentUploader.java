@@ -1,10 +1,8 @@
 package com.intland.codebeamer.remoting.sample;
 
 import java.io.*;
-import java.net.MalformedURLException;
 
 import com.intland.codebeamer.persistence.dto.*;
-import com.intland.codebeamer.persistence.util.BinaryStreamDtoHelper;
 import com.intland.codebeamer.remoting.*;
 import com.intland.codebeamer.remoting.bean.*;
 
@@ -16,7 +14,7 @@ import com.intland.codebeamer.remoting.bean.*;
  * <ul>
  *   <li>connecting to CodeBeamer</li>
  *   <li>signing in as a CodeBeamer user</li>
- *   <li>uploading image attachments to an existing Wiki page</li>
+ *   <li>uploading image attachments to an existing Wiki page, in parallel</li>
  * </ul>
  *
  * @author <a href="mailto:robert.enyedi@intland.com">Robert Enyedi</a>
@@ -29,6 +27,8 @@ public class WikiAttachmentUploader {
 			System.err.println("Usage: <program> service-URL login password page-id image-dir");
 			System.err.println("From the image directory all the GIF, JPG and PNG images " +
 								"will be uploaded and attached to the specified page.");
+			System.err.println("Use -Dcb.upload.threads=N to upload N images at the same time " +
+								"and -Dcb.upload.manifest=path to set where the outcome of the uploads is written.");
 			System.exit(-1);
 		}
 		String serviceUrl = args[0];
@@ -37,10 +37,15 @@ public class WikiAttachmentUploader {
 		String pageId = args[3];
 		String imageDir = args[4];
 
-		upload(serviceUrl, login, password, pageId, imageDir);
+		int threads = Integer.getInteger("cb.upload.threads", BulkAttachmentUploader.DEFAULT_THREADS).intValue();
+		File manifest = new File(System.getProperty("cb.upload.manifest", "upload-manifest.csv"));
+
+		upload(serviceUrl, login, password, pageId, imageDir, threads, manifest);
 	}
 
-	private static void upload(String serviceUrl, String login, String password, String pageId, String imageDir) throws MalformedURLException {
+	private static void upload(String serviceUrl, String login, String password, String pageId, String imageDir, int threads, File manifest) throws IOException {
+		MappedFileInputStream.enableStreaming();
+
 		System.out.println("Connecting to CodeBeamer web service at " + serviceUrl + "...");
 		RemoteApi api = RemoteApiFactory.getInstance().connect(serviceUrl);
 		if(api == null) {
@@ -75,33 +80,14 @@ public class WikiAttachmentUploader {
 					}
 				});
 
-				System.out.println("Starting upload for " + imageFiles.length + " image files.");
-
-				for(int i=0;i<imageFiles.length;i++) {
-					File file2 = imageFiles[i];
+				System.out.println("Starting upload for " + imageFiles.length + " image files with " + threads + " parallel uploads.");
 
-					System.out.println("Uploading file " + (i+1) + "/"
-										+ imageFiles.length + ": "
-										+ imageFiles[i].getName()
-										+ " (" + (imageFiles[i].length()/1024) + " KB)");
+				BulkAttachmentUploader uploader = new BulkAttachmentUploader(api, token,
+						new BulkAttachmentUploader.WikiPageTarget(wikiPage, user, "Image attachment uploaded using the RemoteAPI."),
+						threads, BulkAttachmentUploader.DEFAULT_MAX_IN_FLIGHT_MB, BulkAttachmentUploader.DEFAULT_RETRIES);
+				uploader.upload(imageFiles, manifest);
 
-					try {
-						BinaryStreamDto blob = BinaryStreamDtoHelper.loadFromFile(file2);
-
-						ArtifactDto attachment = new ArtifactDto();
-						attachment.setTypeId(Integer.valueOf(ArtifactType.ATTACHMENT));
-						attachment.setParent(wikiPage);
-						attachment.setDescription("Image attachment uploaded using the RemoteAPI.");
-						attachment.setName(file2.getName());
-						attachment.setMimeType(getMimeType(file2.getName()));
-						attachment.setFileSize(new Long(file2.length()));
-						attachment.setOwner(user);
-
-						attachment = api.createArtifactWithBody(token, attachment, blob);
-					} catch (Throwable e) {
-						e.printStackTrace();
-					}
-				}
+				System.out.println(uploader.getUploaded() + " files uploaded, " + uploader.getFailed() + " failed, see " + manifest);
 			} else {
 				System.out.println("Error: Could not find image directory.");
 			}
@@ -112,14 +98,4 @@ public class WikiAttachmentUploader {
 
 		System.out.println("Done");
 	}
-
-	private static String getMimeType(String name) {
-		String lowercaseName = name.toLowerCase();
-
-		if(lowercaseName.endsWith(".jpg")) {
-			return "image/jpeg";
-		}
-
-		return "image/" + lowercaseName.substring(lowercaseName.lastIndexOf('.') + 1);
-	}
 }